@@ -36,6 +36,11 @@ export class ChatComponent {
   readonly alturaTextarea = signal<number>(48);
   readonly mostrarModalFinalizado = signal<boolean>(false);
 
+  // Paginación del historial hacia atrás
+  readonly hayMasAntiguos = signal<boolean>(false);
+  readonly cargandoAntiguos = signal<boolean>(false);
+  private ultimoMensajeId: number | string | null = null;
+
   // ======= SEÑALES PARA VIDEOLLAMADA =========
   readonly mostrarVideoModal = signal<boolean>(false);
   readonly videoRoomUrl = signal<string>('');
@@ -70,12 +75,17 @@ export class ChatComponent {
     // Inicializar chat
     this.inicializarChat();
 
-    // Auto-scroll cuando lleguen mensajes nuevos
+    // Auto-scroll cuando lleguen mensajes nuevos (no al anteponer mensajes antiguos)
     effect(() => {
       const mensajes = this.mensajes();
-      if (mensajes.length > 0) {
+      // Los pendientes aún no tienen id: se identifican por su clienteId
+      const ultimo = mensajes.length > 0
+        ? mensajes[mensajes.length - 1].id ?? mensajes[mensajes.length - 1].clienteId ?? null
+        : null;
+      if (ultimo !== null && ultimo !== this.ultimoMensajeId) {
         setTimeout(() => this.scrollToBottom(), 100);
       }
+      this.ultimoMensajeId = ultimo;
     });
     // ✅ AÑADIR: Escuchar notificaciones de chat finalizado con effect
     effect(() => {
@@ -140,10 +150,12 @@ export class ChatComponent {
 
     // 3. Cargar historial
     this.chatService.cargarHistorial(this._solicitudId()).subscribe({
-      next: (response) => {
+      next: (httpResponse) => {
+        const response = httpResponse.body!;
         if (response.codigo === 0) {
           const mensajes = response.datos as IMensaje[];
           this.chatService.establecerMensajes(mensajes);
+          this.hayMasAntiguos.set(this.chatService.hayMasMensajes(httpResponse));
           console.log('📜 Historial cargado:', mensajes.length);
 
           // 4. Suscribirse al chat
@@ -201,6 +213,53 @@ export class ChatComponent {
     }
   }
 
+  // ==================== HISTORIAL ANTERIOR ====================
+
+  /**
+   * Carga la página de mensajes anterior al primero que se muestra,
+   * manteniendo la posición del scroll
+   */
+  cargarAnteriores(): void {
+    const antesDe = this.chatService.primerIdGuardado();
+    if (this.cargandoAntiguos() || !this.hayMasAntiguos() || antesDe == null) return;
+
+    this.cargandoAntiguos.set(true);
+    const chatContainer = document.querySelector('.chat-messages');
+    const alturaAntes = chatContainer?.scrollHeight ?? 0;
+
+    this.chatService.cargarHistorial(this._solicitudId(), antesDe).subscribe({
+      next: (httpResponse) => {
+        const response = httpResponse.body!;
+        if (response.codigo === 0) {
+          this.chatService.anteponerMensajes(response.datos as IMensaje[]);
+          this.hayMasAntiguos.set(this.chatService.hayMasMensajes(httpResponse));
+
+          // Tras pintar, el mensaje que se veía arriba sigue en su sitio
+          setTimeout(() => {
+            if (chatContainer) {
+              chatContainer.scrollTop += chatContainer.scrollHeight - alturaAntes;
+            }
+          });
+        }
+        this.cargandoAntiguos.set(false);
+      },
+      error: (err) => {
+        console.error('❌ Error cargando mensajes anteriores:', err);
+        this.cargandoAntiguos.set(false);
+      }
+    });
+  }
+
+  /**
+   * Al llegar arriba del todo se piden los mensajes anteriores
+   */
+  onScrollMensajes(event: Event): void {
+    const contenedor = event.target as HTMLElement;
+    if (contenedor.scrollTop < 50) {
+      this.cargarAnteriores();
+    }
+  }
+
   // ==================== MÉTODOS DE VIDEOLLAMADA ====================
 
   /**
@@ -335,10 +394,12 @@ export class ChatComponent {
 
     this.enviando.set(true);
 
-    this.chatService.enviarMensaje(this._solicitudId(), contenido).subscribe({
+    this.chatService.enviarMensaje(this._solicitudId(), contenido, crypto.randomUUID()).subscribe({
       next: (response) => {
         if (response.codigo === 0) {
           console.log('✅ Mensaje enviado');
+          // Si el servidor lo dejó en cola llega sin id; el eco del WebSocket lo sustituye
+          this.chatService.agregarEnviado(response.datos as IMensaje);
           this.nuevoMensaje.set('');
         } else {
           Swal.fire({
@@ -6,6 +6,7 @@ import Swal from 'sweetalert2';
 import * as L from 'leaflet';
 import ICategoria from '../../../../models/ICategoria';
 import { MapService } from '../../../../services/map.service';
+import { ChatService } from '../../../../services/chat.service';
 import ISolicitudMapa from '../../../../models/solicitud/ISolicitudMapa';
 
 @Component({
@@ -19,6 +20,7 @@ export class MapaComponent implements OnInit, AfterViewInit, OnDestroy {
   // ==================== DEPENDENCY INJECTION ====================
 
   private readonly mapService = inject(MapService);
+  private readonly chatService = inject(ChatService);
 
   // ==================== INPUTS ====================
 
@@ -61,6 +63,9 @@ export class MapaComponent implements OnInit, AfterViewInit, OnDestroy {
   private map!: L.Map;
   private markers: L.Marker[] = [];
 
+  // Nº de notificaciones que había al pedir la ubicación (null = no se espera ninguna)
+  private esperaUbicacionDesde: number | null = null;
+
   // ==================== EFFECTS ====================
 
   /**
@@ -78,10 +83,43 @@ export class MapaComponent implements OnInit, AfterViewInit, OnDestroy {
     }
   });
 
+  /**
+   * La ubicación se geocodifica en segundo plano: llega por WebSocket
+   * como notificación 'ubicacion-actualizada'
+   */
+  private readonly notificacionesEffect = effect(() => {
+    if (this.chatService.conectado()) {
+      this.chatService.suscribirseANotificaciones();
+    }
+  });
+
+  private readonly ubicacionEffect = effect(() => {
+    const notifs = this.chatService.notificaciones();
+    if (this.esperaUbicacionDesde === null) return;
+
+    const evento = notifs.slice(this.esperaUbicacionDesde).find(n => n.tipo === 'ubicacion-actualizada');
+    if (!evento) return;
+
+    this.esperaUbicacionDesde = null;
+    if (evento.encontrada && evento.latitud != null && evento.longitud != null) {
+      this.mostrarMiUbicacion(evento.latitud, evento.longitud);
+    } else {
+      Swal.fire({
+        icon: 'warning',
+        title: 'Ubicación no encontrada',
+        text: 'No se pudo localizar tu dirección. Revisa los datos de tu perfil.',
+        confirmButtonText: 'Entendido',
+        confirmButtonColor: '#3b82f6'
+      });
+      this.errorMapa.emit('No se pudo geocodificar tu dirección');
+    }
+  });
+
   // ==================== LIFECYCLE ====================
 
   ngOnInit(): void {
     this._solicitudesInternas.set(this.solicitudes);
+    this.chatService.conectarWebSocket();
   }
 
   ngAfterViewInit(): void {
@@ -266,28 +304,17 @@ export class MapaComponent implements OnInit, AfterViewInit, OnDestroy {
 
   /**
    * Centra el mapa en la ubicación actual del usuario
-   * Solicita permisos de geolocalización si es necesario
+   * El backend encola la geocodificación de su dirección (202) y el
+   * resultado llega después por WebSocket (ver ubicacionEffect)
    */
   centrarEnMiUbicacion(): void {
+    // Se marca antes de la petición: el evento puede llegar antes que la respuesta
+    this.esperaUbicacionDesde = this.chatService.notificaciones().length;
+
     this.mapService.actualizarUbicacion().subscribe({
-      next: (response) => {
-        if (response.codigo === 0 && response.datos) {
-          const { latitud, longitud } = response.datos;
-
-          if (this.map) {
-            this.map.setView([latitud, longitud], 14);
-
-            // Añadir marcador del usuario
-            const iconoUsuario = this.mapService.crearIconoUsuario();
-            L.marker([latitud, longitud], { icon: iconoUsuario })
-              .addTo(this.map)
-              .bindPopup('<b>Tu ubicación</b>')
-              .openPopup();
-          }
-        }
-      },
       error: (err) => {
         console.error('❌ Error obteniendo ubicación:', err);
+        this.esperaUbicacionDesde = null;
 
         Swal.fire({
           icon: 'error',
@@ -302,6 +329,21 @@ export class MapaComponent implements OnInit, AfterViewInit, OnDestroy {
     });
   }
 
+  /**
+   * Centra el mapa en la ubicación del usuario y le pone su marcador
+   */
+  private mostrarMiUbicacion(latitud: number, longitud: number): void {
+    if (!this.map) return;
+
+    this.map.setView([latitud, longitud], 14);
+
+    const iconoUsuario = this.mapService.crearIconoUsuario();
+    L.marker([latitud, longitud], { icon: iconoUsuario })
+      .addTo(this.map)
+      .bindPopup('<b>Tu ubicación</b>')
+      .openPopup();
+  }
+
   /**
    * Resetea el mapa a la vista por defecto (Madrid)
    */
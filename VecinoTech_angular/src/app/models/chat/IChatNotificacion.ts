@@ -1,7 +1,7 @@
 import { IMensaje } from './IMensaje';
 
 export interface IChatNotificacion {
-  tipo: 'solicitud-aceptada' | 'usuario-conectado' | 'nuevo-mensaje' | 'usuario-desconectado' | 'chat-finalizado' | 'video-call-invite'; // ✅ AÑADIR 'chat-finalizado'
+  tipo: 'solicitud-aceptada' | 'usuario-conectado' | 'nuevo-mensaje' | 'usuario-desconectado' | 'chat-finalizado' | 'video-call-invite' | 'ubicacion-actualizada'; // ✅ AÑADIR 'chat-finalizado'
   solicitudId: number;
   usuarioId: number;
   usuarioNombre: string;
@@ -10,4 +10,9 @@ export interface IChatNotificacion {
   // ✅ AÑADIR:
   videoRoomUrl?: string;
   videoRoomName?: string;
+
+  // 'ubicacion-actualizada': resultado de la geocodificación en segundo plano
+  encontrada?: boolean;
+  latitud?: number;
+  longitud?: number;
 }
@@ -0,0 +1,21 @@
+export interface IConversacion {
+  solicitudId: number;
+  titulo: string;
+  categoria: string;
+  rol: 'SOLICITANTE' | 'VOLUNTARIO';
+  contraparte: {
+    id: number;
+    nombre: string;
+    avatarUrl: string | null;
+    ratingPromedio: number | null;
+    ratingTotal: number | null;
+  };
+
+  // Último mensaje (null si la conversación aún no tiene ninguno)
+  ultimoMensajeId: number | null;
+  ultimoMensajeRemitenteId: number | null;
+  ultimoMensajeTexto: string | null;
+  ultimoMensajeFecha: string | null; // ISO 8601
+
+  noLeidos: number;
+}
@@ -1,9 +1,10 @@
 export interface IMensaje {
-  id: number;
+  id: number | null; // null mientras el mensaje espera en la cola del servidor (group commit)
   solicitudId: number;
   remitenteId: number;
   remitenteNombre: string;
   contenido: string;
   fechaEnvio: string; // ISO 8601
   leido: boolean;
+  clienteId?: string | null; // id temporal del envío: casa la respuesta con el eco del WebSocket
 }
@@ -1,5 +1,5 @@
 import { Injectable, signal, computed, inject } from '@angular/core';
-import { HttpClient, HttpHeaders } from '@angular/common/http';
+import { HttpClient, HttpHeaders, HttpParams, HttpResponse } from '@angular/common/http';
 import { Observable } from 'rxjs';
 import { Client, StompSubscription } from '@stomp/stompjs';
 import SockJS from 'sockjs-client';
@@ -69,6 +69,12 @@ export class ChatService {
       heartbeatOutgoing: 4000,
     });
 
+    // El backend identifica la sesión STOMP por el JWT del CONNECT (se relee en cada reconexión)
+    this.stompClient.beforeConnect = () => {
+      const token = this.storage.getAccessToken();
+      this.stompClient!.connectHeaders = token ? { Authorization: `Bearer ${token}` } : {};
+    };
+
     this.stompClient.onConnect = () => {
       console.log('✅ WebSocket conectado');
       this._conectado.set(true);
@@ -243,24 +249,49 @@ export class ChatService {
   // ==================== HTTP METHODS ====================
 
   /**
-   * Carga el historial de mensajes
+   * Bandeja de conversaciones (IConversacion[] en data): último mensaje y no leídos
+   * de cada chat en proceso, en una sola petición
    */
-  cargarHistorial(solicitudId: number): Observable<IRestMessage> {
+  cargarBandeja(): Observable<IRestMessage> {
     const headers = this.getAuthHeaders();
     return this.http.get<IRestMessage>(
-      `${this.API_URL}/${solicitudId}/mensajes`,
+      `${this.API_URL}/inbox`,
       { headers }
     );
   }
 
   /**
-   * Envía un mensaje (HTTP)
+   * Carga una página del historial (del más antiguo al más reciente).
+   * Sin antesDe trae los últimos 'limite' mensajes; con antesDe, los anteriores a ese mensaje.
+   * La respuesta completa incluye la cabecera X-Chat-Hay-Mas (ver hayMasMensajes)
+   */
+  cargarHistorial(solicitudId: number, antesDe?: number, limite = 50): Observable<HttpResponse<IRestMessage>> {
+    const headers = this.getAuthHeaders();
+    let params = new HttpParams().set('limit', limite);
+    if (antesDe != null) {
+      params = params.set('before', antesDe);
+    }
+    return this.http.get<IRestMessage>(
+      `${this.API_URL}/${solicitudId}/mensajes`,
+      { headers, params, observe: 'response' }
+    );
+  }
+
+  /**
+   * ¿Quedan mensajes más antiguos que los de esta página?
+   */
+  hayMasMensajes(response: HttpResponse<IRestMessage>): boolean {
+    return response.headers.get('X-Chat-Hay-Mas') === 'true';
+  }
+
+  /**
+   * Envía un mensaje (HTTP). clienteId vuelve en la respuesta y en el eco del WebSocket
    */
-  enviarMensaje(solicitudId: number, contenido: string): Observable<IRestMessage> {
+  enviarMensaje(solicitudId: number, contenido: string, clienteId: string): Observable<IRestMessage> {
     const headers = this.getAuthHeaders();
     return this.http.post<IRestMessage>(
       `${this.API_URL}/${solicitudId}/enviar`,
-      { contenido },
+      { contenido, clienteId },
       { headers }
     );
   }
@@ -280,10 +311,40 @@ export class ChatService {
   // ==================== HELPERS ====================
 
   /**
-   * Agrega un mensaje al signal
+   * Agrega un mensaje al signal. Si ya está (mismo id o mismo clienteId) se sustituye:
+   * así el eco del WebSocket, que trae el id, reemplaza al pendiente (id null) que
+   * devolvió el envío, llegue antes o después que la respuesta
    */
   private agregarMensaje(mensaje: IMensaje): void {
-    this._mensajes.update(mensajes => [...mensajes, mensaje]);
+    this._mensajes.update(mensajes => {
+      const i = mensajes.findIndex(m => this.esMismoMensaje(m, mensaje));
+      if (i === -1) return [...mensajes, mensaje];
+
+      // Un mensaje con id nunca se cambia por su versión pendiente
+      if (mensaje.id == null) return mensajes;
+      const copia = [...mensajes];
+      copia[i] = mensaje;
+      return copia;
+    });
+  }
+
+  /**
+   * Agrega el mensaje que devolvió el envío (puede venir sin id si el servidor lo tiene en cola)
+   */
+  agregarEnviado(mensaje: IMensaje): void {
+    this.agregarMensaje(mensaje);
+  }
+
+  /**
+   * Id del mensaje más antiguo ya guardado: cursor para pedir la página anterior
+   * (los pendientes, sin id, no sirven)
+   */
+  primerIdGuardado(): number | null {
+    return this._mensajes().find(m => m.id != null)?.id ?? null;
+  }
+
+  private esMismoMensaje(a: IMensaje, b: IMensaje): boolean {
+    return (a.id != null && a.id === b.id) || (!!a.clienteId && a.clienteId === b.clienteId);
   }
 
   /**
@@ -293,6 +354,16 @@ export class ChatService {
     this._mensajes.set([]);
   }
 
+  /**
+   * Añade al principio una página de mensajes más antiguos (sin repetir ids)
+   */
+  anteponerMensajes(anteriores: IMensaje[]): void {
+    this._mensajes.update(mensajes => {
+      const ids = new Set(mensajes.filter(m => m.id != null).map(m => m.id));
+      return [...anteriores.filter(m => !ids.has(m.id)), ...mensajes];
+    });
+  }
+
   /**
    * Establece mensajes (al cargar historial)
    */
@@ -119,13 +119,16 @@ export class RestPortalService {
   }
 
   /**
-   * Obtener solicitudes cercanas al usuario
-   * GET /api/portal/solicitudes/cercanas?radius={km}
+   * Obtener solicitudes cercanas al usuario (con distancia, ordenadas por cercanía)
+   * GET /api/portal/solicitudes/cercanas?radius={km}&despuesDistancia=&despuesId=&limit=
+   * Para la siguiente página se pasan siguienteDistancia/siguienteId de la respuesta anterior
    */
-  public getSolicitudesCercanas(radiusKm: number = 5): Observable<IRestMessage> {
-    return this.http.get<IRestMessage>(
-      `${this.BASE_URL}/solicitudes/cercanas?radius=${radiusKm}`
-    );
+  public getSolicitudesCercanas(radiusKm: number = 5, despuesDistancia?: number, despuesId?: number, limit: number = 20): Observable<IRestMessage> {
+    let url = `${this.BASE_URL}/solicitudes/cercanas?radius=${radiusKm}&limit=${limit}`;
+    if (despuesDistancia != null && despuesId != null) {
+      url += `&despuesDistancia=${despuesDistancia}&despuesId=${despuesId}`;
+    }
+    return this.http.get<IRestMessage>(url);
   }
 
   /**
@@ -196,6 +199,7 @@ export class RestPortalService {
   /**
    * Actualizar ubicación del usuario (geocodificación)
    * POST /api/portal/ubicacion/actualizar
+   * Responde 202 sin datos: la ubicación llega después por WebSocket ('ubicacion-actualizada')
    */
   public actualizarUbicacion(): Observable<IRestMessage> {
     return this.http.post<IRestMessage>(
@@ -42,6 +42,8 @@ public class SecurityConfig {
         ));
         config.setAllowedMethods(List.of("GET","POST","PUT","PATCH","DELETE", "OPTIONS")); // "OPTIONS PARA QUE?" Los navegadores hacen preflight CORS con OPTIONS antes de un POST/PUT/PATCH con headers no simples (ej. Authorization). Si no permites OPTIONS, verás errores CORS aunque tu endpoint GET/POST funcione.
         config.setAllowedHeaders(List.of("*"));
+        // Cabeceras propias que el frontend necesita leer
+        config.setExposedHeaders(List.of("X-Mapa-Watermark", "X-Chat-Hay-Mas"));
         config.setAllowCredentials(true);       // si usas cookies/autorización
         config.setMaxAge(Duration.ofHours(1));  // cache del preflight
 
@@ -65,6 +67,10 @@ public class SecurityConfig {
                                 "/swagger-ui/**",
                                 "/api/portal/diplomas/verify/**")
                         .permitAll() //De momento permitimos todos, ya después lo cerramos a roles y JWT
+                        // El heatmap es para cualquier usuario; el resto de /stats son métricas internas
+                        // y tareas de mantenimiento (backfill, DDL de particiones): solo administradores
+                        .requestMatchers("/api/portal/stats/heatmap").authenticated()
+                        .requestMatchers("/api/portal/stats/**").hasRole("ADMIN")
                         .requestMatchers("/api/portal/**").authenticated()
                         .anyRequest().permitAll() //<--- Después tengo que cambiar a requerir auth
                 )
@@ -1,6 +1,9 @@
 package es.daw.vecinotechbackend.config;
 
+import es.daw.vecinotechbackend.security.StompAuthInterceptor;
+import es.daw.vecinotechbackend.service.ClusterBusService;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
@@ -10,15 +13,32 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final ClusterBusService clusterBusService;
+    private final StompAuthInterceptor stompAuthInterceptor;
+
+    public WebSocketConfig(ClusterBusService clusterBusService, StompAuthInterceptor stompAuthInterceptor) {
+        this.clusterBusService = clusterBusService;
+        this.stompAuthInterceptor = stompAuthInterceptor;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Prefijo para mensajes que van al cliente (suscripciones)
         config.enableSimpleBroker("/topic", "/queue");
 
+        // Con varias instancias, reenvía chat y notificaciones al resto de nodos (LISTEN/NOTIFY)
+        config.configureBrokerChannel().interceptors(clusterBusService);
+
         // Prefijo para mensajes que vienen del cliente
         config.setApplicationDestinationPrefixes("/app");
     }
 
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // El JWT del frame CONNECT identifica al usuario de la sesión
+        registration.interceptors(stompAuthInterceptor);
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Endpoint WebSocket con SockJS como fallback
@@ -1,6 +1,8 @@
 package es.daw.vecinotechbackend.controller;
 
 import es.daw.vecinotechbackend.dto.ApiResponse;
+import es.daw.vecinotechbackend.dto.chat.BusquedaMensajesDTO;
+import es.daw.vecinotechbackend.dto.chat.ConversacionDTO;
 import es.daw.vecinotechbackend.dto.chat.EnviarMensajeRequest;
 import es.daw.vecinotechbackend.dto.chat.MensajeDTO;
 import es.daw.vecinotechbackend.dto.VideoCallInviteDTO;
@@ -9,20 +11,21 @@ import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
-import java.util.Map;
-
-
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Controller
 public class ChatController {
 
+    private static final int MAX_MENSAJES_POR_PAGINA = 200;
+    private static final int MAX_RESULTADOS_BUSQUEDA = 50;
+
     private final ChatService chatService;
 
     public ChatController(ChatService chatService) {
@@ -30,26 +33,33 @@ public class ChatController {
     }
 
     /**
-     * Obtiene el historial de mensajes de un chat
-     * GET /api/portal/chat/{solicitudId}/mensajes
+     * Obtiene una página del historial de mensajes de un chat (del más antiguo al más reciente)
+     * GET /api/portal/chat/{solicitudId}/mensajes?before={mensajeId}&limit=50
+     * GET /api/portal/chat/{solicitudId}/mensajes?after={mensajeId}   (al reconectar)
+     * Sin cursor devuelve los últimos mensajes. La cabecera X-Chat-Hay-Mas indica si
+     * quedan más en esa dirección (el siguiente cursor es el id del primero/último recibido)
      */
     @GetMapping("/api/portal/chat/{solicitudId}/mensajes")
     @ResponseBody
     public ResponseEntity<ApiResponse<List<MensajeDTO>>> obtenerHistorial(
-            @PathVariable Long solicitudId) {
+            @PathVariable Long solicitudId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit) {
 
         try {
             Long userId = getCurrentUserId();
-            List<MensajeDTO> mensajes = chatService.obtenerHistorial(solicitudId, userId);
+            int limite = Math.max(1, Math.min(limit, MAX_MENSAJES_POR_PAGINA));
+            ChatService.Historial historial = chatService.obtenerHistorial(solicitudId, userId, before, after, limite);
 
-            return ResponseEntity.ok(
-                    ApiResponse.ok("Historial de mensajes obtenido", mensajes)
-            );
+            return ResponseEntity.ok()
+                    .header("X-Chat-Hay-Mas", String.valueOf(historial.hayMas()))
+                    .body(ApiResponse.ok("Historial de mensajes obtenido", historial.mensajes()));
 
         } catch (SecurityException e) {
             return ResponseEntity.status(403)
                     .body(ApiResponse.error(403, e.getMessage()));
-        } catch (IllegalStateException e) {
+        } catch (IllegalArgumentException | IllegalStateException e) {
             return ResponseEntity.badRequest()
                     .body(ApiResponse.error(1, e.getMessage()));
         }
@@ -67,7 +77,7 @@ public class ChatController {
 
         try {
             Long userId = getCurrentUserId();
-            MensajeDTO mensaje = chatService.enviarMensaje(solicitudId, userId, request.getContenido());
+            MensajeDTO mensaje = chatService.enviarMensaje(solicitudId, userId, request.getContenido(), request.getClienteId());
 
             return ResponseEntity.ok(
                     ApiResponse.ok("Mensaje enviado", mensaje)
@@ -95,25 +105,87 @@ public class ChatController {
 
             return ResponseEntity.ok(ApiResponse.ok("Mensajes marcados como leídos", null));
 
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403)
+                    .body(ApiResponse.error(403, e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                     .body(ApiResponse.error(1, e.getMessage()));
         }
     }
 
+    /**
+     * Bandeja de conversaciones: solicitudes EN_PROCESO del usuario con el otro
+     * participante, el último mensaje y los no leídos (de más a menos reciente)
+     * GET /api/portal/chat/inbox
+     */
+    @GetMapping("/api/portal/chat/inbox")
+    @ResponseBody
+    public ResponseEntity<ApiResponse<List<ConversacionDTO>>> obtenerBandeja() {
+        Long userId = getCurrentUserId();
+        return ResponseEntity.ok(
+                ApiResponse.ok("Conversaciones obtenidas", chatService.obtenerBandeja(userId))
+        );
+    }
+
+    /**
+     * Busca en los mensajes de todos los chats del usuario, del más al menos relevante.
+     * Paginación por keyset: para la siguiente página se envían siguienteRango/siguienteId
+     * de la respuesta anterior
+     * GET /api/portal/chat/buscar?q=fontanero urgente&limit=20
+     */
+    @GetMapping("/api/portal/chat/buscar")
+    @ResponseBody
+    public ResponseEntity<ApiResponse<BusquedaMensajesDTO>> buscarMensajes(
+            @RequestParam String q,
+            @RequestParam(required = false) Double despuesRango,
+            @RequestParam(required = false) Long despuesId,
+            @RequestParam(defaultValue = "20") int limit) {
+
+        try {
+            Long userId = getCurrentUserId();
+            int limite = Math.max(1, Math.min(limit, MAX_RESULTADOS_BUSQUEDA));
+            BusquedaMensajesDTO pagina = chatService.buscarMensajes(userId, q, despuesRango, despuesId, limite);
+
+            return ResponseEntity.ok(
+                    ApiResponse.ok("Encontrados " + pagina.resultados().size() + " mensajes", pagina)
+            );
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(1, e.getMessage()));
+        }
+    }
+
+    /**
+     * Contadores de mensajes sin leer de todos los chats del usuario (para los badges)
+     * GET /api/portal/chat/no-leidos  ->  { "solicitudId": noLeidos, ... } (solo los que tienen alguno)
+     */
+    @GetMapping("/api/portal/chat/no-leidos")
+    @ResponseBody
+    public ResponseEntity<ApiResponse<Map<Long, Integer>>> obtenerNoLeidos() {
+        Long userId = getCurrentUserId();
+        return ResponseEntity.ok(
+                ApiResponse.ok("Mensajes sin leer", chatService.obtenerNoLeidos(userId))
+        );
+    }
+
     /**
      * Notifica conexión al chat vía WebSocket
      * Cliente envía a: /app/chat/{solicitudId}/conectar
      * Se reenvía a: /topic/chat/{solicitudId}
+     * El usuario sale del JWT del CONNECT (StompAuthInterceptor), no del payload
      */
     @MessageMapping("/chat/{solicitudId}/conectar")
     public void notificarConexion(
             @DestinationVariable Long solicitudId,
-            @Payload Map<String, Object> payload,
             SimpMessageHeaderAccessor headerAccessor) {
 
-        // Extraer userId del payload enviado por el frontend
-        Long userId = ((Number) payload.get("userId")).longValue();
+        Long userId = getStompUserId(headerAccessor);
+        if (userId == null) {
+            System.out.println("⚠️ Conexión al chat " + solicitudId + " sin sesión STOMP autenticada");
+            return;
+        }
         chatService.notificarConexion(solicitudId, userId);
     }
 
@@ -125,13 +197,38 @@ public class ChatController {
     @MessageMapping("/chat/{solicitudId}/desconectar")
     public void notificarDesconexion(
             @DestinationVariable Long solicitudId,
-            @Payload Map<String, Object> payload) { // ✅ CAMBIAR: recibir userId del frontend
-
-        Long userId = ((Number) payload.get("userId")).longValue();
+            SimpMessageHeaderAccessor headerAccessor) {
 
+        Long userId = getStompUserId(headerAccessor);
+        if (userId == null) {
+            System.out.println("⚠️ Desconexión del chat " + solicitudId + " sin sesión STOMP autenticada");
+            return;
+        }
         chatService.notificarDesconexion(solicitudId, userId);
     }
 
+    /**
+     * Participantes del chat que lo tienen abierto ahora mismo
+     * GET /api/portal/chat/{solicitudId}/presencia
+     */
+    @GetMapping("/api/portal/chat/{solicitudId}/presencia")
+    @ResponseBody
+    public ResponseEntity<ApiResponse<Set<Long>>> obtenerPresencia(@PathVariable Long solicitudId) {
+        try {
+            Long userId = getCurrentUserId();
+            Set<Long> conectados = chatService.obtenerConectados(solicitudId, userId);
+
+            return ResponseEntity.ok(ApiResponse.ok("Usuarios conectados al chat", conectados));
+
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403)
+                    .body(ApiResponse.error(403, e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(1, e.getMessage()));
+        }
+    }
+
     /**
      * Crea una sala de videollamada
      * POST /api/portal/chat/{solicitudId}/videocall/create
@@ -163,4 +260,11 @@ public class ChatController {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         return (Long) auth.getPrincipal();
     }
+
+    private Long getStompUserId(SimpMessageHeaderAccessor headerAccessor) {
+        if (headerAccessor.getUser() instanceof Authentication auth && auth.getPrincipal() instanceof Long id) {
+            return id;
+        }
+        return null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package es.daw.vecinotechbackend.controller;
+
+import es.daw.vecinotechbackend.dto.ApiResponse;
+import es.daw.vecinotechbackend.dto.solicitud.HeatmapDTO;
+import es.daw.vecinotechbackend.service.ClusterBusService;
+import es.daw.vecinotechbackend.service.GeocodeBackfillService;
+import es.daw.vecinotechbackend.service.GeocodeCacheService;
+import es.daw.vecinotechbackend.service.GeocodeColaService;
+import es.daw.vecinotechbackend.service.HeatmapService;
+import es.daw.vecinotechbackend.service.MensajeLoteService;
+import es.daw.vecinotechbackend.service.MensajeMantenimientoService;
+import es.daw.vecinotechbackend.service.NominatimCliente;
+import es.daw.vecinotechbackend.service.NotificacionOutboxService;
+import es.daw.vecinotechbackend.service.SolicitudCambioService;
+import es.daw.vecinotechbackend.service.TilesService;
+import es.daw.vecinotechbackend.service.UsuarioResumenService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Endpoints de métricas internas del portal
+ */
+@RestController
+@RequestMapping("/api/portal/stats")
+public class EstadisticasController {
+
+    private final GeocodeCacheService geocodeCacheService;
+    private final GeocodeColaService geocodeColaService;
+    private final TilesService tilesService;
+    private final GeocodeBackfillService geocodeBackfillService;
+    private final HeatmapService heatmapService;
+    private final NominatimCliente nominatimCliente;
+    private final MensajeLoteService mensajeLoteService;
+    private final ClusterBusService clusterBusService;
+    private final UsuarioResumenService usuarioResumenService;
+    private final NotificacionOutboxService notificacionOutboxService;
+    private final MensajeMantenimientoService mensajeMantenimientoService;
+    private final SolicitudCambioService solicitudCambioService;
+
+    public EstadisticasController(GeocodeCacheService geocodeCacheService,
+                                  GeocodeColaService geocodeColaService,
+                                  TilesService tilesService,
+                                  GeocodeBackfillService geocodeBackfillService,
+                                  HeatmapService heatmapService,
+                                  NominatimCliente nominatimCliente,
+                                  MensajeLoteService mensajeLoteService,
+                                  ClusterBusService clusterBusService,
+                                  UsuarioResumenService usuarioResumenService,
+                                  NotificacionOutboxService notificacionOutboxService,
+                                  MensajeMantenimientoService mensajeMantenimientoService,
+                                  SolicitudCambioService solicitudCambioService) {
+        this.geocodeCacheService = geocodeCacheService;
+        this.geocodeColaService = geocodeColaService;
+        this.tilesService = tilesService;
+        this.geocodeBackfillService = geocodeBackfillService;
+        this.heatmapService = heatmapService;
+        this.nominatimCliente = nominatimCliente;
+        this.mensajeLoteService = mensajeLoteService;
+        this.clusterBusService = clusterBusService;
+        this.usuarioResumenService = usuarioResumenService;
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.mensajeMantenimientoService = mensajeMantenimientoService;
+        this.solicitudCambioService = solicitudCambioService;
+    }
+
+    /**
+     * Heatmap de demanda (solicitudes por celda) leído del rollup
+     * GET /api/portal/stats/heatmap?bbox=minLon,minLat,maxLon,maxLat&resolution=12
+     * Filtros opcionales: categoria, estado, desde, hasta (yyyy-MM-dd, por defecto últimos 30 días)
+     */
+    @GetMapping("/heatmap")
+    public ResponseEntity<ApiResponse<HeatmapDTO>> heatmap(
+            @RequestParam String bbox,
+            @RequestParam(defaultValue = "12") int resolution,
+            @RequestParam(required = false) String categoria,
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+
+        try {
+            String[] partes = bbox.split(",");
+            if (partes.length != 4) {
+                throw new IllegalArgumentException("bbox debe ser minLon,minLat,maxLon,maxLat");
+            }
+            double minLon = Double.parseDouble(partes[0].trim());
+            double minLat = Double.parseDouble(partes[1].trim());
+            double maxLon = Double.parseDouble(partes[2].trim());
+            double maxLat = Double.parseDouble(partes[3].trim());
+
+            HeatmapDTO heatmap = heatmapService.obtenerHeatmap(minLat, minLon, maxLat, maxLon, resolution,
+                    categoria, estado, desde, hasta);
+
+            return ResponseEntity.ok(
+                    ApiResponse.ok(String.format("Heatmap con %d celdas", heatmap.celdas().size()), heatmap)
+            );
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(1, e.getMessage()));
+        }
+    }
+
+    /**
+     * Aciertos/fallos de la caché de geocodificación
+     * GET /api/portal/stats/geocode
+     */
+    @GetMapping("/geocode")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> geocode() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estadísticas de la caché de geocodificación", geocodeCacheService.estadisticas())
+        );
+    }
+
+    /**
+     * Estado del circuit breaker, bulkhead y errores/latencia de las llamadas a Nominatim
+     * GET /api/portal/stats/geocode/nominatim
+     */
+    @GetMapping("/geocode/nominatim")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> geocodeNominatim() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado de las llamadas a Nominatim", nominatimCliente.estadisticas())
+        );
+    }
+
+    /**
+     * Estado de la cola de geocodificación en segundo plano
+     * GET /api/portal/stats/geocode/cola
+     */
+    @GetMapping("/geocode/cola")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> geocodeCola() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado de la cola de geocodificación", geocodeColaService.estadisticas())
+        );
+    }
+
+    /**
+     * Progreso del backfill de ubicaciones
+     * GET /api/portal/stats/geocode/backfill
+     */
+    @GetMapping("/geocode/backfill")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> geocodeBackfill() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Progreso del backfill de ubicaciones", geocodeBackfillService.estadisticas())
+        );
+    }
+
+    /**
+     * Lanza el backfill de ubicaciones (reiniciar=true vuelve a empezar desde el principio)
+     * POST /api/portal/stats/geocode/backfill
+     */
+    @PostMapping("/geocode/backfill")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> lanzarGeocodeBackfill(
+            @RequestParam(defaultValue = "false") boolean reiniciar) {
+
+        if (!geocodeBackfillService.lanzar(reiniciar)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(ApiResponse.error(1, "Ya hay un backfill en curso"));
+        }
+        return ResponseEntity.ok(
+                ApiResponse.ok("Backfill de ubicaciones lanzado", geocodeBackfillService.estadisticas())
+        );
+    }
+
+    /**
+     * Poda del log de cambios del mapa (retención y cambios borrados)
+     * GET /api/portal/stats/mapa/cambios
+     */
+    @GetMapping("/mapa/cambios")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> mapaCambios() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado del log de cambios del mapa", solicitudCambioService.estadisticas())
+        );
+    }
+
+    /**
+     * Aciertos/fallos de la caché de teselas del mapa
+     * GET /api/portal/stats/tiles
+     */
+    @GetMapping("/tiles")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> tiles() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estadísticas de la caché de teselas", tilesService.estadisticas())
+        );
+    }
+
+    /**
+     * Estado del group commit de mensajes del chat (lotes, tamaño medio, cola)
+     * GET /api/portal/stats/chat/group-commit
+     */
+    @GetMapping("/chat/group-commit")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> chatGroupCommit() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado del group commit del chat", mensajeLoteService.estadisticas())
+        );
+    }
+
+    /**
+     * Estado del bus entre nodos (LISTEN/NOTIFY) del broker STOMP
+     * GET /api/portal/stats/cluster
+     */
+    @GetMapping("/cluster")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> cluster() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado del bus de cluster", clusterBusService.estadisticas())
+        );
+    }
+
+    /**
+     * Caché de resúmenes de usuario que usan las notificaciones
+     * GET /api/portal/stats/usuarios/cache
+     */
+    @GetMapping("/usuarios/cache")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> usuariosCache() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estadísticas de la caché de usuarios", usuarioResumenService.estadisticas())
+        );
+    }
+
+    /**
+     * Entrega de notificaciones WebSocket por el outbox (enviadas, coalescidas, desborde a BD, latencia)
+     * GET /api/portal/stats/notificaciones
+     */
+    @GetMapping("/notificaciones")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> notificaciones() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado del outbox de notificaciones", notificacionOutboxService.estadisticas())
+        );
+    }
+
+    /**
+     * Mantenimiento de la tabla mensaje (particiones mensuales y archivo de chats cerrados)
+     * GET /api/portal/stats/chat/mantenimiento
+     */
+    @GetMapping("/chat/mantenimiento")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> chatMantenimiento() {
+        return ResponseEntity.ok(
+                ApiResponse.ok("Estado del mantenimiento de mensajes", mensajeMantenimientoService.estadisticas())
+        );
+    }
+
+    /**
+     * Lanza ahora una pasada de mantenimiento de mensajes
+     * POST /api/portal/stats/chat/mantenimiento
+     */
+    @PostMapping("/chat/mantenimiento")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> lanzarChatMantenimiento() {
+        if (!mensajeMantenimientoService.lanzar()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(ApiResponse.error(1, "Ya hay un mantenimiento de mensajes en curso"));
+        }
+        return ResponseEntity.ok(
+                ApiResponse.ok("Mantenimiento de mensajes lanzado", mensajeMantenimientoService.estadisticas())
+        );
+    }
+}
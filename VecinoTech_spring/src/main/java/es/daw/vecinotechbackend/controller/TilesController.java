@@ -0,0 +1,48 @@
+package es.daw.vecinotechbackend.controller;
+
+import es.daw.vecinotechbackend.service.TilesService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Teselas vectoriales del mapa de solicitudes
+ * GET /api/portal/tiles/{z}/{x}/{y}.mvt
+ */
+@RestController
+@RequestMapping("/api/portal/tiles")
+public class TilesController {
+
+    private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final TilesService tilesService;
+
+    public TilesController(TilesService tilesService) {
+        this.tilesService = tilesService;
+    }
+
+    @GetMapping("/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> tesela(@PathVariable int z, @PathVariable int x, @PathVariable int y) {
+        try {
+            byte[] tesela = tilesService.obtenerTesela(z, x, y);
+
+            // Vacía -> 204 para que el cliente no intente decodificarla
+            if (tesela.length == 0) {
+                return ResponseEntity.noContent().build();
+            }
+
+            // Las invalidaciones son en el servidor: el navegador debe revalidar siempre
+            return ResponseEntity.ok()
+                    .contentType(MVT)
+                    .cacheControl(CacheControl.noCache())
+                    .body(tesela);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -3,17 +3,22 @@ package es.daw.vecinotechbackend.controller;
 import es.daw.vecinotechbackend.dto.ApiResponse;
 import es.daw.vecinotechbackend.dto.*;
 import es.daw.vecinotechbackend.dto.solicitud.ISolicitudMapaDTO;
+import es.daw.vecinotechbackend.dto.solicitud.MapaCambiosDTO;
+import es.daw.vecinotechbackend.dto.solicitud.MapaClustersDTO;
 import es.daw.vecinotechbackend.dto.solicitud.NeedHelpRequest;
 import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudesCercanasDTO;
 import es.daw.vecinotechbackend.dto.usuario.ActualizarPerfilRequest;
 import es.daw.vecinotechbackend.dto.usuario.UsuarioDetalleDTO;
 import es.daw.vecinotechbackend.dto.valoracion.LeaderDTO;
 import es.daw.vecinotechbackend.entity.Solicitud;
 import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import es.daw.vecinotechbackend.repository.SolicitudRepository.SolicitudMapaView;
 import es.daw.vecinotechbackend.service.FileStorageService;
 import es.daw.vecinotechbackend.service.PortalService;
+import es.daw.vecinotechbackend.service.SolicitudCambioService;
 import jakarta.validation.Valid;
-import org.locationtech.jts.geom.Point;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -30,11 +35,14 @@ public class ZonaPortalController {
     private final PortalService portalService;
     private final SolicitudMapper solicitudMapper;
     private final FileStorageService fileStorageService;
+    private final SolicitudCambioService solicitudCambioService;
 
-    public ZonaPortalController(PortalService portalService, SolicitudMapper solicitudMapper, FileStorageService fileStorageService) {
+    public ZonaPortalController(PortalService portalService, SolicitudMapper solicitudMapper,
+                                FileStorageService fileStorageService, SolicitudCambioService solicitudCambioService) {
         this.portalService = portalService;
         this.solicitudMapper = solicitudMapper;
         this.fileStorageService = fileStorageService;
+        this.solicitudCambioService = solicitudCambioService;
     }
 
     @PostMapping("/volunteer")
@@ -71,12 +79,17 @@ public class ZonaPortalController {
     // ============= NUEVOS ENDPOINTS DE GEOLOCALIZACIÓN =============
 
     /**
-     * Obtiene solicitudes cercanas a la ubicación del usuario
+     * Obtiene solicitudes cercanas a la ubicación del usuario, con su distancia
+     * y ordenadas por cercanía. Paginación por keyset: para la siguiente página se envían
+     * los valores siguienteDistancia/siguienteId de la respuesta anterior
      * @param radius Radio de búsqueda en kilómetros (por defecto 5km)
      */
     @GetMapping("/solicitudes/cercanas")
-    public ResponseEntity<ApiResponse<List<SolicitudDTO>>> solicitudesCercanas(
-            @RequestParam(defaultValue = "5") int radius) {
+    public ResponseEntity<ApiResponse<SolicitudesCercanasDTO>> solicitudesCercanas(
+            @RequestParam(defaultValue = "5") int radius,
+            @RequestParam(required = false) Double despuesDistancia,
+            @RequestParam(required = false) Long despuesId,
+            @RequestParam(defaultValue = "20") int limit) {
 
         try {
             Long userId = getCurrentUserId();
@@ -84,18 +97,17 @@ public class ZonaPortalController {
             // Validar radio (máximo 20km como indicaste)
             if (radius < 1) radius = 1;
             if (radius > 20) radius = 20;
+            if (limit < 1) limit = 1;
+            if (limit > 50) limit = 50;
 
-            List<Solicitud> solicitudes = portalService.obtenerSolicitudesCercanas(userId, radius);
-
-            List<SolicitudDTO> dtos = solicitudes.stream()
-                    .map(solicitudMapper::toDTO)
-                    .toList();
+            SolicitudesCercanasDTO pagina = portalService.obtenerSolicitudesCercanas(
+                    userId, radius, despuesDistancia, despuesId, limit);
 
             return ResponseEntity.ok(
                     ApiResponse.ok(
                             String.format("Encontradas %d solicitudes en un radio de %d km",
-                                    dtos.size(), radius),
-                            dtos
+                                    pagina.solicitudes().size(), radius),
+                            pagina
                     )
             );
 
@@ -132,39 +144,86 @@ public class ZonaPortalController {
      */
     @GetMapping("/solicitudes/mapa")
     public ResponseEntity<ApiResponse<List<ISolicitudMapaDTO>>> solicitudesParaMapa() {
-        List<Solicitud> solicitudes = portalService.obtenerTodasSolicitudesAbiertas();
+        // El watermark se lee ANTES del listado: como mucho se repetirá algún cambio en el primer delta
+        long watermark = solicitudCambioService.watermarkActual();
+        List<SolicitudMapaView> solicitudes = portalService.obtenerTodasSolicitudesAbiertas();
 
         List<ISolicitudMapaDTO> dtos = solicitudes.stream()
                 .map(solicitudMapper::toMapaDTO)
                 .toList();
 
-        return ResponseEntity.ok(
-                ApiResponse.ok(
+        return ResponseEntity.ok()
+                .header("X-Mapa-Watermark", String.valueOf(watermark))
+                .body(ApiResponse.ok(
                         String.format("Mostrando %d solicitudes abiertas", dtos.size()),
                         dtos
+                ));
+    }
+
+    /**
+     * Cambios del mapa desde el watermark del cliente (altas y bajas, una por solicitud)
+     * El watermark inicial llega en la cabecera X-Mapa-Watermark de /solicitudes/mapa
+     */
+    @GetMapping("/solicitudes/mapa/cambios")
+    public ResponseEntity<ApiResponse<MapaCambiosDTO>> cambiosMapa(
+            @RequestParam(defaultValue = "0") long since) {
+
+        MapaCambiosDTO cambios = solicitudCambioService.cambiosDesde(Math.max(0, since));
+
+        return ResponseEntity.ok(
+                ApiResponse.ok(
+                        String.format("%d altas y %d bajas desde %d",
+                                cambios.altas().size(), cambios.bajas().size(), since),
+                        cambios
                 )
         );
     }
 
     /**
-     * Actualiza la ubicación del usuario geocodificando su dirección
+     * Marcadores del mapa para el área visible: clusters (total, centroide y categorías)
+     * a zoom bajo y solicitudes sueltas a zoom alto
      */
-    @PostMapping("/ubicacion/actualizar")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> actualizarUbicacion() {
+    @GetMapping("/solicitudes/mapa/clusters")
+    public ResponseEntity<ApiResponse<MapaClustersDTO>> clustersMapa(
+            @RequestParam double minLat,
+            @RequestParam double minLon,
+            @RequestParam double maxLat,
+            @RequestParam double maxLon,
+            @RequestParam int zoom) {
+
         try {
-            Long userId = getCurrentUserId();
-            Point ubicacion = portalService.actualizarUbicacionUsuario(userId);
+            MapaClustersDTO mapa = portalService.obtenerClustersMapa(minLat, minLon, maxLat, maxLon, zoom);
 
             return ResponseEntity.ok(
                     ApiResponse.ok(
-                            "Ubicación actualizada correctamente",
-                            Map.of(
-                                    "latitud", ubicacion.getY(),
-                                    "longitud", ubicacion.getX()
-                            )
+                            String.format("%d clusters y %d solicitudes en el área",
+                                    mapa.clusters().size(), mapa.puntos().size()),
+                            mapa
                     )
             );
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(1, e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error(2, e.getMessage()));
+        }
+    }
+
+    /**
+     * Encola la geocodificación de la dirección del usuario (202).
+     * La ubicación llega después con el evento "ubicacion-actualizada" en /topic/notificaciones/{id}
+     */
+    @PostMapping("/ubicacion/actualizar")
+    public ResponseEntity<ApiResponse<Void>> actualizarUbicacion() {
+        try {
+            Long userId = getCurrentUserId();
+            portalService.actualizarUbicacionUsuario(userId);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.ok("Geocodificando tu dirección", null));
+
         } catch (IllegalStateException e) {
             return ResponseEntity.badRequest()
                     .body(ApiResponse.error(1, e.getMessage()));
@@ -225,7 +284,7 @@ public class ZonaPortalController {
             Long userId = getCurrentUserId();
 
             // Buscar solicitudes del usuario ordenadas por fecha descendente
-            List<Solicitud> solicitudes = portalService.obtenerSolicitudesDelUsuario(userId);
+            List<SolicitudMapaView> solicitudes = portalService.obtenerSolicitudesDelUsuario(userId);
 
             // Mapear a DTO
             List<ISolicitudMapaDTO> solicitudesDTO = solicitudes.stream()
@@ -255,7 +314,7 @@ public class ZonaPortalController {
             Long userId = getCurrentUserId();
 
             // Buscar solicitudes donde el usuario es voluntario
-            List<Solicitud> solicitudes = portalService.obtenerSolicitudesComoVoluntario(userId);
+            List<SolicitudMapaView> solicitudes = portalService.obtenerSolicitudesComoVoluntario(userId);
 
             // Mapear a DTO
             List<ISolicitudMapaDTO> solicitudesDTO = solicitudes.stream()
@@ -11,12 +11,11 @@ import es.daw.vecinotechbackend.entity.UsuarioDetalle;
 import es.daw.vecinotechbackend.mapper.UsuarioMapper;
 import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository;
 import es.daw.vecinotechbackend.repository.UsuarioRepository;
-import es.daw.vecinotechbackend.service.GeocodeService;
+import es.daw.vecinotechbackend.service.GeocodeColaService;
 import es.daw.vecinotechbackend.service.MailService;
 import es.daw.vecinotechbackend.security.JwtUtils;
 import io.jsonwebtoken.Claims;
 import jakarta.validation.Valid;
-import org.locationtech.jts.geom.Point;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -37,7 +36,7 @@ public class ZonaUsuarioController {
     private final PasswordEncoder passwordEncoder;
     private final MailService mailService;
     private final JwtUtils jwtUtils;
-    private final GeocodeService geocodeService;
+    private final GeocodeColaService geocodeColaService;
 
 
     @Value("${app.frontend.base-url}")
@@ -52,14 +51,14 @@ public class ZonaUsuarioController {
                                  MailService mailService,
                                  JwtUtils jwtUtils,
                                  UsuarioDetalleRepository usuarioDetalleRepository,
-                                 GeocodeService geocodeService) {
+                                 GeocodeColaService geocodeColaService) {
         this.usuarioRepository = usuarioRepository;
         this.usuarioMapper = usuarioMapper;
         this.passwordEncoder = passwordEncoder;
         this.mailService = mailService;
         this.jwtUtils = jwtUtils;
         this.usuarioDetalleRepository = usuarioDetalleRepository;
-        this.geocodeService = geocodeService;
+        this.geocodeColaService = geocodeColaService;
     }
 
     // ============= REGISTRO DE USUARIO ==========
@@ -106,46 +105,17 @@ public class ZonaUsuarioController {
 
     /**
      * ✅ NUEVO: Método privado para geocodificar usuario después del registro
-     * No falla el registro si la geocodificación falla
+     * Se encola en segundo plano: no retrasa ni hace fallar el registro
      */
     private void geocodificarDireccionUsuario(Usuario usuario) {
-        try {
-            UsuarioDetalle detalle = usuario.getDetalle();
-
-            // Verificar que tenga datos mínimos
-            if (detalle == null) {
-                System.out.println("ℹ️ Usuario sin detalle, no se geocodifica");
-                return;
-            }
-
-            boolean tieneDireccion = detalle.getDireccion() != null && !detalle.getDireccion().isBlank();
-            boolean tieneCP = detalle.getCodigoPostal() != null && !detalle.getCodigoPostal().isBlank();
-
-            if (!tieneDireccion && !tieneCP) {
-                System.out.println("ℹ️ Usuario sin dirección ni CP, no se geocodifica");
-                return;
-            }
-
-            // Llamar al servicio de geocodificación
-            Point ubicacion = geocodeService.geocodificar(
-                    detalle.getDireccion(),
-                    detalle.getCiudad(),
-                    detalle.getCodigoPostal(),
-                    detalle.getPais()
-            );
-
-            if (ubicacion != null) {
-                detalle.setUbicacion(ubicacion);
-                usuarioDetalleRepository.save(detalle);
-                System.out.println("✅ Usuario geocodificado exitosamente");
-            } else {
-                System.out.println("⚠️ No se pudo geocodificar");
-            }
+        UsuarioDetalle detalle = usuario.getDetalle();
 
-        } catch (Exception e) {
-            System.err.println("❌ Error geocodificando: " + e.getMessage());
-            // NO lanzamos excepción - el registro debe completarse igual
+        if (detalle == null) {
+            System.out.println("ℹ️ Usuario sin detalle, no se geocodifica");
+            return;
         }
+
+        geocodeColaService.encolar(usuario.getId(), detalle);
     }
 
     // ============== ACTIVACIÓN VIA ENLACE ==============
@@ -212,7 +182,7 @@ public class ZonaUsuarioController {
         }
 
         // Emite tokens
-        String access  = jwtUtils.createAccessToken(usuario.getId()); // ← sin rol
+        String access  = jwtUtils.createAccessToken(usuario.getId(), usuario.getRol());
         String refresh = jwtUtils.createRefreshToken(usuario.getId());
         var dto = usuarioMapper.toDTO(usuario);
         var payload = new AuthPayload(access, refresh, dto);
@@ -281,7 +251,7 @@ public class ZonaUsuarioController {
             return ResponseEntity.status(401).body(ApiResponse.error(1, "Usuario inválido o inactivo"));
         }
 
-        String newAccess = jwtUtils.createAccessToken(user.getId()); // ← sin rol
+        String newAccess = jwtUtils.createAccessToken(user.getId(), user.getRol());
         var dto = usuarioMapper.toDTO(user);
         //GENERO UN NUEVO REFRESH TOKEN
         String newRefresh = jwtUtils.createRefreshToken(user.getId());
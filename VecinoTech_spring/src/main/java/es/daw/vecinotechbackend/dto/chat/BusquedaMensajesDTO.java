@@ -0,0 +1,25 @@
+package es.daw.vecinotechbackend.dto.chat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Página de resultados de la búsqueda en los chats, ordenados por (rango, id) descendente.
+ * Para pedir la siguiente página se envían siguienteRango y siguienteId
+ * como despuesRango y despuesId (son null cuando no hay más).
+ */
+public record BusquedaMensajesDTO(List<Resultado> resultados, Double siguienteRango, Long siguienteId) {
+
+    /**
+     * Mensaje encontrado. fragmento es HTML escapado con los términos dentro de <mark>
+     */
+    public record Resultado(Long mensajeId,
+                            Long solicitudId,
+                            String solicitudTitulo,
+                            Long remitenteId,
+                            String remitenteNombre,
+                            LocalDateTime fechaEnvio,
+                            String fragmento,
+                            double rango) {
+    }
+}
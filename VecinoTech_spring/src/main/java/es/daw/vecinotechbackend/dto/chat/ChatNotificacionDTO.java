@@ -16,4 +16,17 @@ public class ChatNotificacionDTO {
     // ✅ NUEVO: Campos para videollamada
     private String videoRoomUrl;
     private String videoRoomName;
-}
\ No newline at end of file
+
+    /**
+     * Notificación "nuevo-mensaje" que se emite a /topic/chat/{solicitudId}
+     */
+    public static ChatNotificacionDTO nuevoMensaje(MensajeDTO mensaje) {
+        ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
+        notificacion.setTipo("nuevo-mensaje");
+        notificacion.setSolicitudId(mensaje.getSolicitudId());
+        notificacion.setUsuarioId(mensaje.getRemitenteId());
+        notificacion.setUsuarioNombre(mensaje.getRemitenteNombre());
+        notificacion.setMensaje(mensaje);
+        return notificacion;
+    }
+}
@@ -0,0 +1,30 @@
+package es.daw.vecinotechbackend.dto.chat;
+
+import es.daw.vecinotechbackend.dto.usuario.UsuarioResumenDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Una conversación de la bandeja (GET /api/portal/chat/inbox)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ConversacionDTO {
+    private Long solicitudId;
+    private String titulo;
+    private String categoria;
+    private String rol; // "SOLICITANTE" o "VOLUNTARIO": papel del usuario en la solicitud
+    private UsuarioResumenDTO contraparte;
+
+    // Último mensaje (null si aún no hay ninguno); el texto viene recortado
+    private Long ultimoMensajeId;
+    private Long ultimoMensajeRemitenteId;
+    private String ultimoMensajeTexto;
+    private LocalDateTime ultimoMensajeFecha;
+
+    private int noLeidos;
+}
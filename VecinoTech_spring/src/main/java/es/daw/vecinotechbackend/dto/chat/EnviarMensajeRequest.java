@@ -10,4 +10,8 @@ public class EnviarMensajeRequest {
     @NotBlank(message = "El contenido no puede estar vacío")
     @Size(max = 1000, message = "El mensaje no puede superar 1000 caracteres")
     private String contenido;
+
+    // Opcional: id temporal del cliente (ej: crypto.randomUUID()) que vuelve en la respuesta y en el WebSocket
+    @Size(max = 64, message = "El id del cliente no puede superar 64 caracteres")
+    private String clienteId;
 }
\ No newline at end of file
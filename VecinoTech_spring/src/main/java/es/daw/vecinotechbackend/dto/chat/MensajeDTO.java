@@ -17,4 +17,7 @@ public class MensajeDTO {
     private String contenido;
     private LocalDateTime fechaEnvio;
     private boolean leido;
+    // Id que pone el cliente al enviar: casa la respuesta (que puede llegar sin id
+    // con el group commit) con el eco del WebSocket. Null en el historial
+    private String clienteId;
 }
@@ -0,0 +1,17 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Densidad de solicitudes por celda para pintar un heatmap
+ * (resolucion = zoom de la rejilla realmente usada)
+ */
+public record HeatmapDTO(int resolucion, LocalDate desde, LocalDate hasta, List<Celda> celdas) {
+
+    /**
+     * Centro de la celda y número de solicitudes
+     */
+    public record Celda(double latitud, double longitud, long total) {
+    }
+}
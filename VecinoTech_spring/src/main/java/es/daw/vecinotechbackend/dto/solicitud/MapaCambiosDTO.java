@@ -0,0 +1,17 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+import java.util.List;
+
+/**
+ * Cambios del mapa desde un watermark.
+ * altas: solicitudes que hay que añadir o refrescar en el mapa
+ * bajas: solicitudes que hay que quitar (ya no están abiertas) con su estado actual
+ * watermark: valor a enviar como "since" en la siguiente petición
+ * recargar: el watermark es anterior a la poda del log; hay que volver a pedir
+ *           /solicitudes/mapa entero (altas y bajas vienen vacías)
+ */
+public record MapaCambiosDTO(long watermark, List<ISolicitudMapaDTO> altas, List<Baja> bajas, boolean recargar) {
+
+    public record Baja(Long id, String estado) {
+    }
+}
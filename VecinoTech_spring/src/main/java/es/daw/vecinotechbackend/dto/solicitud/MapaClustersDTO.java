@@ -0,0 +1,22 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Respuesta del mapa por viewport: agrupaciones a zoom bajo y puntos sueltos a zoom alto
+ */
+public record MapaClustersDTO(int zoom, List<Cluster> clusters, List<Punto> puntos) {
+
+    /**
+     * Grupo de solicitudes de una celda: centroide, total y desglose por categoría
+     */
+    public record Cluster(double latitud, double longitud, int total, Map<String, Integer> categorias) {
+    }
+
+    /**
+     * Solicitud individual (solo lo necesario para pintar el marcador)
+     */
+    public record Punto(Long id, double latitud, double longitud, String categoria, String titulo) {
+    }
+}
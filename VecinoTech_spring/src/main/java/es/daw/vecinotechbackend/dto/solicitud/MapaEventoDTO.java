@@ -0,0 +1,14 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+/**
+ * Evento compacto del mapa que se publica en /topic/mapa/{geohash5}
+ * tipo = "alta" (añadir/refrescar marcador) o "baja" (quitarlo)
+ */
+public record MapaEventoDTO(String tipo,
+                            Long id,
+                            double latitud,
+                            double longitud,
+                            String categoria,
+                            String estado,
+                            String titulo) {
+}
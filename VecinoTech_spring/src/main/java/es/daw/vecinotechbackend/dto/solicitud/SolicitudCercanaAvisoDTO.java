@@ -0,0 +1,14 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+/**
+ * Aviso WebSocket a un voluntario cuando se crea una solicitud dentro de su radio
+ * (tipo = "solicitud-cercana")
+ */
+public record SolicitudCercanaAvisoDTO(String tipo,
+                                       Long solicitudId,
+                                       String titulo,
+                                       String categoria,
+                                       double latitud,
+                                       double longitud,
+                                       double distancia) {
+}
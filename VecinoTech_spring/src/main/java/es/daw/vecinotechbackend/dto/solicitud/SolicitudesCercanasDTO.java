@@ -0,0 +1,24 @@
+package es.daw.vecinotechbackend.dto.solicitud;
+
+import java.util.List;
+
+/**
+ * Página de solicitudes cercanas ordenadas por (distancia, id).
+ * Para pedir la siguiente página se envían siguienteDistancia y siguienteId
+ * como despuesDistancia y despuesId (son null cuando no hay más).
+ */
+public record SolicitudesCercanasDTO(List<Cercana> solicitudes, Double siguienteDistancia, Long siguienteId) {
+
+    /**
+     * Solicitud con la distancia (en metros) al usuario
+     */
+    public record Cercana(Long id,
+                          String titulo,
+                          String descripcion,
+                          String categoria,
+                          String estado,
+                          Double latitud,
+                          Double longitud,
+                          double distancia) {
+    }
+}
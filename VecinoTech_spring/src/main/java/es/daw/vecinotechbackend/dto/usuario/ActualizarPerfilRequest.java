@@ -1,5 +1,7 @@
 package es.daw.vecinotechbackend.dto.usuario;
 
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
@@ -23,4 +25,8 @@ public class ActualizarPerfilRequest {
 
     @Pattern(regexp = "^[0-9]{5}$", message = "El código postal debe tener 5 dígitos")
     private String codigoPostal;
+
+    @Min(value = 1, message = "El radio de avisos debe ser de al menos 1 km")
+    @Max(value = 20, message = "El radio de avisos no puede superar 20 km")
+    private Integer radioAvisoKm;
 }
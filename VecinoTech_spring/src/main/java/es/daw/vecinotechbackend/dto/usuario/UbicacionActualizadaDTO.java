@@ -0,0 +1,12 @@
+package es.daw.vecinotechbackend.dto.usuario;
+
+/**
+ * Evento WebSocket que se envía al usuario cuando termina la geocodificación
+ * en segundo plano de su dirección (tipo = "ubicacion-actualizada")
+ */
+public record UbicacionActualizadaDTO(String tipo,
+                                      Long usuarioId,
+                                      boolean encontrada,
+                                      Double latitud,
+                                      Double longitud) {
+}
@@ -1,5 +1,7 @@
 package es.daw.vecinotechbackend.dto.usuario;
 
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.Size;
 import lombok.Data;
 
@@ -28,5 +30,9 @@ public class UsuarioDetalleDTO {
 
     private boolean esVoluntario;
 
+    @Min(1)
+    @Max(20)
+    private Integer radioAvisoKm;
+
 }
 
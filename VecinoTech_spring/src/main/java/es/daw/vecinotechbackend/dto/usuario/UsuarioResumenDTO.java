@@ -0,0 +1,12 @@
+package es.daw.vecinotechbackend.dto.usuario;
+
+/**
+ * Lo mínimo de un usuario para pintarlo en notificaciones y listados:
+ * nombre, avatar y valoración. Es lo que guarda UsuarioResumenService en memoria
+ */
+public record UsuarioResumenDTO(Long id,
+                                String nombre,
+                                String avatarUrl,
+                                Double ratingPromedio,
+                                Integer ratingTotal) {
+}
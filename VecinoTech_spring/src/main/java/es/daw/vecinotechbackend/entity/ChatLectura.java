@@ -0,0 +1,29 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Estado de lectura de un participante en un chat.
+ * no_leidos lo incrementa un trigger al insertar mensajes y lo pone a 0
+ * ChatLecturaRepository.marcarLeido (no se escribe con save()).
+ */
+@Entity
+@Table(name = "chat_lectura")
+@Data
+public class ChatLectura {
+
+    @EmbeddedId
+    private ChatLecturaId id;
+
+    @Column(name = "ultimo_leido_id", nullable = false)
+    private long ultimoLeidoId;
+
+    @Column(name = "no_leidos", nullable = false)
+    private int noLeidos;
+
+    @Column(name = "fecha_lectura")
+    private LocalDateTime fechaLectura;
+}
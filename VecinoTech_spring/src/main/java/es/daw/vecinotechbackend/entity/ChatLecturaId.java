@@ -0,0 +1,27 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Clave compuesta de chat_lectura
+ */
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatLecturaId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+
+    @Column(name = "solicitud_id", nullable = false)
+    private Long solicitudId;
+}
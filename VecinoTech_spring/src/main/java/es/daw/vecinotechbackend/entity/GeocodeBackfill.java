@@ -0,0 +1,39 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progreso del backfill de ubicaciones para una fase (usuario_detalle o solicitud).
+ * Se guarda tras cada lote, así el job se reanuda donde se quedó.
+ */
+@Entity
+@Table(name = "geocode_backfill")
+@Data
+public class GeocodeBackfill {
+
+    @Id
+    @Column(length = 30)
+    private String fase;
+
+    @Column(name = "ultimo_id", nullable = false)
+    private long ultimoId;
+
+    @Column(nullable = false)
+    private long procesados;
+
+    @Column(nullable = false)
+    private long actualizados;
+
+    @Column(nullable = false)
+    private long fallidos;
+
+    // Menor id fallido de la pasada: la siguiente ejecución retrocede el cursor hasta él
+    @Column(name = "primer_fallido")
+    private Long primerFallido;
+
+    @Column(name = "fecha_actualizacion", nullable = false)
+    private LocalDateTime fechaActualizacion;
+}
@@ -0,0 +1,30 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.locationtech.jts.geom.Point;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resultado de geocodificación persistido por dirección normalizada
+ * Si encontrado = false es un resultado negativo (Nominatim no devolvió nada)
+ */
+@Entity
+@Table(name = "geocode_cache")
+@Data
+public class GeocodeCache {
+
+    @Id
+    @Column(length = 500)
+    private String clave;
+
+    @Column(columnDefinition = "geography(Point,4326)")
+    private Point ubicacion;
+
+    @Column(nullable = false)
+    private boolean encontrado;
+
+    @Column(name = "fecha_actualizacion", nullable = false)
+    private LocalDateTime fechaActualizacion;
+}
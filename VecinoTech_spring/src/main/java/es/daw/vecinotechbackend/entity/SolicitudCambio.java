@@ -0,0 +1,36 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entrada del log de cambios de solicitudes.
+ * seq ordena los cambios de una misma solicitud; el watermark del cliente del mapa
+ * se compara con xid, la transacción que lo escribió (la rellena la BD).
+ */
+@Entity
+@Table(name = "solicitud_cambio")
+@Data
+public class SolicitudCambio {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long seq;
+
+    @Column(name = "solicitud_id", nullable = false)
+    private Long solicitudId;
+
+    @Column(nullable = false, length = 10)
+    private String tipo; // ALTA, ESTADO
+
+    @Column(nullable = false, length = 20)
+    private String estado;
+
+    @Column(nullable = false)
+    private LocalDateTime fecha;
+
+    @Column(insertable = false, updatable = false)
+    private Long xid;
+}
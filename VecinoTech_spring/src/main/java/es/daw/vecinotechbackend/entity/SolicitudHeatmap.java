@@ -0,0 +1,20 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * Número de solicitudes de una celda del heatmap para una categoría, estado y día.
+ * Se mantiene de forma incremental desde HeatmapService (no se escribe con save()).
+ */
+@Entity
+@Table(name = "solicitud_heatmap")
+@Data
+public class SolicitudHeatmap {
+
+    @EmbeddedId
+    private SolicitudHeatmapId id;
+
+    @Column(nullable = false)
+    private int total;
+}
@@ -0,0 +1,36 @@
+package es.daw.vecinotechbackend.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Clave compuesta de solicitud_heatmap
+ */
+@Embeddable
+@Data
+public class SolicitudHeatmapId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Column(nullable = false)
+    private short resolucion;
+
+    @Column(name = "celda_x", nullable = false)
+    private int celdaX;
+
+    @Column(name = "celda_y", nullable = false)
+    private int celdaY;
+
+    @Column(nullable = false, length = 40)
+    private String categoria;
+
+    @Column(nullable = false, length = 20)
+    private String estado;
+
+    @Column(nullable = false)
+    private LocalDate dia;
+}
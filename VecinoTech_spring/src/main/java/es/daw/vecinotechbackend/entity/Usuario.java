@@ -40,6 +40,10 @@ public class Usuario {
     @Column(nullable = false)
     private boolean activo = false;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Rol rol = Rol.USER;
+
     // 1:1 con la tabla "usuario_detalle"
     @OneToOne(mappedBy = "usuario", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private UsuarioDetalle detalle;
@@ -75,5 +79,8 @@ public class Usuario {
         if (ratingTotal == null) {
             ratingTotal = 0;
         }
+        if (rol == null) {
+            rol = Rol.USER;
+        }
     }
 }
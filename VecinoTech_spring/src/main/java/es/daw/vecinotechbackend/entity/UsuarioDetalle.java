@@ -41,6 +41,10 @@ public class UsuarioDetalle {
     @Column(name = "es_voluntario", nullable = false)
     private boolean esVoluntario = false;
 
+    // Radio (km) en el que el voluntario recibe avisos de solicitudes nuevas
+    @Column(name = "radio_aviso_km", nullable = false)
+    private int radioAvisoKm = 5;
+
     //Esto es para la ubicación geografica (WGS84)
     @Column(columnDefinition = "geography(Point,4326)")
     private Point ubicacion;
@@ -0,0 +1,36 @@
+package es.daw.vecinotechbackend.event;
+
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+
+/**
+ * Evento de dominio: una solicitud se ha creado, ha cambiado de estado
+ * o ha recibido ubicación. Se publica dentro de la transacción y los
+ * listeners (@TransactionalEventListener) lo reciben tras el commit.
+ *
+ * @param solicitud      foto de la solicitud ya modificada (estado nuevo)
+ * @param estadoAnterior estado previo, null si la solicitud es nueva
+ * @param ubicacionNueva la solicitud acaba de recibir ubicación (geocodificación en segundo plano
+ *                       o backfill): hasta ahora no aparecía en el mapa ni contaba en el heatmap
+ */
+public record SolicitudCambioEvent(SolicitudDTO solicitud, String estadoAnterior, boolean ubicacionNueva) {
+
+    public static SolicitudCambioEvent alta(SolicitudDTO solicitud) {
+        return new SolicitudCambioEvent(solicitud, null, false);
+    }
+
+    public static SolicitudCambioEvent cambioEstado(SolicitudDTO solicitud, String estadoAnterior) {
+        return new SolicitudCambioEvent(solicitud, estadoAnterior, false);
+    }
+
+    public static SolicitudCambioEvent ubicacionRecibida(SolicitudDTO solicitud) {
+        return new SolicitudCambioEvent(solicitud, solicitud.getEstado(), true);
+    }
+
+    public boolean esNueva() {
+        return estadoAnterior == null;
+    }
+
+    public boolean cambiaEstado() {
+        return estadoAnterior != null && !estadoAnterior.equals(solicitud.getEstado());
+    }
+}
@@ -0,0 +1,9 @@
+package es.daw.vecinotechbackend.event;
+
+/**
+ * Evento de dominio: ha cambiado algo que afecta a los avisos de un voluntario
+ * (se hace o deja de ser voluntario, cambia su ubicación o su radio de aviso).
+ * Los listeners vuelven a leer sus datos tras el commit.
+ */
+public record VoluntarioCambioEvent(Long usuarioId) {
+}
@@ -3,6 +3,7 @@ package es.daw.vecinotechbackend.mapper;
 import es.daw.vecinotechbackend.dto.solicitud.ISolicitudMapaDTO;
 import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
 import es.daw.vecinotechbackend.entity.Solicitud;
+import es.daw.vecinotechbackend.repository.SolicitudRepository.SolicitudMapaView;
 import org.locationtech.jts.geom.Point;
 import org.mapstruct.*;
 
@@ -31,6 +32,52 @@ public interface SolicitudMapper {
     @Mapping(source = "fechaCreacion", target = "fechaCreacion", qualifiedByName = "localDateTimeToString")
     ISolicitudMapaDTO toMapaDTO(Solicitud entity);
 
+    // ==================== DESDE LA PROJECTION DE LECTURA ====================
+
+    /**
+     * SolicitudMapaView -> ISolicitudMapaDTO (listados sin cargar entidades)
+     */
+    default ISolicitudMapaDTO toMapaDTO(SolicitudMapaView view) {
+        if (view == null) {
+            return null;
+        }
+        ISolicitudMapaDTO dto = new ISolicitudMapaDTO();
+        dto.setId(view.getId());
+        dto.setTitulo(view.getTitulo());
+        dto.setDescripcion(view.getDescripcion());
+        dto.setCategoria(view.getCategoria());
+        dto.setEstado(view.getEstado());
+        dto.setFechaCreacion(localDateTimeToString(view.getFechaCreacion()));
+        dto.setUbicacion(pointToMapaUbicacionDTO(view.getUbicacion()));
+        dto.setSolicitante(new ISolicitudMapaDTO.SolicitanteDTO(view.getSolicitanteId(), view.getSolicitanteNombre()));
+        if (view.getVoluntarioId() != null) {
+            dto.setVoluntario(new ISolicitudMapaDTO.VoluntarioDTO(view.getVoluntarioId(), view.getVoluntarioNombre()));
+        }
+        return dto;
+    }
+
+    /**
+     * SolicitudMapaView -> SolicitudDTO
+     */
+    default SolicitudDTO toDTO(SolicitudMapaView view) {
+        if (view == null) {
+            return null;
+        }
+        SolicitudDTO dto = new SolicitudDTO();
+        dto.setId(view.getId());
+        dto.setSolicitanteId(view.getSolicitanteId());
+        dto.setSolicitanteNombre(view.getSolicitanteNombre());
+        dto.setVoluntarioId(view.getVoluntarioId());
+        dto.setVoluntarioNombre(view.getVoluntarioNombre());
+        dto.setTitulo(view.getTitulo());
+        dto.setDescripcion(view.getDescripcion());
+        dto.setCategoria(view.getCategoria());
+        dto.setEstado(view.getEstado());
+        dto.setFechaCreacion(view.getFechaCreacion());
+        dto.setUbicacion(pointToUbicacionDTO(view.getUbicacion()));
+        return dto;
+    }
+
     // ==================== MÉTODOS DE CONVERSIÓN ORIGINALES ====================
 
     /**
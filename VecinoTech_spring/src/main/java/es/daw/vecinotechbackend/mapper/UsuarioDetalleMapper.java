@@ -23,7 +23,8 @@ public interface UsuarioDetalleMapper {
             @Mapping(target = "pais", source = "pais"),
             @Mapping(target = "codigoPostal", source = "codigoPostal"),
             @Mapping(target = "bio", source = "bio"),
-            @Mapping(target = "esVoluntario", source = "esVoluntario")
+            @Mapping(target = "esVoluntario", source = "esVoluntario"),
+            @Mapping(target = "radioAvisoKm", source = "radioAvisoKm")
     })
     UsuarioDetalle toEntity(UsuarioDetalleDTO dto);
 
@@ -37,7 +38,8 @@ public interface UsuarioDetalleMapper {
             @Mapping(target = "pais", source = "pais"),
             @Mapping(target = "codigoPostal", source = "codigoPostal"),
             @Mapping(target = "bio", source = "bio"),
-            @Mapping(target = "esVoluntario", constant = "false")
+            @Mapping(target = "esVoluntario", constant = "false"),
+            @Mapping(target = "radioAvisoKm", ignore = true) // se queda el valor por defecto
     })
     UsuarioDetalle fromUsuarioDTO(UsuarioDTO dto);
 
@@ -32,6 +32,8 @@ public interface UsuarioMapper {
             @Mapping(target = "activo", source = "activo"),
             // Aquí ya no ignoramos detalle: lo resolvemos en @AfterMapping
             @Mapping(target = "detalle", ignore = true),
+            // El rol solo se cambia en BD, nunca desde un formulario
+            @Mapping(target = "rol", ignore = true),
             @Mapping(target = "solicitudesCreadas", ignore = true),
             @Mapping(target = "solicitudesTomadas", ignore = true),
             @Mapping(target = "valoracionesRecibidas", ignore = true),
@@ -0,0 +1,79 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.entity.ChatLectura;
+import es.daw.vecinotechbackend.entity.ChatLecturaId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface ChatLecturaRepository extends JpaRepository<ChatLectura, ChatLecturaId> {
+
+    interface NoLeidos {
+        Long getSolicitudId();
+        Integer getNoLeidos();
+    }
+
+    /**
+     * Chats del usuario con mensajes sin leer (rango de la PK usuario_id, solicitud_id)
+     */
+    @Query("""
+        SELECT l.id.solicitudId AS solicitudId, l.noLeidos AS noLeidos
+        FROM ChatLectura l
+        WHERE l.id.usuarioId = :usuarioId
+          AND l.noLeidos > 0
+        """)
+    List<NoLeidos> findNoLeidos(@Param("usuarioId") Long usuarioId);
+
+    /**
+     * Marca de lectura de los participantes de un chat (como mucho dos filas)
+     */
+    @Query("SELECT l FROM ChatLectura l WHERE l.id.solicitudId = :solicitudId")
+    List<ChatLectura> findBySolicitudId(@Param("solicitudId") Long solicitudId);
+
+    /**
+     * Paso 1 de marcar como leído: crea la fila si no existía y la deja BLOQUEADA hasta
+     * el commit (el DO UPDATE no cambia nada, solo coge el bloqueo de fila).
+     * Si hay un INSERT de mensaje en vuelo, su trigger tiene la fila: aquí se espera a
+     * que termine, y la siguiente sentencia (snapshot nuevo) ya ve ese mensaje.
+     * Solo afecta si el usuario participa en la solicitud
+     * @return 1 si el usuario participa, 0 si no participa o la solicitud no existe
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO chat_lectura (usuario_id, solicitud_id)
+        SELECT :usuarioId, s.id
+        FROM solicitud s
+        WHERE s.id = :solicitudId
+          AND :usuarioId IN (s.solicitante_id, s.voluntario_id)
+        ON CONFLICT (usuario_id, solicitud_id)
+        DO UPDATE SET fecha_lectura = chat_lectura.fecha_lectura
+        """, nativeQuery = true)
+    int bloquearLectura(@Param("solicitudId") Long solicitudId, @Param("usuarioId") Long usuarioId);
+
+    /**
+     * Paso 2 (misma transacción, fila ya bloqueada): marca hasta el último mensaje y pone
+     * el contador a 0. Los mensajes que lleguen después esperan al commit para sumar.
+     * El último mensaje sale del índice (solicitud_id, fecha_envio, id), solo en las
+     * particiones de mensaje desde la creación de la solicitud
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE chat_lectura l
+        SET ultimo_leido_id = GREATEST(l.ultimo_leido_id,
+                                       COALESCE((SELECT m.id FROM mensaje m
+                                                 WHERE m.solicitud_id = s.id
+                                                   AND m.fecha_envio >= s.fecha_creacion - INTERVAL '1 day'
+                                                 ORDER BY m.fecha_envio DESC, m.id DESC
+                                                 LIMIT 1), 0)),
+            no_leidos = 0,
+            fecha_lectura = now()
+        FROM solicitud s
+        WHERE s.id = l.solicitud_id
+          AND l.solicitud_id = :solicitudId
+          AND l.usuario_id = :usuarioId
+        """, nativeQuery = true)
+    int marcarLeido(@Param("solicitudId") Long solicitudId, @Param("usuarioId") Long usuarioId);
+}
@@ -0,0 +1,7 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.entity.GeocodeBackfill;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface GeocodeBackfillRepository extends JpaRepository<GeocodeBackfill, String> {
+}
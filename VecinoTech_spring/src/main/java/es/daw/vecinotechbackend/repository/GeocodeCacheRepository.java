@@ -0,0 +1,7 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.entity.GeocodeCache;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface GeocodeCacheRepository extends JpaRepository<GeocodeCache, String> {
+}
@@ -1,52 +1,236 @@
 package es.daw.vecinotechbackend.repository;
 
 import es.daw.vecinotechbackend.entity.Mensaje;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface MensajeRepository extends JpaRepository<Mensaje, Long> {
 
     /**
-     * Obtiene todos los mensajes de una solicitud ordenados por fecha
+     * Últimos mensajes de una solicitud (del más reciente al más antiguo)
+     * Las consultas del historial usan el índice (solicitud_id, fecha_envio, id).
+     * mensaje está particionada por mes de fecha_envio: 'desde' (creación de la solicitud
+     * con margen) descarta las particiones anteriores al chat
      */
     @Query("""
         SELECT m FROM Mensaje m
+        JOIN FETCH m.remitente
         WHERE m.solicitud.id = :solicitudId
-        ORDER BY m.fechaEnvio ASC
+          AND m.fechaEnvio >= :desde
+        ORDER BY m.fechaEnvio DESC, m.id DESC
     """)
-    List<Mensaje> findBySolicitudIdOrderByFechaEnvio(@Param("solicitudId") Long solicitudId);
+    List<Mensaje> findUltimos(@Param("solicitudId") Long solicitudId,
+                              @Param("desde") LocalDateTime desde,
+                              Pageable pageable);
 
     /**
-     * Cuenta mensajes no leídos de una solicitud para un usuario específico
+     * Mensajes anteriores al cursor (fecha, id), del más reciente al más antiguo.
+     * La comparación de tuplas no poda particiones: por eso se repite la fecha suelta
      */
     @Query("""
-        SELECT COUNT(m) FROM Mensaje m
+        SELECT m FROM Mensaje m
+        JOIN FETCH m.remitente
         WHERE m.solicitud.id = :solicitudId
-          AND m.remitente.id != :usuarioId
-          AND m.leido = false
+          AND m.fechaEnvio >= :desde
+          AND m.fechaEnvio <= :fecha
+          AND (m.fechaEnvio, m.id) < (:fecha, :id)
+        ORDER BY m.fechaEnvio DESC, m.id DESC
     """)
-    long countMensajesNoLeidos(
+    List<Mensaje> findAnteriores(
             @Param("solicitudId") Long solicitudId,
-            @Param("usuarioId") Long usuarioId
+            @Param("desde") LocalDateTime desde,
+            @Param("fecha") LocalDateTime fecha,
+            @Param("id") Long id,
+            Pageable pageable
     );
 
     /**
-     * Marca todos los mensajes de una solicitud como leídos (excepto los propios)
+     * Mensajes posteriores al cursor (fecha, id), del más antiguo al más reciente
      */
-    @Modifying
     @Query("""
-        UPDATE Mensaje m
-        SET m.leido = true
+        SELECT m FROM Mensaje m
+        JOIN FETCH m.remitente
         WHERE m.solicitud.id = :solicitudId
-          AND m.remitente.id != :usuarioId
-          AND m.leido = false
+          AND m.fechaEnvio >= :fecha
+          AND (m.fechaEnvio, m.id) > (:fecha, :id)
+        ORDER BY m.fechaEnvio ASC, m.id ASC
     """)
-    int marcarMensajesComoLeidos(
+    List<Mensaje> findPosteriores(
             @Param("solicitudId") Long solicitudId,
-            @Param("usuarioId") Long usuarioId
+            @Param("fecha") LocalDateTime fecha,
+            @Param("id") Long id,
+            Pageable pageable
+    );
+
+    /**
+     * Fecha de un mensaje usado como cursor (vacío si no es de esa solicitud).
+     * La PK es (id, fecha_envio): sin acotar la fecha habría que mirar todas las particiones
+     */
+    @Query("""
+        SELECT m.fechaEnvio FROM Mensaje m
+        WHERE m.id = :id AND m.solicitud.id = :solicitudId
+          AND m.fechaEnvio >= :desde
+    """)
+    Optional<LocalDateTime> findFechaEnvio(@Param("solicitudId") Long solicitudId,
+                                           @Param("id") Long id,
+                                           @Param("desde") LocalDateTime desde);
+
+    /*
+     * Projection de un resultado de la búsqueda de texto completo
+     */
+    interface MensajeBusquedaView {
+        Long getMensajeId();
+        Long getSolicitudId();
+        String getSolicitudTitulo();
+        Long getRemitenteId();
+        String getRemitenteNombre();
+        LocalDateTime getFechaEnvio();
+        String getFragmento();
+        Double getRango();
+    }
+
+    /**
+     * Busca en los mensajes de las solicitudes en las que participa el usuario
+     * (índice GIN sobre contenido_tsv), ordenados por relevancia y paginados por keyset
+     * sobre (rango, id). ts_headline solo se calcula para las filas de la página
+     * @param texto Consulta en formato websearch ("palabras", "frase exacta", -excluida, or)
+     * @param despuesRango rango de la última fila recibida (Double.MAX_VALUE en la primera página)
+     * @param despuesId id de la última fila recibida (Long.MAX_VALUE en la primera página)
+     */
+    @Query(value = """
+        SELECT p.id AS mensajeId,
+               p.solicitud_id AS solicitudId,
+               p.titulo AS solicitudTitulo,
+               p.remitente_id AS remitenteId,
+               u.nombre AS remitenteNombre,
+               CAST(p.fecha_envio AS TIMESTAMP) AS fechaEnvio,
+               ts_headline('spanish', p.contenido, websearch_to_tsquery('spanish', :texto),
+                           'StartSel=<mark>, StopSel=</mark>, MinWords=8, MaxWords=25, MaxFragments=2') AS fragmento,
+               p.rango AS rango
+        FROM (
+            SELECT c.* FROM (
+                SELECT m.id, m.solicitud_id, s.titulo, m.remitente_id, m.fecha_envio, m.contenido,
+                       CAST(ts_rank_cd(m.contenido_tsv, q) AS FLOAT8) AS rango
+                FROM solicitud s
+                JOIN mensaje m ON m.solicitud_id = s.id
+                CROSS JOIN websearch_to_tsquery('spanish', :texto) q
+                WHERE (s.solicitante_id = :usuarioId OR s.voluntario_id = :usuarioId)
+                  AND m.fecha_envio >= s.fecha_creacion - INTERVAL '1 day'
+                  AND m.contenido_tsv @@ q
+            ) c
+            WHERE (c.rango, c.id) < (:despuesRango, :despuesId)
+            ORDER BY c.rango DESC, c.id DESC
+            LIMIT :limit
+        ) p
+        JOIN usuario u ON u.id = p.remitente_id
+        ORDER BY p.rango DESC, p.id DESC
+        """, nativeQuery = true)
+    List<MensajeBusquedaView> buscar(
+            @Param("usuarioId") Long usuarioId,
+            @Param("texto") String texto,
+            @Param("despuesRango") double despuesRango,
+            @Param("despuesId") long despuesId,
+            @Param("limit") int limit
     );
-}
\ No newline at end of file
+
+    // ==================== ARCHIVO (mensaje_archivo) ====================
+
+    /*
+     * Projection de un mensaje archivado (sale del array JSONB de mensaje_archivo)
+     */
+    interface MensajeArchivadoView {
+        Long getId();
+        Long getRemitenteId();
+        String getRemitenteNombre();
+        String getContenido();
+        LocalDateTime getFechaEnvio();
+    }
+
+    /**
+     * Todos los mensajes archivados de un chat, del más antiguo al más reciente.
+     * El JSONB se descomprime entero de todas formas, así que se devuelve completo
+     */
+    @Query(value = """
+        SELECT a.id AS id,
+               a."remitenteId" AS remitenteId,
+               u.nombre AS remitenteNombre,
+               a.contenido AS contenido,
+               CAST(a."fechaEnvio" AS TIMESTAMP) AS fechaEnvio
+        FROM mensaje_archivo ma
+        CROSS JOIN LATERAL jsonb_to_recordset(ma.mensajes)
+             AS a(id BIGINT, "remitenteId" BIGINT, contenido TEXT, "fechaEnvio" TIMESTAMPTZ)
+        JOIN usuario u ON u.id = a."remitenteId"
+        WHERE ma.solicitud_id = :solicitudId
+        ORDER BY a."fechaEnvio", a.id
+        """, nativeQuery = true)
+    List<MensajeArchivadoView> findArchivados(@Param("solicitudId") Long solicitudId);
+
+    /**
+     * Solicitudes CERRADAS con mensajes y sin ninguno desde 'limite' (keyset por id).
+     * Cada NOT EXISTS es una búsqueda en el índice (solicitud_id, fecha_envio, id)
+     */
+    @Query(value = """
+        SELECT s.id
+        FROM solicitud s
+        WHERE s.estado = 'CERRADA'
+          AND s.id > :despuesDe
+          AND EXISTS (SELECT 1 FROM mensaje m WHERE m.solicitud_id = s.id)
+          AND NOT EXISTS (SELECT 1 FROM mensaje m
+                          WHERE m.solicitud_id = s.id AND m.fecha_envio >= :limite)
+        ORDER BY s.id
+        LIMIT :lote
+        """, nativeQuery = true)
+    List<Long> findChatsArchivables(@Param("limite") LocalDateTime limite,
+                                    @Param("despuesDe") long despuesDe,
+                                    @Param("lote") int lote);
+
+    /**
+     * Copia a mensaje_archivo los mensajes anteriores a 'limite' de esos chats, un array
+     * JSONB por chat. Si el chat ya estaba archivado se añaden al final
+     * @return chats archivados
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO mensaje_archivo (solicitud_id, num_mensajes, primer_mensaje, ultimo_mensaje, mensajes)
+        SELECT m.solicitud_id,
+               COUNT(*),
+               MIN(m.fecha_envio),
+               MAX(m.fecha_envio),
+               jsonb_agg(jsonb_build_object('id', m.id,
+                                            'remitenteId', m.remitente_id,
+                                            'contenido', m.contenido,
+                                            'fechaEnvio', m.fecha_envio)
+                         ORDER BY m.fecha_envio, m.id)
+        FROM mensaje m
+        WHERE m.solicitud_id IN (:solicitudIds)
+          AND m.fecha_envio < :limite
+        GROUP BY m.solicitud_id
+        ON CONFLICT (solicitud_id)
+        DO UPDATE SET num_mensajes = mensaje_archivo.num_mensajes + EXCLUDED.num_mensajes,
+                      primer_mensaje = LEAST(mensaje_archivo.primer_mensaje, EXCLUDED.primer_mensaje),
+                      ultimo_mensaje = GREATEST(mensaje_archivo.ultimo_mensaje, EXCLUDED.ultimo_mensaje),
+                      mensajes = mensaje_archivo.mensajes || EXCLUDED.mensajes,
+                      fecha_archivo = now()
+        """, nativeQuery = true)
+    int archivar(@Param("solicitudIds") Collection<Long> solicitudIds, @Param("limite") LocalDateTime limite);
+
+    /**
+     * Borra de mensaje lo que archivar() acaba de copiar (misma transacción)
+     * @return mensajes borrados
+     */
+    @Modifying
+    @Query(value = """
+        DELETE FROM mensaje m
+        WHERE m.solicitud_id IN (:solicitudIds)
+          AND m.fecha_envio < :limite
+        """, nativeQuery = true)
+    int borrarArchivados(@Param("solicitudIds") Collection<Long> solicitudIds, @Param("limite") LocalDateTime limite);
+}
@@ -0,0 +1,51 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.entity.SolicitudCambio;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface SolicitudCambioRepository extends JpaRepository<SolicitudCambio, Long> {
+
+    /**
+     * Último cambio de cada solicitud escrito por transacciones entre "since" (incluido)
+     * y el horizonte (excluido)
+     */
+    @Query(value = """
+        SELECT DISTINCT ON (c.solicitud_id) c.*
+        FROM solicitud_cambio c
+        WHERE c.xid >= :since AND c.xid < :horizonte
+        ORDER BY c.solicitud_id, c.seq DESC
+        """, nativeQuery = true)
+    List<SolicitudCambio> findUltimosEntre(@Param("since") long since, @Param("horizonte") long horizonte);
+
+    /**
+     * Transacción más antigua aún en curso (xmin del snapshot): todas las anteriores han
+     * terminado, así que sus cambios ya son visibles y ninguno puede aparecer más tarde.
+     * No hace falta bloquear a los que escriben para que el watermark sea seguro
+     */
+    @Query(value = "SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint", nativeQuery = true)
+    long findHorizonte();
+
+    @Query(value = "SELECT xid_hasta FROM solicitud_cambio_poda", nativeQuery = true)
+    long findPodadoHasta();
+
+    /**
+     * Borra los cambios anteriores a "limite" y apunta hasta qué xid se ha borrado
+     * @return cambios borrados
+     */
+    @Query(value = """
+        WITH borrados AS (
+            DELETE FROM solicitud_cambio WHERE fecha < :limite RETURNING xid
+        ), poda AS (
+            UPDATE solicitud_cambio_poda
+            SET xid_hasta = GREATEST(xid_hasta, (SELECT COALESCE(MAX(xid), 0) FROM borrados))
+            RETURNING 1
+        )
+        SELECT COUNT(*) FROM borrados, poda
+        """, nativeQuery = true)
+    long podarAnteriores(@Param("limite") LocalDateTime limite);
+}
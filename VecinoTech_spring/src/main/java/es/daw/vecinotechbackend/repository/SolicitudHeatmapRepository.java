@@ -0,0 +1,61 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.entity.SolicitudHeatmap;
+import es.daw.vecinotechbackend.entity.SolicitudHeatmapId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface SolicitudHeatmapRepository extends JpaRepository<SolicitudHeatmap, SolicitudHeatmapId> {
+
+    interface CeldaTotal {
+        Integer getCeldaX();
+        Integer getCeldaY();
+        Long getTotal();
+    }
+
+    /**
+     * Suma (o resta) delta al contador de la celda, creando la fila si no existe
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO solicitud_heatmap (resolucion, celda_x, celda_y, categoria, estado, dia, total)
+        VALUES (:resolucion, :x, :y, :categoria, :estado, :dia, :delta)
+        ON CONFLICT (resolucion, celda_x, celda_y, categoria, estado, dia)
+        DO UPDATE SET total = solicitud_heatmap.total + EXCLUDED.total
+        """, nativeQuery = true)
+    void sumar(@Param("resolucion") int resolucion,
+               @Param("x") int x,
+               @Param("y") int y,
+               @Param("categoria") String categoria,
+               @Param("estado") String estado,
+               @Param("dia") LocalDate dia,
+               @Param("delta") int delta);
+
+    /**
+     * Totales por celda dentro del rango de celdas y días (categoría y estado opcionales)
+     */
+    @Query("""
+        SELECT h.id.celdaX AS celdaX, h.id.celdaY AS celdaY, SUM(h.total) AS total
+        FROM SolicitudHeatmap h
+        WHERE h.id.resolucion = :resolucion
+          AND h.id.celdaX BETWEEN :x0 AND :x1
+          AND h.id.celdaY BETWEEN :y0 AND :y1
+          AND h.id.dia BETWEEN :desde AND :hasta
+          AND (:categoria IS NULL OR h.id.categoria = :categoria)
+          AND (:estado IS NULL OR h.id.estado = :estado)
+        GROUP BY h.id.celdaX, h.id.celdaY
+        HAVING SUM(h.total) > 0
+        """)
+    List<CeldaTotal> findCeldas(@Param("resolucion") short resolucion,
+                                @Param("x0") int x0, @Param("x1") int x1,
+                                @Param("y0") int y0, @Param("y1") int y1,
+                                @Param("desde") LocalDate desde,
+                                @Param("hasta") LocalDate hasta,
+                                @Param("categoria") String categoria,
+                                @Param("estado") String estado);
+}
@@ -1,11 +1,16 @@
 package es.daw.vecinotechbackend.repository;
 
 import es.daw.vecinotechbackend.entity.Solicitud;
+import org.locationtech.jts.geom.Point;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface SolicitudRepository extends JpaRepository<Solicitud, Long> {
 
@@ -23,6 +28,117 @@ public interface SolicitudRepository extends JpaRepository<Solicitud, Long> {
     """)
     List<LeaderProjection> topVolunteersByClosedRequests();
 
+    /*
+     * Projection de lectura para los listados (mapa, mis solicitudes, voluntario).
+     * Trae los datos del solicitante y del voluntario en la misma consulta,
+     * sin cargar entidades ni tocar asociaciones LAZY (evita el N+1)
+     */
+    interface SolicitudMapaView {
+        Long getId();
+        String getTitulo();
+        String getDescripcion();
+        String getCategoria();
+        String getEstado();
+        LocalDateTime getFechaCreacion();
+        Point getUbicacion();
+        Long getSolicitanteId();
+        String getSolicitanteNombre();
+        Long getVoluntarioId();
+        String getVoluntarioNombre();
+    }
+
+    /*
+     * Projection con lo que necesita el chat para validar un envío:
+     * estado y participantes (con nombre) en una sola consulta
+     */
+    interface ChatParticipantes {
+        Long getSolicitudId();
+        String getEstado();
+        LocalDateTime getFechaCreacion();
+        Long getSolicitanteId();
+        String getSolicitanteNombre();
+        Long getVoluntarioId();
+        String getVoluntarioNombre();
+    }
+
+    @Query("""
+    SELECT s.id AS solicitudId,
+           s.estado AS estado,
+           s.fechaCreacion AS fechaCreacion,
+           sol.id AS solicitanteId,
+           sol.nombre AS solicitanteNombre,
+           vol.id AS voluntarioId,
+           vol.nombre AS voluntarioNombre
+    FROM Solicitud s
+    JOIN s.solicitante sol
+    LEFT JOIN s.voluntario vol
+    WHERE s.id = :solicitudId""")
+    Optional<ChatParticipantes> findParticipantesChat(@Param("solicitudId") Long solicitudId);
+
+    /*
+     * Projection de la bandeja de conversaciones: la solicitud, el otro participante,
+     * el último mensaje y los no leídos del usuario
+     */
+    interface ConversacionView {
+        Long getSolicitudId();
+        String getTitulo();
+        String getCategoria();
+        Boolean getEsSolicitante();
+        Long getContraparteId();
+        String getContraparteNombre();
+        String getContraparteAvatarUrl();
+        Double getContraparteRatingPromedio();
+        Integer getContraparteRatingTotal();
+        Long getUltimoMensajeId();
+        Long getUltimoMensajeRemitenteId();
+        String getUltimoMensajeTexto();
+        LocalDateTime getUltimoMensajeFecha();
+        Integer getNoLeidos();
+    }
+
+    /**
+     * Conversaciones (solicitudes EN_PROCESO) del usuario en una sola consulta:
+     * el último mensaje sale de un LATERAL con LIMIT 1 sobre el índice
+     * (solicitud_id, fecha_envio, id) y los no leídos de chat_lectura.
+     * Un mensaje no puede ser anterior a su solicitud: acotar fecha_envio por
+     * fecha_creacion descarta las particiones de meses anteriores (margen de un día).
+     * Ordenadas por actividad (último mensaje o, si no hay, creación de la solicitud)
+     */
+    @Query(value = """
+        SELECT s.id AS solicitudId,
+               s.titulo AS titulo,
+               s.categoria AS categoria,
+               (s.solicitante_id = :usuarioId) AS esSolicitante,
+               o.id AS contraparteId,
+               o.nombre AS contraparteNombre,
+               o.avatar_url AS contraparteAvatarUrl,
+               o.rating_promedio AS contraparteRatingPromedio,
+               o.rating_total AS contraparteRatingTotal,
+               um.id AS ultimoMensajeId,
+               um.remitente_id AS ultimoMensajeRemitenteId,
+               LEFT(um.contenido, :maxTexto) AS ultimoMensajeTexto,
+               CAST(um.fecha_envio AS TIMESTAMP) AS ultimoMensajeFecha,
+               COALESCE(l.no_leidos, 0) AS noLeidos
+        FROM solicitud s
+        JOIN usuario o
+          ON o.id = CASE WHEN s.solicitante_id = :usuarioId THEN s.voluntario_id ELSE s.solicitante_id END
+        LEFT JOIN chat_lectura l
+          ON l.usuario_id = :usuarioId AND l.solicitud_id = s.id
+        LEFT JOIN LATERAL (
+            SELECT m.id, m.remitente_id, m.contenido, m.fecha_envio
+            FROM mensaje m
+            WHERE m.solicitud_id = s.id
+              AND m.fecha_envio >= s.fecha_creacion - INTERVAL '1 day'
+            ORDER BY m.fecha_envio DESC, m.id DESC
+            LIMIT 1
+        ) um ON TRUE
+        WHERE s.estado = 'EN_PROCESO'
+          AND (s.solicitante_id = :usuarioId OR s.voluntario_id = :usuarioId)
+        ORDER BY COALESCE(um.fecha_envio, s.fecha_creacion) DESC, s.id DESC
+        """, nativeQuery = true)
+    List<ConversacionView> findConversaciones(@Param("usuarioId") Long usuarioId,
+                                              @Param("maxTexto") int maxTexto);
+
     // ============= MIS QUERIES DE GEOLOCALIZACIÓN ===================
 
     /*
@@ -34,45 +150,53 @@ public interface SolicitudRepository extends JpaRepository<Solicitud, Long> {
         String getDescripcion();
         String getCategoria();
         String getEstado();
+        Double getLatitud();
+        Double getLongitud();
         Double getDistancia(); // en metros
     }
 
     /**
-     * Busca solicitudes abiertas cerca de una ubicación
+     * Busca solicitudes abiertas cerca de una ubicación con paginación por keyset
+     * sobre (distancia, id): cada página empieza justo después de la última fila de la anterior
      * @param lon Longitud del punto de referencia
      * @param lat Latitud del punto de referencia
      * @param radiusMeters Radio de búsqueda en metros (ej: 5000 = 5km)
+     * @param despuesDistancia distancia de la última fila recibida (-1 en la primera página)
+     * @param despuesId id de la última fila recibida (0 en la primera página)
      * @param limit Máximo de resultados
-     * @return Lista de solicitudes ordenadas por distancia (más cercana primero)
+     * @return Solicitudes con su distancia, ordenadas por distancia y después por id
      */
     @Query(value = """
-        SELECT s.id, s.titulo,
-            s.descripcion,
-            s.categoria,
-            s.estado,
-            s.fecha_creacion,
-            s.solicitante_id,
-            s.voluntario_id,
-            s.ubicacion,
-            ST_Distance(
-                s.ubicacion,
-                ST_SetSRID(ST_Point(:lon, :lat), 4326)::geography
-            ) as distancia
-        FROM solicitud s
-        WHERE s.estado = 'ABIERTA'
-          AND s.ubicacion IS NOT NULL
-          AND ST_DWithin(
-              s.ubicacion,
-              ST_SetSRID(ST_Point(:lon, :lat), 4326)::geography,
-              :radiusMeters
-          )
-        ORDER BY distancia ASC
+        SELECT c.* FROM (
+            SELECT s.id, s.titulo,
+                s.descripcion,
+                s.categoria,
+                s.estado,
+                ST_Y(s.ubicacion::geometry) as latitud,
+                ST_X(s.ubicacion::geometry) as longitud,
+                ST_Distance(
+                    s.ubicacion,
+                    ST_SetSRID(ST_Point(:lon, :lat), 4326)::geography
+                ) as distancia
+            FROM solicitud s
+            WHERE s.estado = 'ABIERTA'
+              AND s.ubicacion IS NOT NULL
+              AND ST_DWithin(
+                  s.ubicacion,
+                  ST_SetSRID(ST_Point(:lon, :lat), 4326)::geography,
+                  :radiusMeters
+              )
+        ) c
+        WHERE (c.distancia, c.id) > (:despuesDistancia, :despuesId)
+        ORDER BY c.distancia ASC, c.id ASC
         LIMIT :limit
         """, nativeQuery = true)
-    List<Solicitud> findSolicitudesNearby(
+    List<SolicitudConDistancia> findSolicitudesNearby(
             @Param("lon") double lon,
             @Param("lat") double lat,
             @Param("radiusMeters") int radiusMeters,
+            @Param("despuesDistancia") double despuesDistancia,
+            @Param("despuesId") long despuesId,
             @Param("limit") int limit
     );
 
@@ -100,31 +224,52 @@ public interface SolicitudRepository extends JpaRepository<Solicitud, Long> {
      * Busca todas las solicitudes abiertas con ubicación (para mapa)
      */
     @Query("""
-        SELECT s FROM Solicitud s
+        SELECT s.id AS id, s.titulo AS titulo, s.descripcion AS descripcion,
+               s.categoria AS categoria, s.estado AS estado, s.fechaCreacion AS fechaCreacion,
+               s.ubicacion AS ubicacion,
+               sol.id AS solicitanteId, sol.nombre AS solicitanteNombre,
+               vol.id AS voluntarioId, vol.nombre AS voluntarioNombre
+        FROM Solicitud s
+        JOIN s.solicitante sol
+        LEFT JOIN s.voluntario vol
         WHERE s.estado = 'ABIERTA'
           AND s.ubicacion IS NOT NULL
         ORDER BY s.fechaCreacion DESC
     """)
-    List<Solicitud> findAllAbiertasConUbicacion();
+    List<SolicitudMapaView> findAllAbiertasConUbicacion();
 
     /**
      * Busca solicitudes de un usuario específico
      */
     @Query("""
-        SELECT s FROM Solicitud s
-        WHERE s.solicitante.id = :usuarioId
+        SELECT s.id AS id, s.titulo AS titulo, s.descripcion AS descripcion,
+               s.categoria AS categoria, s.estado AS estado, s.fechaCreacion AS fechaCreacion,
+               s.ubicacion AS ubicacion,
+               sol.id AS solicitanteId, sol.nombre AS solicitanteNombre,
+               vol.id AS voluntarioId, vol.nombre AS voluntarioNombre
+        FROM Solicitud s
+        JOIN s.solicitante sol
+        LEFT JOIN s.voluntario vol
+        WHERE sol.id = :usuarioId
         ORDER BY s.fechaCreacion DESC
     """)
-    List<Solicitud> findBySolicitanteId(@Param("usuarioId") Long usuarioId);
+    List<SolicitudMapaView> findBySolicitanteId(@Param("usuarioId") Long usuarioId);
 
     /**
      * Busca solicitudes donde el usuario es voluntario
      */
     @Query("""
-        SELECT s FROM Solicitud s
-        WHERE s.voluntario.id = :usuarioId
+        SELECT s.id AS id, s.titulo AS titulo, s.descripcion AS descripcion,
+               s.categoria AS categoria, s.estado AS estado, s.fechaCreacion AS fechaCreacion,
+               s.ubicacion AS ubicacion,
+               sol.id AS solicitanteId, sol.nombre AS solicitanteNombre,
+               vol.id AS voluntarioId, vol.nombre AS voluntarioNombre
+        FROM Solicitud s
+        JOIN s.solicitante sol
+        LEFT JOIN s.voluntario vol
+        WHERE vol.id = :usuarioId
         ORDER BY s.fechaCreacion DESC""")
-    List<Solicitud> findByVoluntarioId(@Param("usuarioId") Long usuarioId);
+    List<SolicitudMapaView> findByVoluntarioId(@Param("usuarioId") Long usuarioId);
 
     /**
      * Busca solicitudes por estado y solicitante
@@ -179,7 +324,137 @@ public interface SolicitudRepository extends JpaRepository<Solicitud, Long> {
       AND s.estado = 'CERRADA'""")
     long countSolicitudesAyudadas(@Param("usuarioId") Long usuarioId);
 
-    @Query("SELECT s FROM Solicitud s WHERE s.ubicacion IS NOT NULL AND s.estado IN ('ABIERTA', 'EN_PROCESO')")
-    List<Solicitud> findAllAbiertasYEnProcesoConUbicacion();
+    @Query("""
+        SELECT s.id AS id, s.titulo AS titulo, s.descripcion AS descripcion,
+               s.categoria AS categoria, s.estado AS estado, s.fechaCreacion AS fechaCreacion,
+               s.ubicacion AS ubicacion,
+               sol.id AS solicitanteId, sol.nombre AS solicitanteNombre,
+               vol.id AS voluntarioId, vol.nombre AS voluntarioNombre
+        FROM Solicitud s
+        JOIN s.solicitante sol
+        LEFT JOIN s.voluntario vol
+        WHERE s.ubicacion IS NOT NULL
+          AND s.estado IN ('ABIERTA', 'EN_PROCESO')""")
+    List<SolicitudMapaView> findAllAbiertasYEnProcesoConUbicacion();
 
+    /**
+     * Ids de las solicitudes abiertas de un usuario que se crearon sin ubicación
+     */
+    @Query("""
+    SELECT s.id FROM Solicitud s
+    WHERE s.solicitante.id = :usuarioId
+      AND s.ubicacion IS NULL
+      AND s.estado = 'ABIERTA'""")
+    List<Long> findIdsAbiertasSinUbicacionDeSolicitante(@Param("usuarioId") Long usuarioId);
+
+    /**
+     * Asigna ubicación a solicitudes que se crearon sin ella
+     * (la geocodificación del usuario se resuelve en segundo plano)
+     */
+    @Modifying
+    @Query("""
+    UPDATE Solicitud s SET s.ubicacion = :ubicacion
+    WHERE s.id IN :ids
+      AND s.ubicacion IS NULL""")
+    int asignarUbicacionPendiente(@Param("ids") Collection<Long> ids, @Param("ubicacion") Point ubicacion);
+
+    /**
+     * Solicitudes abiertas con ubicación y su solicitante en una sola consulta
+     * (carga inicial del índice espacial en memoria)
+     */
+    @Query("""
+    SELECT s FROM Solicitud s
+    JOIN FETCH s.solicitante
+    WHERE s.estado = 'ABIERTA'
+      AND s.ubicacion IS NOT NULL""")
+    List<Solicitud> findAbiertasConUbicacionParaIndice();
+
+    /**
+     * Solicitudes abiertas con ubicación de entre los ids dados, con sus participantes
+     * (altas del feed incremental del mapa)
+     */
+    @Query("""
+    SELECT s FROM Solicitud s
+    JOIN FETCH s.solicitante
+    LEFT JOIN FETCH s.voluntario
+    WHERE s.id IN :ids
+      AND s.estado = 'ABIERTA'
+      AND s.ubicacion IS NOT NULL""")
+    List<Solicitud> findAbiertasConUbicacionByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Siguiente lote de ids de solicitudes sin ubicación cuyo solicitante ya la tiene (backfill)
+     */
+    @Query(value = """
+        SELECT s.id
+        FROM solicitud s
+        JOIN usuario_detalle d ON d.usuario_id = s.solicitante_id
+        WHERE s.ubicacion IS NULL
+          AND d.ubicacion IS NOT NULL
+          AND s.id > :desde
+        ORDER BY s.id
+        LIMIT :lote
+        """, nativeQuery = true)
+    List<Long> findIdsSinUbicacionConSolicitanteUbicado(@Param("desde") long desde, @Param("lote") int lote);
+
+    /**
+     * Copia la ubicación del solicitante a un lote de solicitudes en un único UPDATE
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE solicitud s
+        SET ubicacion = d.ubicacion
+        FROM usuario_detalle d
+        WHERE d.usuario_id = s.solicitante_id
+          AND s.id IN (:ids)
+          AND s.ubicacion IS NULL
+          AND d.ubicacion IS NOT NULL
+        """, nativeQuery = true)
+    int copiarUbicacionDelSolicitante(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Solicitudes de un lote con su solicitante (para publicar sus eventos)
+     */
+    @Query("""
+    SELECT s FROM Solicitud s
+    JOIN FETCH s.solicitante
+    WHERE s.id IN :ids""")
+    List<Solicitud> findConSolicitanteByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Solicitudes abiertas de un lote, con solicitante (para avisar al índice/mapa)
+     */
+    @Query("""
+    SELECT s FROM Solicitud s
+    JOIN FETCH s.solicitante
+    WHERE s.id IN :ids
+      AND s.estado = 'ABIERTA'""")
+    List<Solicitud> findAbiertasByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Tesela vectorial (Mapbox Vector Tile) con las solicitudes abiertas de la tesela z/x/y.
+     * Filtra con && sobre la geografía para usar idx_solicitud_ubicacion y deja un margen
+     * de 64 unidades para que los iconos del borde no se corten entre teselas.
+     * Requiere PostGIS >= 3.1 (ST_TileEnvelope con margin)
+     */
+    @Query(value = """
+        WITH mvtgeom AS (
+            SELECT ST_AsMVTGeom(
+                       ST_Transform(s.ubicacion::geometry, 3857),
+                       ST_TileEnvelope(:z, :x, :y),
+                       4096, 64, true
+                   ) AS geom,
+                   s.id,
+                   s.titulo,
+                   s.categoria,
+                   s.estado
+            FROM solicitud s
+            WHERE s.estado = 'ABIERTA'
+              AND s.ubicacion IS NOT NULL
+              AND s.ubicacion && ST_Transform(ST_TileEnvelope(:z, :x, :y, margin => 0.015625), 4326)::geography
+        )
+        SELECT ST_AsMVT(mvtgeom.*, 'solicitudes', 4096, 'geom')
+        FROM mvtgeom
+        """, nativeQuery = true)
+    byte[] generarTesela(@Param("z") int z, @Param("x") int x, @Param("y") int y);
 }
@@ -2,9 +2,88 @@ package es.daw.vecinotechbackend.repository;
 
 
 import es.daw.vecinotechbackend.entity.UsuarioDetalle;
+import org.locationtech.jts.geom.Point;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface UsuarioDetalleRepository extends JpaRepository<UsuarioDetalle, Long> {
 
-}
+    /**
+     * Datos de un voluntario para el índice de avisos
+     */
+    interface VoluntarioUbicacion {
+        Long getId();
+        Point getUbicacion();
+        int getRadioAvisoKm();
+    }
+
+    /**
+     * Dirección de un usuario sin ubicación (backfill)
+     */
+    interface DireccionPendiente {
+        Long getId();
+        String getDireccion();
+        String getCiudad();
+        String getCodigoPostal();
+        String getPais();
+    }
+
+    /**
+     * Solo la ubicación del usuario (sin cargar Usuario ni el detalle completo)
+     */
+    @Query("SELECT d.ubicacion FROM UsuarioDetalle d WHERE d.id = :usuarioId")
+    Optional<Point> findUbicacionByUsuarioId(@Param("usuarioId") Long usuarioId);
+
+    /**
+     * Escribe la ubicación geocodificada sin cargar la entidad
+     */
+    @Modifying
+    @Query("UPDATE UsuarioDetalle d SET d.ubicacion = :ubicacion WHERE d.id = :usuarioId")
+    int actualizarUbicacion(@Param("usuarioId") Long usuarioId, @Param("ubicacion") Point ubicacion);
 
+    /**
+     * Siguiente lote de usuarios sin ubicación, en orden de id a partir del cursor
+     */
+    @Query("""
+    SELECT d.id AS id, d.direccion AS direccion, d.ciudad AS ciudad,
+           d.codigoPostal AS codigoPostal, d.pais AS pais
+    FROM UsuarioDetalle d
+    WHERE d.ubicacion IS NULL
+      AND d.id > :desde
+    ORDER BY d.id""")
+    List<DireccionPendiente> findSinUbicacionDesde(@Param("desde") long desde, Pageable lote);
+
+    /**
+     * Misma ubicación para todos los usuarios que comparten dirección.
+     * Solo los que siguen sin ubicación: si mientras tanto cambiaron la dirección
+     * y GeocodeColaService ya escribió la nueva, no se pisa
+     */
+    @Modifying
+    @Query("UPDATE UsuarioDetalle d SET d.ubicacion = :ubicacion WHERE d.id IN :ids AND d.ubicacion IS NULL")
+    int actualizarUbicaciones(@Param("ids") Collection<Long> ids, @Param("ubicacion") Point ubicacion);
+
+    /**
+     * Voluntarios con ubicación (carga inicial del índice de avisos)
+     */
+    @Query("""
+    SELECT d.id AS id, d.ubicacion AS ubicacion, d.radioAvisoKm AS radioAvisoKm
+    FROM UsuarioDetalle d
+    WHERE d.esVoluntario = true
+      AND d.ubicacion IS NOT NULL""")
+    List<VoluntarioUbicacion> findVoluntariosConUbicacion();
+
+    @Query("""
+    SELECT d.id AS id, d.ubicacion AS ubicacion, d.radioAvisoKm AS radioAvisoKm
+    FROM UsuarioDetalle d
+    WHERE d.id = :usuarioId
+      AND d.esVoluntario = true
+      AND d.ubicacion IS NOT NULL""")
+    Optional<VoluntarioUbicacion> findVoluntarioConUbicacion(@Param("usuarioId") Long usuarioId);
+}
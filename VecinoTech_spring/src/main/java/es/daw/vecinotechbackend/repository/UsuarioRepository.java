@@ -2,12 +2,29 @@ package es.daw.vecinotechbackend.repository;
 
 
 
+import es.daw.vecinotechbackend.dto.usuario.UsuarioResumenDTO;
 import es.daw.vecinotechbackend.entity.Usuario;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UsuarioRepository extends JpaRepository<Usuario, Long> {
     boolean existsByEmail(String email);
     Optional<Usuario> findByEmail(String email);
+
+    /*
+     * Resumen (nombre, avatar, rating) de varios usuarios en una sola consulta,
+     * sin cargar la entidad ni su detalle
+     */
+    @Query("""
+       SELECT new es.daw.vecinotechbackend.dto.usuario.UsuarioResumenDTO(
+              u.id, u.nombre, u.avatarUrl, u.ratingPromedio, u.ratingTotal)
+       FROM Usuario u
+       WHERE u.id IN :ids
+    """)
+    List<UsuarioResumenDTO> findResumenes(@Param("ids") Collection<Long> ids);
 }
@@ -1,10 +1,12 @@
 package es.daw.vecinotechbackend.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
@@ -33,10 +35,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             String token = authHeader.substring(7);
 
             try {
-                Long userId = jwtUtils.validateAccessAndGetUserId(token);
+                Claims claims = jwtUtils.validateAccess(token);
+                Long userId = Long.valueOf(claims.getSubject());
 
+                // ROLE_USER / ROLE_ADMIN para los hasRole() de SecurityConfig
+                var autoridades = List.of(new SimpleGrantedAuthority("ROLE_" + jwtUtils.extractRol(claims).name()));
                 UsernamePasswordAuthenticationToken authentication =
-                        new UsernamePasswordAuthenticationToken(userId, null, List.of());
+                        new UsernamePasswordAuthenticationToken(userId, null, autoridades);
                 authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
                 SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -4,6 +4,7 @@ import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import es.daw.vecinotechbackend.entity.Rol;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -96,12 +97,13 @@ public class JwtUtils {
     }
 
     // ===================== EMISIÓN (access / refresh) =====================
-    public String createAccessToken(Long userId) {
+    public String createAccessToken(Long userId, Rol rol) {
         Instant now = Instant.now();
         return Jwts.builder()
                 .issuer(issuer)
                 .subject(String.valueOf(userId))
                 .claim("purpose", "access")
+                .claim("rol", (rol != null ? rol : Rol.USER).name())
                 .issuedAt(Date.from(now))
                 .expiration(Date.from(now.plus(15, ChronoUnit.MINUTES)))
                 .signWith(Keys.hmacShaKeyFor(key), Jwts.SIG.HS256)
@@ -146,6 +148,17 @@ public class JwtUtils {
         return Long.valueOf(c.getSubject());
     }
 
+    /** Valida un access token y devuelve sus claims (subject = id de usuario, rol). */
+    public Claims validateAccess(String token) {
+        return validateAndRequirePurpose(token, "access");
+    }
+
+    /** Rol del access token (los emitidos antes de V20 no lo llevan: USER). */
+    public Rol extractRol(Claims claims) {
+        String rol = claims.get("rol", String.class);
+        return rol != null ? Rol.valueOf(rol) : Rol.USER;
+    }
+
 
 
 }
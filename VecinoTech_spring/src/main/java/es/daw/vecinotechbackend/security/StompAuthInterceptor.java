@@ -0,0 +1,47 @@
+package es.daw.vecinotechbackend.security;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Autentica la sesión STOMP con el JWT que el cliente manda en el frame CONNECT
+ * (cabecera nativa Authorization: Bearer ...). El principal queda asociado a la sesión
+ * con el userId (igual que en JwtAuthenticationFilter para HTTP) y llega a los
+ * @MessageMapping y a los eventos de sesión (SessionConnectEvent, SessionSubscribeEvent...)
+ */
+@Component
+public class StompAuthInterceptor implements ChannelInterceptor {
+
+    private final JwtUtils jwtUtils;
+
+    public StompAuthInterceptor(JwtUtils jwtUtils) {
+        this.jwtUtils = jwtUtils;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.CONNECT.equals(accessor.getCommand())) {
+            return message;
+        }
+
+        String authHeader = accessor.getFirstNativeHeader("Authorization");
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            try {
+                Long userId = jwtUtils.validateAccessAndGetUserId(authHeader.substring(7));
+                accessor.setUser(new UsernamePasswordAuthenticationToken(userId, null, List.of()));
+            } catch (Exception e) {
+                System.err.println("⚠️ JWT inválido en CONNECT de WebSocket: " + e.getMessage());
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,60 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudCercanaAvisoDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+
+/**
+ * Avisa por WebSocket a los voluntarios cercanos cuando se crea una solicitud,
+ * para que no tengan que hacer polling de /solicitudes/cercanas.
+ * Los avisos salen por NotificacionOutboxService: el commit de quien crea la
+ * solicitud no espera a serializarlos ni al broker.
+ */
+@Service
+public class AvisoVoluntariosService {
+
+    private final VoluntarioIndiceService voluntarioIndiceService;
+    private final NotificacionOutboxService notificacionOutboxService;
+    private final PresenciaService presenciaService;
+
+    public AvisoVoluntariosService(VoluntarioIndiceService voluntarioIndiceService,
+                                   NotificacionOutboxService notificacionOutboxService,
+                                   PresenciaService presenciaService) {
+        this.voluntarioIndiceService = voluntarioIndiceService;
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.presenciaService = presenciaService;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+        if (!evento.esNueva() || s.getUbicacion() == null) return;
+
+        double lat = s.getUbicacion().getLatitud();
+        double lon = s.getUbicacion().getLongitud();
+
+        List<VoluntarioIndiceService.Afectado> afectados = voluntarioIndiceService.buscarAfectados(lat, lon);
+        int avisados = 0;
+        for (VoluntarioIndiceService.Afectado a : afectados) {
+            // El propio solicitante no se avisa a sí mismo
+            if (a.usuarioId().equals(s.getSolicitanteId())) continue;
+
+            // Sin nadie suscrito a sus notificaciones no hay a quién entregarlo
+            String destino = "/topic/notificaciones/" + a.usuarioId();
+            if (!presenciaService.hayOyentes(destino)) continue;
+
+            notificacionOutboxService.publicar(destino,
+                    new SolicitudCercanaAvisoDTO("solicitud-cercana", s.getId(), s.getTitulo(),
+                            s.getCategoria(), lat, lon, a.distancia()));
+            avisados++;
+        }
+
+        if (avisados > 0) {
+            System.out.println("🔔 Solicitud #" + s.getId() + " avisada a " + avisados + " voluntarios cercanos");
+        }
+    }
+}
@@ -1,173 +1,361 @@
 package es.daw.vecinotechbackend.service;
 
+import es.daw.vecinotechbackend.dto.chat.BusquedaMensajesDTO;
 import es.daw.vecinotechbackend.dto.chat.ChatNotificacionDTO;
+import es.daw.vecinotechbackend.dto.chat.ConversacionDTO;
 import es.daw.vecinotechbackend.dto.chat.MensajeDTO;
 import es.daw.vecinotechbackend.dto.VideoCallInviteDTO;
+import es.daw.vecinotechbackend.dto.usuario.UsuarioResumenDTO;
 import es.daw.vecinotechbackend.entity.Mensaje;
-import es.daw.vecinotechbackend.entity.Solicitud;
-import es.daw.vecinotechbackend.entity.Usuario;
 import es.daw.vecinotechbackend.mapper.MensajeMapper;
+import es.daw.vecinotechbackend.repository.ChatLecturaRepository;
 import es.daw.vecinotechbackend.repository.MensajeRepository;
 import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.repository.SolicitudRepository.ChatParticipantes;
 import es.daw.vecinotechbackend.repository.UsuarioRepository;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.util.HtmlUtils;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 @Service
 public class ChatService {
 
+    // Caracteres del último mensaje que se muestran en la bandeja
+    private static final int MAX_TEXTO_BANDEJA = 120;
+
+    // Búsqueda de texto completo (marcas de ts_headline en MensajeRepository.buscar)
+    private static final int MAX_TEXTO_BUSQUEDA = 200;
+    private static final String INICIO_RESALTADO = "<mark>";
+    private static final String FIN_RESALTADO = "</mark>";
+
+    // Margen sobre fecha_creacion de la solicitud al acotar las particiones de mensaje
+    private static final long MARGEN_PARTICION_DIAS = 1;
+
     private final MensajeRepository mensajeRepository;
+    private final ChatLecturaRepository chatLecturaRepository;
     private final SolicitudRepository solicitudRepository;
     private final UsuarioRepository usuarioRepository;
     private final MensajeMapper mensajeMapper;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final NotificacionOutboxService notificacionOutboxService;
+    private final MensajeLoteService mensajeLoteService;
+    private final PresenciaService presenciaService;
+    private final UsuarioResumenService usuarioResumenService;
+
+    /**
+     * Página del historial y si quedan más mensajes en esa dirección
+     */
+    public record Historial(List<MensajeDTO> mensajes, boolean hayMas) {
+    }
 
     public ChatService(MensajeRepository mensajeRepository,
+                       ChatLecturaRepository chatLecturaRepository,
                        SolicitudRepository solicitudRepository,
                        UsuarioRepository usuarioRepository,
                        MensajeMapper mensajeMapper,
-                       SimpMessagingTemplate messagingTemplate) {
+                       NotificacionOutboxService notificacionOutboxService,
+                       MensajeLoteService mensajeLoteService,
+                       PresenciaService presenciaService,
+                       UsuarioResumenService usuarioResumenService) {
         this.mensajeRepository = mensajeRepository;
+        this.chatLecturaRepository = chatLecturaRepository;
         this.solicitudRepository = solicitudRepository;
         this.usuarioRepository = usuarioRepository;
         this.mensajeMapper = mensajeMapper;
-        this.messagingTemplate = messagingTemplate;
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.mensajeLoteService = mensajeLoteService;
+        this.presenciaService = presenciaService;
+        this.usuarioResumenService = usuarioResumenService;
     }
 
     /**
      * Envía un mensaje en el chat
+     * La validación es una sola consulta (estado + participantes). Si el group commit está
+     * activo el mensaje se escribe por lotes en MensajeLoteService; si no, o si su cola
+     * está llena, se inserta aquí mismo
      */
-    @Transactional
     public MensajeDTO enviarMensaje(Long solicitudId, Long remitenteId, String contenido) {
+        return enviarMensaje(solicitudId, remitenteId, contenido, null);
+    }
+
+    /**
+     * Igual, con el id temporal del cliente: vuelve en la respuesta y en el eco por WebSocket.
+     * Si no lo manda se genera uno, así el mensaje siempre se puede casar aunque llegue sin id
+     */
+    public MensajeDTO enviarMensaje(Long solicitudId, Long remitenteId, String contenido, String clienteId) {
+        String correlacion = clienteId != null && !clienteId.isBlank() ? clienteId : UUID.randomUUID().toString();
 
-        // Validar solicitud
-        Solicitud solicitud = solicitudRepository.findById(solicitudId)
+        // Validar solicitud y participantes
+        ChatParticipantes chat = solicitudRepository.findParticipantesChat(solicitudId)
                 .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
 
         // Validar que la solicitud esté EN_PROCESO
-        if (!"EN_PROCESO".equals(solicitud.getEstado())) {
+        if (!"EN_PROCESO".equals(chat.getEstado())) {
             throw new IllegalStateException("Solo se puede chatear en solicitudes en proceso");
         }
 
-        // Validar usuario
-        Usuario remitente = usuarioRepository.findById(remitenteId)
-                .orElseThrow(() -> new IllegalStateException("Usuario no encontrado"));
-
         // Validar que el usuario sea parte de la solicitud
-        boolean esParticipante = solicitud.getSolicitante().getId().equals(remitenteId) ||
-                (solicitud.getVoluntario() != null &&
-                        solicitud.getVoluntario().getId().equals(remitenteId));
-
-        if (!esParticipante) {
+        String remitenteNombre;
+        if (remitenteId.equals(chat.getSolicitanteId())) {
+            remitenteNombre = chat.getSolicitanteNombre();
+        } else if (remitenteId.equals(chat.getVoluntarioId())) {
+            remitenteNombre = chat.getVoluntarioNombre();
+        } else {
             throw new SecurityException("No tienes permiso para enviar mensajes en este chat");
         }
 
-        // Crear y guardar mensaje
+        if (mensajeLoteService.isActivo()) {
+            MensajeDTO encolado = mensajeLoteService.encolar(solicitudId, remitenteId, remitenteNombre, contenido, correlacion);
+            if (encolado != null) {
+                return encolado;
+            }
+        }
+
+        // Crear y guardar mensaje (referencias sin consultar: solo hace falta la FK)
         Mensaje mensaje = new Mensaje();
-        mensaje.setSolicitud(solicitud);
-        mensaje.setRemitente(remitente);
+        mensaje.setSolicitud(solicitudRepository.getReferenceById(solicitudId));
+        mensaje.setRemitente(usuarioRepository.getReferenceById(remitenteId));
         mensaje.setContenido(contenido);
         mensaje.setLeido(false);
 
         mensaje = mensajeRepository.save(mensaje);
 
-        // Convertir a DTO
-        MensajeDTO mensajeDTO = mensajeMapper.toDTO(mensaje);
+        MensajeDTO mensajeDTO = new MensajeDTO(mensaje.getId(), solicitudId, remitenteId, remitenteNombre,
+                mensaje.getContenido(), mensaje.getFechaEnvio(), false, correlacion);
 
         // Emitir mensaje por WebSocket
-        ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
-        notificacion.setTipo("nuevo-mensaje");
-        notificacion.setSolicitudId(solicitudId);
-        notificacion.setUsuarioId(remitenteId);
-        notificacion.setUsuarioNombre(remitente.getNombre());
-        notificacion.setMensaje(mensajeDTO);
-
-        messagingTemplate.convertAndSend(
+        notificacionOutboxService.publicar(
                 "/topic/chat/" + solicitudId,
-                notificacion
+                ChatNotificacionDTO.nuevoMensaje(mensajeDTO)
         );
 
         return mensajeDTO;
     }
 
     /**
-     * Obtiene el historial de mensajes de una solicitud
+     * Obtiene una página del historial de mensajes de una solicitud (keyset por fecha_envio, id)
+     *   - sin cursor: los últimos 'limite' mensajes
+     *   - antesDe: los 'limite' anteriores a ese mensaje (scroll hacia atrás)
+     *   - despuesDe: los posteriores a ese mensaje (lo que se perdió un cliente al reconectar)
+     * Los mensajes se devuelven siempre del más antiguo al más reciente.
+     * Si el chat está CERRADO y sus mensajes ya se archivaron se leen de mensaje_archivo
      */
     @Transactional(readOnly = true)
-    public List<MensajeDTO> obtenerHistorial(Long solicitudId, Long usuarioId) {
+    public Historial obtenerHistorial(Long solicitudId, Long usuarioId, Long antesDe, Long despuesDe, int limite) {
 
-        // Validar solicitud
-        Solicitud solicitud = solicitudRepository.findById(solicitudId)
-                .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
+        if (antesDe != null && despuesDe != null) {
+            throw new IllegalArgumentException("Indica 'before' o 'after', no los dos");
+        }
 
-        // Validar que el usuario sea parte de la solicitud
-        boolean esParticipante = solicitud.getSolicitante().getId().equals(usuarioId) ||
-                (solicitud.getVoluntario() != null &&
-                        solicitud.getVoluntario().getId().equals(usuarioId));
+        // Validar solicitud y que el usuario sea parte de ella
+        ChatParticipantes chat = solicitudRepository.findParticipantesChat(solicitudId)
+                .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
 
-        if (!esParticipante) {
+        if (!usuarioId.equals(chat.getSolicitanteId()) && !usuarioId.equals(chat.getVoluntarioId())) {
             throw new SecurityException("No tienes permiso para ver este chat");
         }
 
-        // Obtener mensajes
-        List<Mensaje> mensajes = mensajeRepository.findBySolicitudIdOrderByFechaEnvio(solicitudId);
+        // Ningún mensaje es anterior a la solicitud: solo se miran sus particiones
+        LocalDateTime desde = chat.getFechaCreacion().minusDays(MARGEN_PARTICION_DIAS);
+
+        // Pedimos uno más para saber si hay más páginas
+        Pageable pagina = PageRequest.of(0, limite + 1);
+        List<Mensaje> mensajes;
+
+        if (despuesDe != null) {
+            Optional<LocalDateTime> fecha = mensajeRepository.findFechaEnvio(solicitudId, despuesDe, desde);
+            mensajes = fecha.isPresent()
+                    ? mensajeRepository.findPosteriores(solicitudId, fecha.get(), despuesDe, pagina)
+                    : null;
+        } else if (antesDe != null) {
+            Optional<LocalDateTime> fecha = mensajeRepository.findFechaEnvio(solicitudId, antesDe, desde);
+            mensajes = fecha.isPresent()
+                    ? mensajeRepository.findAnteriores(solicitudId, desde, fecha.get(), antesDe, pagina)
+                    : null;
+        } else {
+            mensajes = mensajeRepository.findUltimos(solicitudId, desde, pagina);
+        }
 
-        return mensajes.stream()
-                .map(mensajeMapper::toDTO)
-                .collect(Collectors.toList());
+        List<MensajeDTO> dtos;
+        boolean hayMas;
+
+        if (mensajes == null || (mensajes.isEmpty() && "CERRADA".equals(chat.getEstado()))) {
+            // Chat cerrado cuyos mensajes ya están en mensaje_archivo (o cursor desconocido)
+            Historial archivado = historialArchivado(solicitudId, antesDe, despuesDe, limite);
+            dtos = new ArrayList<>(archivado.mensajes());
+            hayMas = archivado.hayMas();
+        } else {
+            hayMas = mensajes.size() > limite;
+            dtos = new ArrayList<>(mensajes.subList(0, Math.min(limite, mensajes.size())).stream()
+                    .map(mensajeMapper::toDTO)
+                    .toList());
+
+            // Las consultas hacia atrás vienen de la más reciente a la más antigua
+            if (despuesDe == null) {
+                Collections.reverse(dtos);
+            }
+        }
+
+        // Leído = el destinatario ya tiene su marca de lectura en ese mensaje o después
+        Map<Long, Long> marcas = new HashMap<>();
+        chatLecturaRepository.findBySolicitudId(solicitudId)
+                .forEach(l -> marcas.put(l.getId().getUsuarioId(), l.getUltimoLeidoId()));
+        for (MensajeDTO dto : dtos) {
+            Long destinatario = dto.getRemitenteId().equals(chat.getSolicitanteId())
+                    ? chat.getVoluntarioId()
+                    : chat.getSolicitanteId();
+            dto.setLeido(dto.getId() <= marcas.getOrDefault(destinatario, 0L));
+        }
+
+        return new Historial(dtos, hayMas);
     }
 
     /**
-     * Marca mensajes como leídos
+     * Marca el chat como leído para el usuario: actualiza su fila de chat_lectura
+     * (marca en el último mensaje y contador a 0), no los mensajes uno a uno
      */
     @Transactional
     public void marcarComoLeidos(Long solicitudId, Long usuarioId) {
-        mensajeRepository.marcarMensajesComoLeidos(solicitudId, usuarioId);
+        // Bloquear la fila primero: si no, un mensaje en vuelo se contaría y luego se pondría a 0
+        if (chatLecturaRepository.bloquearLectura(solicitudId, usuarioId) == 0) {
+            throw new SecurityException("No tienes permiso para ver este chat");
+        }
+        chatLecturaRepository.marcarLeido(solicitudId, usuarioId);
+    }
+
+    /**
+     * Bandeja de conversaciones del usuario: sus solicitudes EN_PROCESO con el otro
+     * participante, el último mensaje y los no leídos. Una sola consulta, sea cual sea
+     * el número de conversaciones
+     */
+    @Transactional(readOnly = true)
+    public List<ConversacionDTO> obtenerBandeja(Long usuarioId) {
+        return solicitudRepository.findConversaciones(usuarioId, MAX_TEXTO_BANDEJA).stream()
+                .map(c -> new ConversacionDTO(
+                        c.getSolicitudId(),
+                        c.getTitulo(),
+                        c.getCategoria(),
+                        Boolean.TRUE.equals(c.getEsSolicitante()) ? "SOLICITANTE" : "VOLUNTARIO",
+                        new UsuarioResumenDTO(c.getContraparteId(), c.getContraparteNombre(),
+                                c.getContraparteAvatarUrl(), c.getContraparteRatingPromedio(),
+                                c.getContraparteRatingTotal()),
+                        c.getUltimoMensajeId(),
+                        c.getUltimoMensajeRemitenteId(),
+                        c.getUltimoMensajeTexto(),
+                        c.getUltimoMensajeFecha(),
+                        c.getNoLeidos() != null ? c.getNoLeidos() : 0))
+                .toList();
+    }
+
+    /**
+     * Búsqueda de texto completo en los chats del usuario, por relevancia y paginada por keyset:
+     * la página empieza después de (despuesRango, despuesId)
+     */
+    @Transactional(readOnly = true)
+    public BusquedaMensajesDTO buscarMensajes(Long usuarioId, String texto,
+                                              Double despuesRango, Long despuesId, int limite) {
+        if (texto == null || texto.isBlank()) {
+            throw new IllegalArgumentException("Indica qué quieres buscar");
+        }
+        if (texto.length() > MAX_TEXTO_BUSQUEDA) {
+            throw new IllegalArgumentException("La búsqueda no puede superar " + MAX_TEXTO_BUSQUEDA + " caracteres");
+        }
+
+        double cursorRango = despuesRango != null ? despuesRango : Double.MAX_VALUE;
+        long cursorId = despuesId != null ? despuesId : Long.MAX_VALUE;
+
+        // Pedimos una de más para saber si hay página siguiente
+        List<BusquedaMensajesDTO.Resultado> filas = mensajeRepository
+                .buscar(usuarioId, texto.trim(), cursorRango, cursorId, limite + 1)
+                .stream()
+                .map(r -> new BusquedaMensajesDTO.Resultado(
+                        r.getMensajeId(),
+                        r.getSolicitudId(),
+                        r.getSolicitudTitulo(),
+                        r.getRemitenteId(),
+                        r.getRemitenteNombre(),
+                        r.getFechaEnvio(),
+                        escaparFragmento(r.getFragmento()),
+                        r.getRango()))
+                .toList();
+
+        if (filas.size() <= limite) {
+            return new BusquedaMensajesDTO(filas, null, null);
+        }
+        List<BusquedaMensajesDTO.Resultado> pagina = filas.subList(0, limite);
+        BusquedaMensajesDTO.Resultado ultima = pagina.get(limite - 1);
+        return new BusquedaMensajesDTO(pagina, ultima.rango(), ultima.mensajeId());
+    }
+
+    /**
+     * Mensajes sin leer por chat (solo los chats con alguno): solicitudId -> número
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Integer> obtenerNoLeidos(Long usuarioId) {
+        Map<Long, Integer> noLeidos = new LinkedHashMap<>();
+        chatLecturaRepository.findNoLeidos(usuarioId)
+                .forEach(n -> noLeidos.put(n.getSolicitudId(), n.getNoLeidos()));
+        return noLeidos;
     }
 
     /**
      * Notifica que un usuario se conectó al chat
      */
     public void notificarConexion(Long solicitudId, Long usuarioId) {
-        Usuario usuario = usuarioRepository.findById(usuarioId)
-                .orElseThrow(() -> new IllegalStateException("Usuario no encontrado"));
-
         ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
         notificacion.setTipo("usuario-conectado");
         notificacion.setSolicitudId(solicitudId);
         notificacion.setUsuarioId(usuarioId);
-        notificacion.setUsuarioNombre(usuario.getNombre());
+        notificacion.setUsuarioNombre(nombreDeParticipante(solicitudId, usuarioId));
 
-        messagingTemplate.convertAndSend(
+        notificacionOutboxService.publicar(
                 "/topic/chat/" + solicitudId,
                 notificacion
         );
     }
 
     /**
-     * Notifica al solicitante que su solicitud fue aceptada
+     * Participantes del chat con alguna sesión suscrita a él en este momento
      */
-    public void notificarSolicitudAceptada(Long solicitudId, Long voluntarioId) {
-        Solicitud solicitud = solicitudRepository.findById(solicitudId)
+    public Set<Long> obtenerConectados(Long solicitudId, Long usuarioId) {
+        ChatParticipantes chat = solicitudRepository.findParticipantesChat(solicitudId)
                 .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
+        if (!usuarioId.equals(chat.getSolicitanteId()) && !usuarioId.equals(chat.getVoluntarioId())) {
+            throw new SecurityException("No tienes permiso para ver este chat");
+        }
 
-        Usuario voluntario = usuarioRepository.findById(voluntarioId)
-                .orElseThrow(() -> new IllegalStateException("Voluntario no encontrado"));
+        Set<Long> conectados = new HashSet<>(presenciaService.usuariosEnChat(solicitudId));
+        conectados.removeIf(id -> !id.equals(chat.getSolicitanteId()) && !id.equals(chat.getVoluntarioId()));
+        return conectados;
+    }
 
+    /**
+     * Notifica al solicitante que su solicitud fue aceptada
+     * El nombre del voluntario sale de la caché de resúmenes: no hay consultas
+     */
+    public void notificarSolicitudAceptada(Long solicitudId, Long solicitanteId, Long voluntarioId) {
         ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
         notificacion.setTipo("solicitud-aceptada");
         notificacion.setSolicitudId(solicitudId);
         notificacion.setUsuarioId(voluntarioId);
-        notificacion.setUsuarioNombre(voluntario.getNombre());
+        notificacion.setUsuarioNombre(usuarioResumenService.nombre(voluntarioId));
 
         // Enviar notificación al solicitante específico
-        messagingTemplate.convertAndSend(
-                "/topic/notificaciones/" + solicitud.getSolicitante().getId(),
+        notificacionOutboxService.publicar(
+                "/topic/notificaciones/" + solicitanteId,
                 notificacion
         );
     }
@@ -175,29 +363,25 @@ public class ChatService {
     /**
      * Crea una sala de videollamada Jitsi
      */
-    @Transactional
     public VideoCallInviteDTO crearSalaVideo(Long solicitudId, Long userId) {
 
-        // Validar solicitud
-        Solicitud solicitud = solicitudRepository.findById(solicitudId)
+        // Validar solicitud (estado y participantes en una consulta, sin cargar entidades)
+        ChatParticipantes chat = solicitudRepository.findParticipantesChat(solicitudId)
                 .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
 
         // Validar que esté EN_PROCESO
-        if (!"EN_PROCESO".equals(solicitud.getEstado())) {
+        if (!"EN_PROCESO".equals(chat.getEstado())) {
             throw new IllegalStateException("Solo se puede crear videollamadas en solicitudes en proceso");
         }
 
         // Validar que el usuario sea participante
-        boolean esParticipante = solicitud.getSolicitante().getId().equals(userId) ||
-                (solicitud.getVoluntario() != null && solicitud.getVoluntario().getId().equals(userId));
+        boolean esParticipante = userId.equals(chat.getSolicitanteId()) || userId.equals(chat.getVoluntarioId());
 
         if (!esParticipante) {
             throw new SecurityException("No tienes permiso para crear videollamadas en este chat");
         }
 
-        // Obtener usuario
-        Usuario usuario = usuarioRepository.findById(userId)
-                .orElseThrow(() -> new IllegalStateException("Usuario no encontrado"));
+        String nombre = usuarioResumenService.nombre(userId);
 
         // Generar nombre único de sala
         String roomName = "vecinotech-" + solicitudId + "-" + System.currentTimeMillis();
@@ -211,7 +395,7 @@ public class ChatService {
         videoCall.setRoomName(roomName);
         videoCall.setRoomUrl(roomUrl);
         videoCall.setCreadoPorId(userId);
-        videoCall.setCreadoPorNombre(usuario.getNombre());
+        videoCall.setCreadoPorNombre(nombre);
         videoCall.setFechaCreacion(LocalDateTime.now());
 
         // Crear notificación para WebSocket
@@ -219,12 +403,12 @@ public class ChatService {
         notificacion.setTipo("video-call-invite");
         notificacion.setSolicitudId(solicitudId);
         notificacion.setUsuarioId(userId);
-        notificacion.setUsuarioNombre(usuario.getNombre());
+        notificacion.setUsuarioNombre(nombre);
         notificacion.setVideoRoomUrl(roomUrl);
         notificacion.setVideoRoomName(roomName);
 
         // Emitir por WebSocket
-        messagingTemplate.convertAndSend(
+        notificacionOutboxService.publicar(
                 "/topic/chat/" + solicitudId,
                 notificacion
         );
@@ -238,16 +422,13 @@ public class ChatService {
      * Notifica que un usuario se desconectó del chat
      */
     public void notificarDesconexion(Long solicitudId, Long usuarioId) {
-        Usuario usuario = usuarioRepository.findById(usuarioId)
-                .orElseThrow(() -> new IllegalStateException("Usuario no encontrado"));
-
         ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
         notificacion.setTipo("usuario-desconectado");
         notificacion.setSolicitudId(solicitudId);
         notificacion.setUsuarioId(usuarioId);
-        notificacion.setUsuarioNombre(usuario.getNombre());
+        notificacion.setUsuarioNombre(nombreDeParticipante(solicitudId, usuarioId));
 
-        messagingTemplate.convertAndSend(
+        notificacionOutboxService.publicar(
                 "/topic/chat/" + solicitudId,
                 notificacion
         );
@@ -255,32 +436,100 @@ public class ChatService {
 
     /**
      * Notifica al voluntario que el chat fue finalizado
+     * (quien llama comprueba antes que la solicitud tenía voluntario)
      */
     public void notificarChatFinalizado(Long solicitudId, Long solicitanteId) {
-        Solicitud solicitud = solicitudRepository.findById(solicitudId)
-                .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
-
-        // Obtener voluntario
-        if (solicitud.getVoluntario() == null) {
-            System.out.println("⚠️ No hay voluntario asignado para notificar");
-            return;
-        }
-
-        Usuario solicitante = usuarioRepository.findById(solicitanteId)
-                .orElseThrow(() -> new IllegalStateException("Solicitante no encontrado"));
-
         ChatNotificacionDTO notificacion = new ChatNotificacionDTO();
         notificacion.setTipo("chat-finalizado");
         notificacion.setSolicitudId(solicitudId);
         notificacion.setUsuarioId(solicitanteId);
-        notificacion.setUsuarioNombre(solicitante.getNombre());
+        notificacion.setUsuarioNombre(usuarioResumenService.nombre(solicitanteId));
 
         // Notificar al voluntario
-        messagingTemplate.convertAndSend(
+        notificacionOutboxService.publicar(
                 "/topic/chat/" + solicitudId,
                 notificacion
         );
 
         System.out.println("✅ Notificación de chat finalizado enviada al voluntario");
     }
-}
\ No newline at end of file
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Nombre del usuario si es participante del chat (una consulta, sin cargar entidades)
+     */
+    private String nombreDeParticipante(Long solicitudId, Long usuarioId) {
+        ChatParticipantes chat = solicitudRepository.findParticipantesChat(solicitudId)
+                .orElseThrow(() -> new IllegalStateException("Solicitud no encontrada"));
+
+        if (usuarioId.equals(chat.getSolicitanteId())) return chat.getSolicitanteNombre();
+        if (usuarioId.equals(chat.getVoluntarioId())) return chat.getVoluntarioNombre();
+        throw new SecurityException("No participas en este chat");
+    }
+
+    /**
+     * El fragmento de ts_headline es el texto tal cual con <mark> alrededor de los términos:
+     * se escapa todo lo demás para que el cliente pueda pintarlo como HTML
+     */
+    private static String escaparFragmento(String fragmento) {
+        if (fragmento == null) return null;
+
+        StringBuilder sb = new StringBuilder(fragmento.length() + 16);
+        int i = 0;
+        while (i < fragmento.length()) {
+            int inicio = fragmento.indexOf(INICIO_RESALTADO, i);
+            int fin = inicio < 0 ? -1 : fragmento.indexOf(FIN_RESALTADO, inicio + INICIO_RESALTADO.length());
+            if (inicio < 0 || fin < 0) {
+                sb.append(HtmlUtils.htmlEscape(fragmento.substring(i)));
+                break;
+            }
+            sb.append(HtmlUtils.htmlEscape(fragmento.substring(i, inicio)))
+                    .append(INICIO_RESALTADO)
+                    .append(HtmlUtils.htmlEscape(fragmento.substring(inicio + INICIO_RESALTADO.length(), fin)))
+                    .append(FIN_RESALTADO);
+            i = fin + FIN_RESALTADO.length();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Página del historial de un chat archivado (mensajes en orden cronológico).
+     * El array JSONB se lee entero, así que se pagina en memoria con el mismo
+     * contrato que las consultas sobre mensaje
+     */
+    private Historial historialArchivado(Long solicitudId, Long antesDe, Long despuesDe, int limite) {
+        List<MensajeRepository.MensajeArchivadoView> archivados = mensajeRepository.findArchivados(solicitudId);
+        Long cursor = despuesDe != null ? despuesDe : antesDe;
+
+        int posicion = -1;
+        if (cursor != null) {
+            for (int i = 0; i < archivados.size(); i++) {
+                if (archivados.get(i).getId().equals(cursor)) {
+                    posicion = i;
+                    break;
+                }
+            }
+            if (posicion < 0) {
+                throw new IllegalArgumentException("El mensaje " + cursor + " no pertenece a este chat");
+            }
+        }
+
+        int desde;
+        int hasta;
+        if (despuesDe != null) {
+            desde = posicion + 1;
+            hasta = Math.min(archivados.size(), desde + limite);
+        } else {
+            hasta = antesDe != null ? posicion : archivados.size();
+            desde = Math.max(0, hasta - limite);
+        }
+        boolean hayMas = despuesDe != null ? hasta < archivados.size() : desde > 0;
+
+        List<MensajeDTO> dtos = archivados.subList(desde, hasta).stream()
+                .map(a -> new MensajeDTO(a.getId(), solicitudId, a.getRemitenteId(), a.getRemitenteNombre(),
+                        a.getContenido(), a.getFechaEnvio(), false, null))
+                .toList();
+        return new Historial(dtos, hayMas);
+    }
+}
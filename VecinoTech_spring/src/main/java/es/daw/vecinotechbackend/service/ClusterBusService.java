@@ -0,0 +1,388 @@
+package es.daw.vecinotechbackend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import es.daw.vecinotechbackend.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bus entre nodos para el broker STOMP en memoria usando LISTEN/NOTIFY de PostgreSQL.
+ * El simple broker solo reparte a las sesiones de SU nodo; con varias instancias, lo que
+ * se envía en el nodo A a /topic/chat/* o /topic/notificaciones/* no llegaría a B.
+ *
+ *   - Salida: interceptor del brokerChannel. Copia los mensajes de esos destinos a una cola;
+ *     un hilo los agrupa cada intervaloMs en un NOTIFY (JSON array, máx ~7.9 KB por NOTIFY)
+ *   - Entrada: un hilo con conexión JDBC propia hace LISTEN y reinyecta en el broker local
+ *     lo que publican los demás nodos, marcado para no volver a reenviarlo
+ *   - Deduplicación: cada mensaje lleva nodo + secuencia; se ignoran los propios (NOTIFY
+ *     también llega al emisor) y los ya vistos
+ *   - Eventos internos: publicarEvento(tipo, valor) viaja por el mismo canal pero no pasa por
+ *     el broker; en los demás nodos lo recibe quien se registró con alRecibirEvento (ej: invalidar cachés)
+ *
+ * Desactivado por defecto (app.cluster.activo) para no pagar el NOTIFY con un solo nodo.
+ */
+@Service
+public class ClusterBusService implements ChannelInterceptor {
+
+    // Cabecera nativa con la que se marcan los mensajes que vienen de otro nodo
+    private static final String CABECERA_ORIGEN = "x-cluster-origen";
+
+    // PostgreSQL limita el payload de NOTIFY a 8000 bytes
+    private static final int MAX_BYTES_NOTIFY = 7900;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MessageChannel brokerChannel;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean activo;
+    private final String canal;
+    private final List<String> destinos;
+    private final long intervaloMs;
+    private final String url;
+    private final String usuario;
+    private final String password;
+
+    private final String nodo = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong secuencia = new AtomicLong();
+    private final BlockingQueue<ObjectNode> salida;
+    private final LruCache<String, Boolean> vistos = new LruCache<>(10_000);
+    private final Map<String, Consumer<String>> oyentes = new ConcurrentHashMap<>();
+
+    private volatile boolean corriendo = false;
+    private Thread emisor;
+    private Thread receptor;
+
+    // Métricas
+    private final AtomicLong publicados = new AtomicLong();
+    private final AtomicLong notifies = new AtomicLong();
+    private final AtomicLong recibidos = new AtomicLong();
+    private final AtomicLong reinyectados = new AtomicLong();
+    private final AtomicLong duplicados = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong reconexiones = new AtomicLong();
+    private final AtomicLong eventosPublicados = new AtomicLong();
+    private final AtomicLong eventosRecibidos = new AtomicLong();
+
+    public ClusterBusService(JdbcTemplate jdbcTemplate,
+                             @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                             @Value("${app.cluster.activo:false}") boolean activo,
+                             @Value("${app.cluster.canal:vecinotech_stomp}") String canal,
+                             @Value("${app.cluster.destinos:/topic/chat/,/topic/notificaciones/}") List<String> destinos,
+                             @Value("${app.cluster.intervalo-ms:10}") long intervaloMs,
+                             @Value("${app.cluster.capacidad:10000}") int capacidad,
+                             @Value("${spring.datasource.url:}") String url,
+                             @Value("${spring.datasource.username:}") String usuario,
+                             @Value("${spring.datasource.password:}") String password) {
+        // Se concatena en LISTEN: solo admitimos identificadores simples
+        if (!canal.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("app.cluster.canal no es un identificador válido: " + canal);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.brokerChannel = brokerChannel;
+        this.activo = activo;
+        this.canal = canal;
+        this.destinos = destinos;
+        this.intervaloMs = intervaloMs;
+        this.salida = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+        this.url = url;
+        this.usuario = usuario;
+        this.password = password;
+    }
+
+    @PostConstruct
+    void arrancar() {
+        if (!activo) return;
+
+        corriendo = true;
+        emisor = Thread.ofPlatform().name("cluster-bus-emisor").daemon(true).start(this::bucleEmisor);
+        receptor = Thread.ofPlatform().name("cluster-bus-receptor").daemon(true).start(this::bucleReceptor);
+        System.out.println("🔗 Bus de cluster activo: nodo " + nodo + ", canal " + canal + ", destinos " + destinos);
+    }
+
+    @PreDestroy
+    void parar() throws InterruptedException {
+        if (!corriendo) return;
+        corriendo = false;
+        emisor.join(2000);
+        receptor.interrupt();
+        receptor.join(2000);
+    }
+
+    /**
+     * Copia al bus los mensajes locales de los destinos replicados (el envío local sigue igual)
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String destino = accessor.getDestination();
+        if (accessor.getMessageType() != SimpMessageType.MESSAGE
+                || destino == null
+                || accessor.getFirstNativeHeader(CABECERA_ORIGEN) != null
+                || !replica(destino)
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+
+        ObjectNode sobre = objectMapper.createObjectNode();
+        sobre.put("n", nodo);
+        sobre.put("s", secuencia.incrementAndGet());
+        sobre.put("d", destino);
+        MimeType tipo = accessor.getContentType();
+        if (tipo != null) sobre.put("c", tipo.toString());
+        sobre.put("p", new String(payload, StandardCharsets.UTF_8));
+
+        if (!salida.offer(sobre)) {
+            descartados.incrementAndGet();
+        }
+        return message;
+    }
+
+    /**
+     * ¿Se reenvía este destino a los demás nodos?
+     */
+    public boolean replica(String destino) {
+        return corriendo && destinos.stream().anyMatch(destino::startsWith);
+    }
+
+    /**
+     * Publica un evento interno para los demás nodos. Sin bus activo no hace nada
+     * (con un solo nodo no hay nadie más a quien avisar)
+     */
+    public void publicarEvento(String tipo, String valor) {
+        if (!corriendo) return;
+
+        ObjectNode sobre = objectMapper.createObjectNode();
+        sobre.put("n", nodo);
+        sobre.put("s", secuencia.incrementAndGet());
+        sobre.put("t", tipo);
+        sobre.put("v", valor);
+
+        if (salida.offer(sobre)) {
+            eventosPublicados.incrementAndGet();
+        } else {
+            descartados.incrementAndGet();
+        }
+    }
+
+    /**
+     * Registra quién atiende los eventos de un tipo publicados por OTROS nodos.
+     * Se llama desde el hilo receptor: el oyente debe ser rápido
+     */
+    public void alRecibirEvento(String tipo, Consumer<String> oyente) {
+        oyentes.put(tipo, oyente);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activo", activo);
+        stats.put("nodo", nodo);
+        stats.put("canal", canal);
+        stats.put("pendientes", salida.size());
+        stats.put("publicados", publicados.get());
+        stats.put("notifies", notifies.get());
+        stats.put("recibidos", recibidos.get());
+        stats.put("reinyectados", reinyectados.get());
+        stats.put("duplicados", duplicados.get());
+        stats.put("descartados", descartados.get());
+        stats.put("reconexiones", reconexiones.get());
+        stats.put("eventosPublicados", eventosPublicados.get());
+        stats.put("eventosRecibidos", eventosRecibidos.get());
+        return stats;
+    }
+
+    public String getNodo() {
+        return nodo;
+    }
+
+    // ==================== EMISOR ====================
+
+    private void bucleEmisor() {
+        List<ObjectNode> pendientes = new ArrayList<>();
+
+        while (corriendo || !salida.isEmpty()) {
+            try {
+                ObjectNode primero = salida.poll(200, TimeUnit.MILLISECONDS);
+                if (primero == null) continue;
+
+                // Esperamos un poco para juntar varios mensajes en el mismo NOTIFY
+                if (intervaloMs > 0) Thread.sleep(intervaloMs);
+                pendientes.add(primero);
+                salida.drainTo(pendientes);
+
+                publicar(pendientes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("❌ Error publicando en el bus de cluster: " + e.getMessage());
+            } finally {
+                pendientes.clear();
+            }
+        }
+    }
+
+    /**
+     * Trocea en NOTIFYs de como mucho MAX_BYTES_NOTIFY
+     */
+    private void publicar(List<ObjectNode> sobres) throws Exception {
+        ArrayNode lote = objectMapper.createArrayNode();
+        int bytesLote = 2;
+
+        for (ObjectNode sobre : sobres) {
+            int bytes = objectMapper.writeValueAsBytes(sobre).length + 1;
+            if (bytes + 2 > MAX_BYTES_NOTIFY) {
+                String destino = sobre.has("d") ? sobre.get("d").asText() : "evento " + sobre.get("t").asText();
+                System.err.println("⚠️ Mensaje a " + destino + " demasiado grande para NOTIFY (" + bytes + " bytes)");
+                descartados.incrementAndGet();
+                continue;
+            }
+            if (bytesLote + bytes > MAX_BYTES_NOTIFY) {
+                notificar(lote);
+                lote = objectMapper.createArrayNode();
+                bytesLote = 2;
+            }
+            lote.add(sobre);
+            bytesLote += bytes;
+        }
+        if (!lote.isEmpty()) {
+            notificar(lote);
+        }
+    }
+
+    private void notificar(ArrayNode lote) throws Exception {
+        jdbcTemplate.queryForRowSet("SELECT pg_notify(?, ?)", canal, objectMapper.writeValueAsString(lote));
+        notifies.incrementAndGet();
+        publicados.addAndGet(lote.size());
+    }
+
+    // ==================== RECEPTOR ====================
+
+    /**
+     * Mantiene una conexión propia (fuera del pool) escuchando el canal; si se cae, reconecta.
+     * Lo que se publique mientras está desconectado se pierde (NOTIFY no guarda histórico)
+     */
+    private void bucleReceptor() {
+        while (corriendo) {
+            try (Connection conexion = DriverManager.getConnection(url, usuario, password)) {
+                try (Statement st = conexion.createStatement()) {
+                    st.execute("LISTEN " + canal);
+                }
+
+                // PGConnection.getNotifications(int) por reflexión: el driver solo está en runtime
+                Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+                Object pg = conexion.unwrap(pgConnection);
+                Method getNotifications = pgConnection.getMethod("getNotifications", int.class);
+
+                while (corriendo) {
+                    Object notificaciones = getNotifications.invoke(pg, 500);
+                    if (notificaciones == null) continue;
+
+                    for (int i = 0; i < Array.getLength(notificaciones); i++) {
+                        Object n = Array.get(notificaciones, i);
+                        String payload = (String) n.getClass().getMethod("getParameter").invoke(n);
+                        recibir(payload);
+                    }
+                }
+            } catch (Exception e) {
+                if (!corriendo) break;
+                reconexiones.incrementAndGet();
+                System.err.println("⚠️ Bus de cluster desconectado, reintentando: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void recibir(String payload) {
+        try {
+            JsonNode lote = objectMapper.readTree(payload);
+            for (JsonNode sobre : lote) {
+                recibidos.incrementAndGet();
+
+                String origen = sobre.get("n").asText();
+                if (nodo.equals(origen)) continue;
+
+                String id = origen + ":" + sobre.get("s").asLong();
+                if (vistos.get(id) != null) {
+                    duplicados.incrementAndGet();
+                    continue;
+                }
+                vistos.put(id, Boolean.TRUE);
+
+                if (sobre.has("t")) {
+                    entregarEvento(sobre);
+                } else {
+                    reinyectar(sobre, origen);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Mensaje del bus de cluster ilegible: " + e.getMessage());
+        }
+    }
+
+    private void entregarEvento(JsonNode sobre) {
+        eventosRecibidos.incrementAndGet();
+        Consumer<String> oyente = oyentes.get(sobre.get("t").asText());
+        if (oyente == null) return;
+
+        try {
+            oyente.accept(sobre.get("v").asText());
+        } catch (Exception e) {
+            System.err.println("⚠️ Error atendiendo el evento de cluster " + sobre.get("t").asText() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Entrega el mensaje al broker local tal cual llegó (payload ya serializado)
+     */
+    private void reinyectar(JsonNode sobre, String origen) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(sobre.get("d").asText());
+        if (sobre.hasNonNull("c")) {
+            accessor.setContentType(MimeType.valueOf(sobre.get("c").asText()));
+        }
+        accessor.setNativeHeader(CABECERA_ORIGEN, origen);
+        accessor.setLeaveMutable(true);
+
+        byte[] payload = sobre.get("p").asText().getBytes(StandardCharsets.UTF_8);
+        brokerChannel.send(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        reinyectados.incrementAndGet();
+    }
+}
@@ -0,0 +1,319 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.entity.GeocodeBackfill;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.event.VoluntarioCambioEvent;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import es.daw.vecinotechbackend.repository.GeocodeBackfillRepository;
+import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository;
+import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository.DireccionPendiente;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Job en segundo plano que rellena las ubicaciones que faltan:
+ *   1) usuario_detalle sin ubicación: se recorren por lotes en orden de id (keyset),
+ *      se agrupan por dirección normalizada y cada dirección se geocodifica UNA vez
+ *      (GeocodeService respeta el límite de Nominatim). Se escribe un UPDATE por dirección.
+ *   2) solicitud sin ubicación: se copia la del solicitante con un UPDATE por lote
+ *      y se publica un SolicitudCambioEvent por cada una (índice, mapa, heatmap...).
+ * El cursor de cada fase se guarda en geocode_backfill tras cada lote, así que
+ * si la aplicación se reinicia el job continúa donde se quedó. Los usuarios que no se
+ * pudieron geocodificar no frenan el cursor, pero se apunta el menor id fallido y la
+ * siguiente ejecución vuelve a empezar desde él.
+ */
+@Service
+public class GeocodeBackfillService {
+
+    private static final String FASE_USUARIOS = "usuario_detalle";
+    private static final String FASE_SOLICITUDES = "solicitud";
+
+    private final GeocodeService geocodeService;
+    private final GeocodeCacheService geocodeCacheService;
+    private final UsuarioDetalleRepository usuarioDetalleRepository;
+    private final SolicitudRepository solicitudRepository;
+    private final GeocodeBackfillRepository geocodeBackfillRepository;
+    private final SolicitudMapper solicitudMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int tamanoLote;
+    private final boolean alArrancar;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean(false);
+    private volatile String faseActual = "parado";
+    private volatile LocalDateTime inicio;
+    private volatile LocalDateTime fin;
+
+    // Métricas de la ejecución actual
+    private final AtomicLong usuariosProcesados = new AtomicLong();
+    private final AtomicLong direccionesUnicas = new AtomicLong();
+    private final AtomicLong usuariosGeocodificados = new AtomicLong();
+    private final AtomicLong usuariosFallidos = new AtomicLong();
+    private final AtomicLong usuariosPospuestos = new AtomicLong();
+    private final AtomicLong solicitudesActualizadas = new AtomicLong();
+
+    /**
+     * Dirección geocodificada y los usuarios que la comparten
+     */
+    private record Resuelta(Point ubicacion, List<Long> ids) {
+    }
+
+    public GeocodeBackfillService(GeocodeService geocodeService,
+                                  GeocodeCacheService geocodeCacheService,
+                                  UsuarioDetalleRepository usuarioDetalleRepository,
+                                  SolicitudRepository solicitudRepository,
+                                  GeocodeBackfillRepository geocodeBackfillRepository,
+                                  SolicitudMapper solicitudMapper,
+                                  ApplicationEventPublisher eventPublisher,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.geocode.backfill.lote:200}") int tamanoLote,
+                                  @Value("${app.geocode.backfill.al-arrancar:true}") boolean alArrancar) {
+        this.geocodeService = geocodeService;
+        this.geocodeCacheService = geocodeCacheService;
+        this.usuarioDetalleRepository = usuarioDetalleRepository;
+        this.solicitudRepository = solicitudRepository;
+        this.geocodeBackfillRepository = geocodeBackfillRepository;
+        this.solicitudMapper = solicitudMapper;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tamanoLote = tamanoLote;
+        this.alArrancar = alArrancar;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        if (alArrancar) {
+            lanzar(false);
+        }
+    }
+
+    /**
+     * Lanza el backfill en un hilo propio
+     * @param reiniciar true para empezar desde el principio (reintenta las que fallaron)
+     * @return false si ya había uno en curso
+     */
+    public boolean lanzar(boolean reiniciar) {
+        if (!enCurso.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Thread.ofPlatform()
+                .name("geocode-backfill")
+                .daemon(true)
+                .start(() -> ejecutar(reiniciar));
+        return true;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enCurso", enCurso.get());
+        stats.put("fase", faseActual);
+        stats.put("inicio", inicio);
+        stats.put("fin", fin);
+        stats.put("usuariosProcesados", usuariosProcesados.get());
+        stats.put("direccionesUnicas", direccionesUnicas.get());
+        stats.put("usuariosGeocodificados", usuariosGeocodificados.get());
+        stats.put("usuariosFallidos", usuariosFallidos.get());
+        stats.put("usuariosPospuestos", usuariosPospuestos.get());
+        stats.put("solicitudesActualizadas", solicitudesActualizadas.get());
+        geocodeBackfillRepository.findAll()
+                .forEach(p -> stats.put("cursor_" + p.getFase(), p.getUltimoId()));
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void ejecutar(boolean reiniciar) {
+        inicio = LocalDateTime.now();
+        fin = null;
+        usuariosProcesados.set(0);
+        direccionesUnicas.set(0);
+        usuariosGeocodificados.set(0);
+        usuariosFallidos.set(0);
+        usuariosPospuestos.set(0);
+        solicitudesActualizadas.set(0);
+
+        try {
+            if (reiniciar) {
+                geocodeBackfillRepository.deleteAll();
+            } else {
+                retrocederAFallidos();
+            }
+
+            faseActual = FASE_USUARIOS;
+            while (procesarLoteUsuarios()) {
+                // sigue hasta que no quedan lotes
+            }
+
+            faseActual = FASE_SOLICITUDES;
+            while (procesarLoteSolicitudes()) {
+                // sigue hasta que no quedan lotes
+            }
+
+            faseActual = "terminado";
+            System.out.println("✅ Backfill de ubicaciones terminado: " + usuariosGeocodificados.get()
+                    + " usuarios y " + solicitudesActualizadas.get() + " solicitudes");
+        } catch (Exception e) {
+            faseActual = "error";
+            System.err.println("❌ Error en el backfill de ubicaciones: " + e.getMessage());
+        } finally {
+            fin = LocalDateTime.now();
+            enCurso.set(false);
+        }
+    }
+
+    /**
+     * @return true si se procesó un lote (puede haber más)
+     */
+    private boolean procesarLoteUsuarios() {
+        GeocodeBackfill progreso = progreso(FASE_USUARIOS);
+
+        List<DireccionPendiente> lote = usuarioDetalleRepository.findSinUbicacionDesde(
+                progreso.getUltimoId(), PageRequest.of(0, tamanoLote));
+        if (lote.isEmpty()) return false;
+
+        // Agrupamos por dirección normalizada: cada dirección distinta se geocodifica una vez
+        Map<String, List<DireccionPendiente>> porDireccion = new LinkedHashMap<>();
+        for (DireccionPendiente d : lote) {
+            String clave = geocodeCacheService.claveDe(d.getDireccion(), d.getCiudad(), d.getCodigoPostal(), d.getPais());
+            porDireccion.computeIfAbsent(clave, k -> new ArrayList<>()).add(d);
+        }
+        direccionesUnicas.addAndGet(porDireccion.size());
+
+        // Geocodificación fuera de la transacción (es lenta y limitada a 1 petición/segundo)
+        List<Resuelta> resueltas = new ArrayList<>();
+        long fallidosLote = 0;
+        Long primerFallidoLote = null;
+        for (List<DireccionPendiente> grupo : porDireccion.values()) {
+            DireccionPendiente d = grupo.get(0);
+            GeocodeService.Geocodificacion geo = sinDireccion(d) ? null
+                    : geocodeService.geocodificarDetallado(d.getDireccion(), d.getCiudad(), d.getCodigoPostal(), d.getPais());
+
+            // El centroide de la provincia por un fallo de Nominatim no se guarda:
+            // la fila sigue sin ubicación y la recoge la siguiente ejecución (primer_fallido)
+            Point ubicacion = geo != null && geo.definitiva() ? geo.ubicacion() : null;
+            if (ubicacion == null) {
+                fallidosLote += grupo.size();
+                if (geo != null && geo.ubicacion() != null) {
+                    usuariosPospuestos.addAndGet(grupo.size());
+                }
+                // Sin dirección no hay nada que reintentar: la geocodifica
+                // GeocodeColaService cuando el usuario la rellene
+                if (geo != null) {
+                    long menor = grupo.get(0).getId();
+                    primerFallidoLote = primerFallidoLote == null ? menor : Math.min(primerFallidoLote, menor);
+                }
+            } else {
+                resueltas.add(new Resuelta(ubicacion, grupo.stream().map(DireccionPendiente::getId).toList()));
+            }
+        }
+
+        long ultimoId = lote.get(lote.size() - 1).getId();
+        long fallidos = fallidosLote;
+        Long primerFallido = primerFallidoLote;
+        long actualizados = transactionTemplate.execute(status -> {
+            long total = 0;
+            for (Resuelta r : resueltas) {
+                total += usuarioDetalleRepository.actualizarUbicaciones(r.ids(), r.ubicacion());
+                r.ids().forEach(id -> eventPublisher.publishEvent(new VoluntarioCambioEvent(id)));
+            }
+            if (primerFallido != null && progreso.getPrimerFallido() == null) {
+                progreso.setPrimerFallido(primerFallido);
+            }
+            guardarProgreso(progreso, ultimoId, lote.size(), total, fallidos);
+            return total;
+        });
+
+        usuariosProcesados.addAndGet(lote.size());
+        usuariosGeocodificados.addAndGet(actualizados);
+        usuariosFallidos.addAndGet(fallidos);
+        System.out.println("🗺️ Backfill usuarios: lote hasta #" + ultimoId + " (" + actualizados + "/"
+                + lote.size() + " geocodificados, " + porDireccion.size() + " direcciones distintas)");
+        return true;
+    }
+
+    /**
+     * @return true si se procesó un lote (puede haber más)
+     */
+    private boolean procesarLoteSolicitudes() {
+        GeocodeBackfill progreso = progreso(FASE_SOLICITUDES);
+
+        List<Long> ids = solicitudRepository.findIdsSinUbicacionConSolicitanteUbicado(progreso.getUltimoId(), tamanoLote);
+        if (ids.isEmpty()) return false;
+
+        long ultimoId = ids.get(ids.size() - 1);
+        int actualizadas = transactionTemplate.execute(status -> {
+            int total = solicitudRepository.copiarUbicacionDelSolicitante(ids);
+
+            // Avisamos de todas las que reciben ubicación: las abiertas pasan a verse en el mapa
+            // (índice, teselas, log...) y todas cuentan desde ahora en el heatmap
+            solicitudRepository.findConSolicitanteByIdIn(ids)
+                    .forEach(s -> eventPublisher.publishEvent(
+                            SolicitudCambioEvent.ubicacionRecibida(solicitudMapper.toDTO(s))));
+
+            guardarProgreso(progreso, ultimoId, ids.size(), total, 0);
+            return total;
+        });
+
+        solicitudesActualizadas.addAndGet(actualizadas);
+        System.out.println("🗺️ Backfill solicitudes: lote hasta #" + ultimoId + " (" + actualizadas + " con ubicación)");
+        return true;
+    }
+
+    private GeocodeBackfill progreso(String fase) {
+        return geocodeBackfillRepository.findById(fase).orElseGet(() -> {
+            GeocodeBackfill nuevo = new GeocodeBackfill();
+            nuevo.setFase(fase);
+            return nuevo;
+        });
+    }
+
+    /**
+     * Si la pasada anterior dejó usuarios sin geocodificar, el cursor vuelve hasta el primero.
+     * Los que ya tienen ubicación no se vuelven a leer (findSinUbicacionDesde filtra por ella)
+     */
+    private void retrocederAFallidos() {
+        geocodeBackfillRepository.findById(FASE_USUARIOS)
+                .filter(p -> p.getPrimerFallido() != null)
+                .ifPresent(p -> {
+                    p.setUltimoId(Math.min(p.getUltimoId(), p.getPrimerFallido() - 1));
+                    p.setPrimerFallido(null);
+                    geocodeBackfillRepository.save(p);
+                    System.out.println("🔁 Backfill usuarios: se reintentan los fallidos desde #" + (p.getUltimoId() + 1));
+                });
+    }
+
+    private void guardarProgreso(GeocodeBackfill progreso, long ultimoId, long procesados, long actualizados, long fallidos) {
+        progreso.setUltimoId(ultimoId);
+        progreso.setProcesados(progreso.getProcesados() + procesados);
+        progreso.setActualizados(progreso.getActualizados() + actualizados);
+        progreso.setFallidos(progreso.getFallidos() + fallidos);
+        progreso.setFechaActualizacion(LocalDateTime.now());
+        geocodeBackfillRepository.save(progreso);
+    }
+
+    private boolean sinDireccion(DireccionPendiente d) {
+        return esVacio(d.getDireccion()) && esVacio(d.getCiudad()) && esVacio(d.getCodigoPostal());
+    }
+
+    private boolean esVacio(String s) {
+        return s == null || s.isBlank();
+    }
+}
@@ -0,0 +1,144 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.entity.GeocodeCache;
+import es.daw.vecinotechbackend.repository.GeocodeCacheRepository;
+import es.daw.vecinotechbackend.util.Direcciones;
+import es.daw.vecinotechbackend.util.LruCache;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de geocodificación en dos niveles:
+ *   1) LRU en memoria (acotada)
+ *   2) Tabla geocode_cache en BD (persistente entre reinicios)
+ * La clave es la dirección normalizada (calle|ciudad|cp|pais).
+ * También guarda resultados negativos, con un TTL más corto.
+ */
+@Service
+public class GeocodeCacheService {
+
+    private final GeocodeCacheRepository geocodeCacheRepository;
+    private final LruCache<String, Resultado> memoria;
+    private final Duration ttlPositivo;
+    private final Duration ttlNegativo;
+
+    // Contadores para saber cuántas llamadas a Nominatim nos ahorramos
+    private final AtomicLong aciertosMemoria = new AtomicLong();
+    private final AtomicLong aciertosBD = new AtomicLong();
+    private final AtomicLong aciertosNegativos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+
+    /**
+     * Resultado cacheado: ubicacion == null significa "no se pudo geocodificar"
+     */
+    public record Resultado(Point ubicacion, LocalDateTime fecha) {
+        public boolean encontrado() {
+            return ubicacion != null;
+        }
+    }
+
+    public GeocodeCacheService(GeocodeCacheRepository geocodeCacheRepository,
+                               @Value("${app.geocode.cache.max-entradas:5000}") int maxEntradas,
+                               @Value("${app.geocode.cache.ttl-dias:90}") long ttlDias,
+                               @Value("${app.geocode.cache.ttl-negativo-horas:24}") long ttlNegativoHoras) {
+        this.geocodeCacheRepository = geocodeCacheRepository;
+        this.memoria = new LruCache<>(maxEntradas);
+        this.ttlPositivo = Duration.ofDays(ttlDias);
+        this.ttlNegativo = Duration.ofHours(ttlNegativoHoras);
+    }
+
+    /**
+     * Busca una dirección en la caché (memoria y después BD)
+     * @return el resultado cacheado o null si no hay entrada válida
+     */
+    @Transactional(readOnly = true)
+    public Resultado buscar(String clave) {
+        Resultado enMemoria = memoria.get(clave);
+        if (enMemoria != null) {
+            if (!caducado(enMemoria)) {
+                aciertosMemoria.incrementAndGet();
+                if (!enMemoria.encontrado()) aciertosNegativos.incrementAndGet();
+                return enMemoria;
+            }
+            memoria.remove(clave);
+        }
+
+        Resultado enBD = geocodeCacheRepository.findById(clave)
+                .map(c -> new Resultado(c.isEncontrado() ? c.getUbicacion() : null, c.getFechaActualizacion()))
+                .filter(r -> !caducado(r))
+                .orElse(null);
+
+        if (enBD == null) {
+            fallos.incrementAndGet();
+            return null;
+        }
+
+        aciertosBD.incrementAndGet();
+        if (!enBD.encontrado()) aciertosNegativos.incrementAndGet();
+        memoria.put(clave, enBD);
+        return enBD;
+    }
+
+    /**
+     * Guarda un resultado (ubicacion null = resultado negativo)
+     * Va en su propia transacción para no afectar a la del llamante
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void guardar(String clave, Point ubicacion) {
+        LocalDateTime ahora = LocalDateTime.now();
+        memoria.put(clave, new Resultado(ubicacion, ahora));
+
+        GeocodeCache entrada = new GeocodeCache();
+        entrada.setClave(clave);
+        entrada.setUbicacion(ubicacion);
+        entrada.setEncontrado(ubicacion != null);
+        entrada.setFechaActualizacion(ahora);
+        geocodeCacheRepository.save(entrada);
+    }
+
+    /**
+     * Construye la clave normalizada de una dirección
+     * (minúsculas, sin tildes ni signos, espacios colapsados, país por defecto España)
+     */
+    public String claveDe(String direccion, String ciudad, String codigoPostal, String pais) {
+        String p = Direcciones.normalizar(pais);
+        if (p.isEmpty() || p.equals("espana") || p.equals("es")) {
+            p = "spain";
+        }
+        return Direcciones.normalizar(direccion) + "|" + Direcciones.normalizar(ciudad) + "|"
+                + Direcciones.normalizar(codigoPostal) + "|" + p;
+    }
+
+    public Map<String, Object> estadisticas() {
+        long hitsMemoria = aciertosMemoria.get();
+        long hitsBD = aciertosBD.get();
+        long misses = fallos.get();
+        long total = hitsMemoria + hitsBD + misses;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("aciertosMemoria", hitsMemoria);
+        stats.put("aciertosBD", hitsBD);
+        stats.put("aciertosNegativos", aciertosNegativos.get());
+        stats.put("fallos", misses);
+        stats.put("ratioAciertos", total == 0 ? 0.0 : (double) (hitsMemoria + hitsBD) / total);
+        stats.put("entradasMemoria", memoria.size());
+        stats.put("maxEntradasMemoria", memoria.getMaxEntradas());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private boolean caducado(Resultado r) {
+        Duration ttl = r.encontrado() ? ttlPositivo : ttlNegativo;
+        return r.fecha().plus(ttl).isBefore(LocalDateTime.now());
+    }
+}
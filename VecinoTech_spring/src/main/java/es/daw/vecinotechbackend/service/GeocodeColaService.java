@@ -0,0 +1,247 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.usuario.UbicacionActualizadaDTO;
+import es.daw.vecinotechbackend.entity.UsuarioDetalle;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.event.VoluntarioCambioEvent;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de geocodificación en segundo plano.
+ * Los servicios encolan un trabajo por usuario y un ÚNICO hilo trabajador lo resuelve
+ * (GeocodeService ya limita a 1 petición/segundo a Nominatim), escribe la ubicación
+ * en usuario_detalle y avisa al usuario por WebSocket (a través del outbox).
+ * Así las peticiones HTTP no esperan a Nominatim ni ocupan conexión de BD mientras tanto.
+ * Si Nominatim no está disponible y solo sale el centroide de la provincia, no se guarda:
+ * el trabajo se reintenta más tarde (espera doble en cada reintento).
+ */
+@Service
+public class GeocodeColaService {
+
+    private final GeocodeService geocodeService;
+    private final UsuarioDetalleRepository usuarioDetalleRepository;
+    private final SolicitudRepository solicitudRepository;
+    private final NotificacionOutboxService notificacionOutboxService;
+    private final TransactionTemplate transactionTemplate;
+    private final SolicitudMapper solicitudMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final int maxReintentos;
+    private final long reintentoMs;
+
+    // Un trabajo pendiente por usuario: si cambia la dirección otra vez se sustituye
+    private final Map<Long, Trabajo> pendientes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Long> cola = new LinkedBlockingQueue<>();
+
+    private final AtomicLong procesados = new AtomicLong();
+    private final AtomicLong geocodificados = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong reintentos = new AtomicLong();
+
+    private Thread trabajador;
+
+    /**
+     * Foto de la dirección en el momento de encolar
+     */
+    private record Trabajo(Long usuarioId, String direccion, String ciudad, String codigoPostal, String pais,
+                           int intento) {
+
+        Trabajo siguienteIntento() {
+            return new Trabajo(usuarioId, direccion, ciudad, codigoPostal, pais, intento + 1);
+        }
+    }
+
+    public GeocodeColaService(GeocodeService geocodeService,
+                              UsuarioDetalleRepository usuarioDetalleRepository,
+                              SolicitudRepository solicitudRepository,
+                              NotificacionOutboxService notificacionOutboxService,
+                              PlatformTransactionManager transactionManager,
+                              SolicitudMapper solicitudMapper,
+                              ApplicationEventPublisher eventPublisher,
+                              @Value("${app.geocode.cola.reintentos:3}") int maxReintentos,
+                              @Value("${app.geocode.cola.reintento-ms:60000}") long reintentoMs) {
+        this.geocodeService = geocodeService;
+        this.usuarioDetalleRepository = usuarioDetalleRepository;
+        this.solicitudRepository = solicitudRepository;
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.solicitudMapper = solicitudMapper;
+        this.eventPublisher = eventPublisher;
+        this.maxReintentos = maxReintentos;
+        this.reintentoMs = reintentoMs;
+    }
+
+    @PostConstruct
+    void arrancar() {
+        trabajador = Thread.ofPlatform()
+                .name("geocode-worker")
+                .daemon(true)
+                .start(this::bucle);
+    }
+
+    @PreDestroy
+    void parar() {
+        if (trabajador != null) {
+            trabajador.interrupt();
+        }
+    }
+
+    /**
+     * Encola la geocodificación de la dirección de un usuario.
+     * Si hay transacción activa se encola tras el commit (el trabajador escribe
+     * sobre la fila y no debe adelantarse a ella).
+     * @return false si no hay dirección que geocodificar
+     */
+    public boolean encolar(Long usuarioId, UsuarioDetalle detalle) {
+        if (usuarioId == null || detalle == null) return false;
+
+        boolean tieneDireccion = detalle.getDireccion() != null && !detalle.getDireccion().isBlank();
+        boolean tieneCP = detalle.getCodigoPostal() != null && !detalle.getCodigoPostal().isBlank();
+        boolean tieneCiudad = detalle.getCiudad() != null && !detalle.getCiudad().isBlank();
+        if (!tieneDireccion && !tieneCP && !tieneCiudad) {
+            System.out.println("ℹ️ Usuario #" + usuarioId + " sin dirección, no se geocodifica");
+            return false;
+        }
+
+        Trabajo trabajo = new Trabajo(usuarioId, detalle.getDireccion(), detalle.getCiudad(),
+                detalle.getCodigoPostal(), detalle.getPais(), 0);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ofrecer(trabajo);
+                }
+            });
+        } else {
+            ofrecer(trabajo);
+        }
+        return true;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendientes", pendientes.size());
+        stats.put("procesados", procesados.get());
+        stats.put("geocodificados", geocodificados.get());
+        stats.put("fallidos", fallidos.get());
+        stats.put("reintentos", reintentos.get());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void ofrecer(Trabajo trabajo) {
+        // Si ya había uno pendiente para el usuario, solo se actualiza la foto
+        if (pendientes.put(trabajo.usuarioId(), trabajo) == null) {
+            cola.offer(trabajo.usuarioId());
+        }
+        System.out.println("🗺️ Geocodificación encolada para usuario #" + trabajo.usuarioId()
+                + " (pendientes: " + pendientes.size() + ")");
+    }
+
+    private void bucle() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Long usuarioId = cola.take();
+                Trabajo trabajo = pendientes.remove(usuarioId);
+                if (trabajo != null) {
+                    procesar(trabajo);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // El hilo no debe morir por un trabajo fallido
+                System.err.println("❌ Error en geocode-worker: " + e.getMessage());
+            }
+        }
+    }
+
+    private void procesar(Trabajo trabajo) {
+        procesados.incrementAndGet();
+
+        GeocodeService.Geocodificacion geo = geocodeService.geocodificarDetallado(
+                trabajo.direccion(),
+                trabajo.ciudad(),
+                trabajo.codigoPostal(),
+                trabajo.pais()
+        );
+
+        // Solo la provincia porque Nominatim no respondió: no se guarda, se vuelve a intentar
+        if (geo.ubicacion() != null && !geo.definitiva() && trabajo.intento() < maxReintentos) {
+            reintentar(trabajo);
+            return;
+        }
+
+        Point ubicacion = geo.definitiva() ? geo.ubicacion() : null;
+        if (ubicacion == null) {
+            fallidos.incrementAndGet();
+            System.out.println("⚠️ No se pudo geocodificar al usuario #" + trabajo.usuarioId());
+            notificar(new UbicacionActualizadaDTO("ubicacion-actualizada", trabajo.usuarioId(), false, null, null));
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            usuarioDetalleRepository.actualizarUbicacion(trabajo.usuarioId(), ubicacion);
+            eventPublisher.publishEvent(new VoluntarioCambioEvent(trabajo.usuarioId()));
+            // Las solicitudes creadas mientras tanto heredan la ubicación
+            List<Long> pendientesIds = solicitudRepository.findIdsAbiertasSinUbicacionDeSolicitante(trabajo.usuarioId());
+            if (!pendientesIds.isEmpty()) {
+                solicitudRepository.asignarUbicacionPendiente(pendientesIds, ubicacion);
+                // Avisamos SOLO de las que acaban de recibir ubicación (índice, mapa, heatmap...)
+                solicitudRepository.findAbiertasByIdIn(pendientesIds)
+                        .forEach(s -> eventPublisher.publishEvent(
+                                SolicitudCambioEvent.ubicacionRecibida(solicitudMapper.toDTO(s))));
+            }
+        });
+
+        geocodificados.incrementAndGet();
+        System.out.println("✅ Usuario #" + trabajo.usuarioId() + " geocodificado en segundo plano");
+        notificar(new UbicacionActualizadaDTO("ubicacion-actualizada", trabajo.usuarioId(), true,
+                ubicacion.getY(), ubicacion.getX()));
+    }
+
+    /**
+     * Vuelve a encolar el trabajo pasado un rato. Si mientras tanto el usuario cambió
+     * la dirección ya hay otro trabajo pendiente y este se descarta
+     */
+    private void reintentar(Trabajo trabajo) {
+        reintentos.incrementAndGet();
+        long esperaMs = reintentoMs << trabajo.intento();
+        System.out.println("🔁 Geocodificación del usuario #" + trabajo.usuarioId()
+                + " pospuesta " + esperaMs + " ms (Nominatim no disponible)");
+
+        CompletableFuture.delayedExecutor(esperaMs, TimeUnit.MILLISECONDS).execute(() -> {
+            Trabajo siguiente = trabajo.siguienteIntento();
+            if (pendientes.putIfAbsent(siguiente.usuarioId(), siguiente) == null) {
+                cola.offer(siguiente.usuarioId());
+            }
+        });
+    }
+
+    private void notificar(UbicacionActualizadaDTO evento) {
+        notificacionOutboxService.publicar("/topic/notificaciones/" + evento.usuarioId(), evento);
+    }
+}
@@ -0,0 +1,212 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.util.Direcciones;
+import jakarta.annotation.PostConstruct;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Geocodificador local (sin red) a partir de centroides de códigos postales y ciudades.
+ * El dataset se carga al arrancar en arrays primitivos ordenados por CP y se busca
+ * con búsqueda binaria, así que una consulta tarda microsegundos.
+ *
+ * Por defecto usa geo/cp_centroides.csv del classpath. Con app.geocode.offline.fichero
+ * se puede apuntar a un dataset más completo en disco. Se lee línea a línea, sin cargar
+ * el fichero entero en memoria: solo quedan los arrays de los índices.
+ */
+@Service
+public class GeocodeOfflineService {
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+
+    @Value("${app.geocode.offline.fichero:}")
+    private String ficheroExterno;
+
+    // Índice por CP: cps ordenado, lats/lons en la misma posición
+    private int[] cps = new int[0];
+    private float[] lats = new float[0];
+    private float[] lons = new float[0];
+
+    // Índice por ciudad: nombres normalizados ordenados -> posición en los arrays de CP
+    private String[] ciudades = new String[0];
+    private int[] posicionCiudad = new int[0];
+
+    @PostConstruct
+    void cargar() {
+        try {
+            try (BufferedReader lector = abrirDataset()) {
+                construirIndices(lector);
+            }
+            System.out.println("🗺️ Geocodificador offline cargado: " + cps.length + " CPs, "
+                    + ciudades.length + " ciudades");
+        } catch (Exception e) {
+            // Sin dataset seguimos funcionando solo con Nominatim
+            System.err.println("⚠️ No se pudo cargar el geocodificador offline: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Centroide exacto del código postal (null si el dataset no lo tiene)
+     */
+    public Point buscarPorCP(String codigoPostal) {
+        int cp = parsearCP(codigoPostal);
+        if (cp < 0) return null;
+
+        int pos = Arrays.binarySearch(cps, cp);
+        return pos >= 0 ? punto(pos) : null;
+    }
+
+    /**
+     * Centroide de la provincia del CP (los dos primeros dígitos, ej: 28013 -> 28000)
+     * Es muy aproximado: solo se usa como último recurso
+     */
+    public Point buscarProvincia(String codigoPostal) {
+        int cp = parsearCP(codigoPostal);
+        if (cp < 0) return null;
+
+        int pos = Arrays.binarySearch(cps, (cp / 1000) * 1000);
+        return pos >= 0 ? punto(pos) : null;
+    }
+
+    /**
+     * Centroide de una ciudad por nombre (sin tildes ni mayúsculas)
+     */
+    public Point buscarPorCiudad(String ciudad) {
+        String clave = Direcciones.normalizar(ciudad);
+        if (clave.isEmpty()) return null;
+
+        int pos = Arrays.binarySearch(ciudades, clave);
+        return pos >= 0 ? punto(posicionCiudad[pos]) : null;
+    }
+
+    /**
+     * Nivel offline completo: CP exacto, si no la ciudad y si no la provincia del CP
+     * (los dos primeros dígitos, marcada como aproximada). Null si no hay nada
+     */
+    public Resultado resolver(String codigoPostal, String ciudad) {
+        Point punto = buscarPorCP(codigoPostal);
+        if (punto != null) {
+            return new Resultado(punto, Nivel.CP);
+        }
+        if (ciudad != null) {
+            punto = buscarPorCiudad(ciudad);
+            if (punto != null) {
+                return new Resultado(punto, Nivel.CIUDAD);
+            }
+        }
+
+        Point provincia = buscarProvincia(codigoPostal);
+        return provincia != null ? new Resultado(provincia, Nivel.PROVINCIA) : null;
+    }
+
+    public enum Nivel { CP, CIUDAD, PROVINCIA }
+
+    public record Resultado(Point punto, Nivel nivel) {
+
+        /**
+         * Centroide de la provincia: no había CP exacto ni ciudad
+         */
+        public boolean aproximado() {
+            return nivel == Nivel.PROVINCIA;
+        }
+    }
+
+    public boolean isDisponible() {
+        return cps.length > 0;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private BufferedReader abrirDataset() throws IOException {
+        if (ficheroExterno != null && !ficheroExterno.isBlank()) {
+            return Files.newBufferedReader(Path.of(ficheroExterno), StandardCharsets.UTF_8);
+        }
+        return new BufferedReader(new InputStreamReader(
+                new ClassPathResource("geo/cp_centroides.csv").getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Formato de cada línea: codigo_postal;ciudad;latitud;longitud
+     * Las líneas que empiezan por # son comentarios
+     */
+    private void construirIndices(BufferedReader lector) throws IOException {
+        // TreeMap para ordenar por CP y quedarnos con la primera entrada de cada uno
+        TreeMap<Integer, float[]> porCP = new TreeMap<>();
+        TreeMap<String, Integer> porCiudad = new TreeMap<>();
+
+        String linea;
+        while ((linea = lector.readLine()) != null) {
+            if (linea.isBlank() || linea.startsWith("#")) continue;
+
+            String[] campos = linea.split(";");
+            if (campos.length < 4) continue;
+
+            int cp = parsearCP(campos[0]);
+            if (cp < 0) continue;
+
+            try {
+                float lat = Float.parseFloat(campos[2].trim());
+                float lon = Float.parseFloat(campos[3].trim());
+                porCP.putIfAbsent(cp, new float[]{lat, lon});
+                porCiudad.putIfAbsent(Direcciones.normalizar(campos[1]), cp);
+            } catch (NumberFormatException e) {
+                // Línea mal formada: se ignora
+            }
+        }
+
+        int[] nuevosCps = new int[porCP.size()];
+        float[] nuevasLats = new float[porCP.size()];
+        float[] nuevasLons = new float[porCP.size()];
+        int i = 0;
+        for (Map.Entry<Integer, float[]> e : porCP.entrySet()) {
+            nuevosCps[i] = e.getKey();
+            nuevasLats[i] = e.getValue()[0];
+            nuevasLons[i] = e.getValue()[1];
+            i++;
+        }
+
+        List<String> nombres = new ArrayList<>(porCiudad.keySet());
+        int[] posiciones = new int[nombres.size()];
+        for (int j = 0; j < nombres.size(); j++) {
+            posiciones[j] = Arrays.binarySearch(nuevosCps, porCiudad.get(nombres.get(j)));
+        }
+
+        this.cps = nuevosCps;
+        this.lats = nuevasLats;
+        this.lons = nuevasLons;
+        this.ciudades = nombres.toArray(new String[0]);
+        this.posicionCiudad = posiciones;
+    }
+
+    private int parsearCP(String codigoPostal) {
+        if (codigoPostal == null) return -1;
+        String limpio = codigoPostal.trim();
+        if (limpio.length() != 5) return -1;
+        try {
+            return Integer.parseInt(limpio);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Point punto(int pos) {
+        return geometryFactory.createPoint(new Coordinate(lons[pos], lats[pos]));
+    }
+}
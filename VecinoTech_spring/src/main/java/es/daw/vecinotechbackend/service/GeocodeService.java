@@ -1,68 +1,156 @@
 package es.daw.vecinotechbackend.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Servicio de geocodificación usando HttpURLConnection
- * SOLUCIÓN al problema de User-Agent con RestTemplate
+ * Servicio de geocodificación: geocodificador offline -> caché -> Nominatim (NominatimCliente)
+ * -> centroide de la provincia.
+ * El offline (sin red) va primero: sin calle, un CP o ciudad que tenga resuelve sin tocar
+ * Nominatim. Con calle hace falta Nominatim para tener precisión de portal, y el offline
+ * se usa antes de las consultas de Nominatim por CP/ciudad y como último recurso (provincia).
+ * Cada geocodificación tiene un plazo total compartido por todos sus intentos
  */
 @Service
 public class GeocodeService {
 
-    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final GeocodeCacheService geocodeCacheService;
+    private final GeocodeOfflineService geocodeOfflineService;
+    private final NominatimCliente nominatimCliente;
+
+    // Tiempo máximo de una geocodificación completa (todos los intentos contra Nominatim)
+    private final long plazoMs;
+
+    public GeocodeService(GeocodeCacheService geocodeCacheService,
+                          GeocodeOfflineService geocodeOfflineService,
+                          NominatimCliente nominatimCliente,
+                          @Value("${app.geocode.plazo-ms:8000}") long plazoMs) {
+        this.geocodeCacheService = geocodeCacheService;
+        this.geocodeOfflineService = geocodeOfflineService;
+        this.nominatimCliente = nominatimCliente;
+        this.plazoMs = plazoMs;
+    }
+
+    /**
+     * Estado de una geocodificación: si algún intento falló por red/HTTP
+     * no guardamos el resultado negativo en caché (puede ser algo temporal).
+     * Todos los intentos comparten el mismo plazo total
+     */
+    private static class Consulta {
+        final long limiteNanos;
+        boolean errorRemoto = false;
+
+        Consulta(long plazoMs) {
+            this.limiteNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        }
+    }
 
-    private static final String USER_AGENT = "VecinoTech/1.0 (+https://github.com/tu-usuario/vecinotech; contacto@vecinotech.com)";
+    /**
+     * Resultado de una geocodificación
+     * @param ubicacion punto encontrado (null si ni siquiera hay provincia)
+     * @param aproximada true si es el centroide de la provincia del CP (último recurso)
+     * @param reintentable true si algún intento falló por Nominatim (caído, breaker abierto, plazo):
+     *                     más adelante puede salir un resultado mejor
+     */
+    public record Geocodificacion(Point ubicacion, boolean aproximada, boolean reintentable) {
+
+        /**
+         * ¿Merece la pena guardar la ubicación para siempre? No si es la provincia
+         * por culpa de un fallo temporal de Nominatim
+         */
+        public boolean definitiva() {
+            return ubicacion != null && !(aproximada && reintentable);
+        }
+    }
 
     /**
-     * Geocodifica con Nominatim usando HttpURLConnection
+     * Geocodifica una dirección consultando primero la caché
+     * Solo se llama a Nominatim si no hay entrada válida cacheada
      */
     public Point geocodificar(String direccion, String ciudad, String codigoPostal, String pais) {
+        return geocodificarDetallado(direccion, ciudad, codigoPostal, pais).ubicacion();
+    }
+
+    /**
+     * Como geocodificar(), indicando si el punto es el centroide de la provincia y si
+     * Nominatim falló por el camino. Quien guarda la ubicación en BD (cola, backfill)
+     * no debe guardar un resultado que no sea definitiva()
+     */
+    public Geocodificacion geocodificarDetallado(String direccion, String ciudad, String codigoPostal, String pais) {
+        // Nivel 0: offline, sin red
+        GeocodeOfflineService.Resultado offline = buscarOffline(codigoPostal, ciudad, pais);
+        if (suficienteSinRed(direccion, codigoPostal, offline)) {
+            // Sin calle, el CP exacto (o la ciudad si no hay CP) es la mejor precisión posible
+            return new Geocodificacion(offline.punto(), false, false);
+        }
+
+        String clave = geocodeCacheService.claveDe(direccion, ciudad, codigoPostal, pais);
+
+        GeocodeCacheService.Resultado cacheado = geocodeCacheService.buscar(clave);
+        if (cacheado != null) {
+            System.out.println("💾 Geocodificación desde caché: " + clave);
+            if (cacheado.encontrado()) {
+                return new Geocodificacion(cacheado.ubicacion(), false, false);
+            }
+            return conProvincia(codigoPostal, offline, false);
+        }
+
+        Consulta consulta = new Consulta(plazoMs);
+        Point resultado = geocodificarPorIntentos(direccion, ciudad, codigoPostal, pais, offline, consulta);
+        // En caché solo va el resultado real: el centroide de la provincia se calcula aparte
+        guardarEnCache(clave, resultado, consulta);
+
+        if (resultado != null) {
+            return new Geocodificacion(resultado, false, consulta.errorRemoto);
+        }
+        return conProvincia(codigoPostal, offline, consulta.errorRemoto);
+    }
+
+    /**
+     * Geocodifica con Nominatim por intentos cada vez más generales
+     * En los intentos a nivel de CP y ciudad se usa antes el resultado offline de ese nivel
+     */
+    private Point geocodificarPorIntentos(String direccion, String ciudad, String codigoPostal, String pais,
+                                         GeocodeOfflineService.Resultado offline, Consulta consulta) {
         Point resultado;
 
         // Intento 1: Dirección completa
         System.out.println("🔍 Intento 1: Dirección completa");
-        resultado = intentarGeocodificar(limpiarDireccion(direccion), ciudad, codigoPostal, pais);
+        resultado = intentarGeocodificar(limpiarDireccion(direccion), ciudad, codigoPostal, pais, consulta);
         if (resultado != null) return resultado;
 
         // Intento 2: Dirección sin número
         if (direccion != null && !direccion.isBlank()) {
             System.out.println("⚠️ Intento 2: Sin número de portal");
-            resultado = intentarGeocodificar(eliminarNumero(direccion), ciudad, codigoPostal, pais);
+            resultado = intentarGeocodificar(eliminarNumero(direccion), ciudad, codigoPostal, pais, consulta);
             if (resultado != null) return resultado;
         }
 
         // Intento 3: Solo calle + ciudad (sin CP)
         if (direccion != null && !direccion.isBlank() && ciudad != null && !ciudad.isBlank()) {
             System.out.println("⚠️ Intento 3: Solo calle + ciudad (sin CP)");
-            resultado = intentarGeocodificar(eliminarNumero(direccion), ciudad, null, pais);
+            resultado = intentarGeocodificar(eliminarNumero(direccion), ciudad, null, pais, consulta);
             if (resultado != null) return resultado;
         }
 
-        // Intento 4: Solo CP + país
+        GeocodeOfflineService.Nivel nivelOffline = offline != null ? offline.nivel() : null;
+
+        // Intento 4: Solo CP + país (el CP exacto offline ahorra la llamada)
         if (codigoPostal != null && !codigoPostal.isBlank()) {
             System.out.println("⚠️ Intento 4: Solo código postal");
-            resultado = intentarGeocodificar(null, null, codigoPostal, pais);
+            if (nivelOffline == GeocodeOfflineService.Nivel.CP) return offline.punto();
+            resultado = intentarGeocodificar(null, null, codigoPostal, pais, consulta);
             if (resultado != null) return resultado;
         }
 
-        // Intento 5: Solo ciudad + país
+        // Intento 5: Solo ciudad + país (la ciudad offline ahorra la llamada)
         if (ciudad != null && !ciudad.isBlank()) {
             System.out.println("⚠️ Intento 5: Solo ciudad");
-            resultado = intentarGeocodificar(null, ciudad, null, pais);
+            if (nivelOffline == GeocodeOfflineService.Nivel.CIUDAD) return offline.punto();
+            resultado = intentarGeocodificar(null, ciudad, null, pais, consulta);
             if (resultado != null) return resultado;
         }
 
@@ -70,125 +158,73 @@ public class GeocodeService {
         return null;
     }
 
+    private boolean suficienteSinRed(String direccion, String codigoPostal, GeocodeOfflineService.Resultado offline) {
+        if (offline == null || (direccion != null && !direccion.isBlank())) return false;
+        boolean conCP = codigoPostal != null && !codigoPostal.isBlank();
+        return offline.nivel() == GeocodeOfflineService.Nivel.CP
+                || (!conCP && offline.nivel() == GeocodeOfflineService.Nivel.CIUDAD);
+    }
+
     /**
-     * Realiza petición usando HttpURLConnection (solución del foro)
+     * Último recurso (Nominatim no respondió o no encontró nada): el centroide de la provincia
+     * que ya dio el nivel offline por el prefijo de 2 dígitos del CP. Nunca se guarda en caché
      */
-    private Point intentarGeocodificar(String direccion, String ciudad, String codigoPostal, String pais) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
-
-        try {
-            // Construir query
-            StringBuilder query = new StringBuilder();
-
-            if (direccion != null && !direccion.isBlank()) {
-                query.append(direccion);
-            }
-            if (ciudad != null && !ciudad.isBlank()) {
-                if (query.length() > 0) query.append(", ");
-                query.append(ciudad);
-            }
-            if (codigoPostal != null && !codigoPostal.isBlank()) {
-                if (query.length() > 0) query.append(", ");
-                query.append(codigoPostal);
-            }
-            if (pais != null && !pais.isBlank()) {
-                if (query.length() > 0) query.append(", ");
-                query.append(pais);
-            } else {
-                if (query.length() > 0) query.append(", ");
-                query.append("Spain");
-            }
-
-            String queryStr = query.toString().trim();
-            String encoded = URLEncoder.encode(queryStr, StandardCharsets.UTF_8);
-
-            // URL minimalista
-            String urlString = String.format(
-                    "https://nominatim.openstreetmap.org/search?q=%s&format=json&limit=1",
-                    encoded
-            );
-
-            System.out.println("   📍 Query: " + queryStr);
-
-            // ✅ CLAVE: Usar HttpURLConnection con User-Agent personalizado
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-
-            // Configurar petición HTTP completa
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("User-Agent", USER_AGENT);
-            connection.setRequestProperty("Accept", "application/json");
-            connection.setRequestProperty("Accept-Language", "en");
-            connection.setConnectTimeout(10000); // 10 segundos timeout
-            connection.setReadTimeout(10000);
-
-            // Rate limiting
-            Thread.sleep(1500);
-
-            // Verificar código de respuesta
-            int responseCode = connection.getResponseCode();
-            System.out.println("   📊 Response Code: " + responseCode);
-
-            if (responseCode != 200) {
-                System.out.println("   ❌ Error HTTP: " + responseCode);
-                return null;
-            }
+    private Geocodificacion conProvincia(String codigoPostal, GeocodeOfflineService.Resultado offline,
+                                         boolean reintentable) {
+        if (offline != null && offline.aproximado()) {
+            System.out.println("⚠️ Usando centroide de la provincia del CP " + codigoPostal
+                    + (reintentable ? " (Nominatim no disponible)" : ""));
+            return new Geocodificacion(offline.punto(), true, reintentable);
+        }
+        return new Geocodificacion(null, false, reintentable);
+    }
 
-            // Leer respuesta
-            reader = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)
-            );
+    /**
+     * Monta la query en texto libre y se la pasa a Nominatim dentro del plazo de la consulta
+     */
+    private Point intentarGeocodificar(String direccion, String ciudad, String codigoPostal, String pais, Consulta consulta) {
+        StringBuilder query = new StringBuilder();
 
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
+        if (direccion != null && !direccion.isBlank()) {
+            query.append(direccion);
+        }
+        if (ciudad != null && !ciudad.isBlank()) {
+            if (query.length() > 0) query.append(", ");
+            query.append(ciudad);
+        }
+        if (codigoPostal != null && !codigoPostal.isBlank()) {
+            if (query.length() > 0) query.append(", ");
+            query.append(codigoPostal);
+        }
+        if (pais != null && !pais.isBlank()) {
+            if (query.length() > 0) query.append(", ");
+            query.append(pais);
+        } else {
+            if (query.length() > 0) query.append(", ");
+            query.append("Spain");
+        }
 
-            String jsonResponse = response.toString();
+        String queryStr = query.toString().trim();
+        System.out.println("   📍 Query: " + queryStr);
 
-            if (jsonResponse.isEmpty() || jsonResponse.equals("[]")) {
+        try {
+            Point punto = nominatimCliente.buscar(queryStr, consulta.limiteNanos);
+            if (punto == null) {
                 System.out.println("   ❌ Sin resultados");
-                return null;
-            }
-
-            // Parsear JSON
-            JsonNode root = objectMapper.readTree(jsonResponse);
-
-            if (!root.isArray() || root.size() == 0) {
-                System.out.println("   ❌ Array vacío");
-                return null;
-            }
-
-            JsonNode first = root.get(0);
-
-            if (first.has("lat") && first.has("lon")) {
-                double lat = first.get("lat").asDouble();
-                double lon = first.get("lon").asDouble();
-
-                System.out.println("   ✅ Éxito: [lat=" + lat + ", lon=" + lon + "]");
-
-                return geometryFactory.createPoint(new Coordinate(lon, lat));
+            } else {
+                System.out.println("   ✅ Éxito: [lat=" + punto.getY() + ", lon=" + punto.getX() + "]");
             }
-
-            return null;
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.err.println("   ⚠️ Interrupción");
+            return punto;
+        } catch (NominatimCliente.NoDisponibleException e) {
+            // Breaker abierto, bulkhead lleno o plazo agotado: los siguientes intentos
+            // fallan al momento y se acaba en los niveles offline
+            System.err.println("   ⚠️ Nominatim no disponible: " + e.getMessage());
+            consulta.errorRemoto = true;
             return null;
-        } catch (Exception e) {
-            System.err.println("   ❌ Error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+        } catch (NominatimCliente.ConsultaRechazadaException e) {
+            // Fallo de esta consulta concreta: se sigue con el siguiente intento como si no hubiera resultados
+            System.err.println("   ⚠️ Nominatim rechazó la consulta: " + e.getMessage());
             return null;
-        } finally {
-            // Cerrar recursos
-            try {
-                if (reader != null) reader.close();
-                if (connection != null) connection.disconnect();
-            } catch (Exception e) {
-                // Ignorar errores al cerrar
-            }
         }
     }
 
@@ -226,7 +262,60 @@ public class GeocodeService {
      */
     public Point geocodificarPorCP(String codigoPostal, String pais) {
         if (codigoPostal == null || codigoPostal.isBlank()) return null;
-        return intentarGeocodificar(null, null, codigoPostal, pais);
+
+        GeocodeOfflineService.Resultado offline = buscarOffline(codigoPostal, null, pais);
+        if (offline != null && !offline.aproximado()) return offline.punto();
+
+        String clave = geocodeCacheService.claveDe(null, null, codigoPostal, pais);
+        GeocodeCacheService.Resultado cacheado = geocodeCacheService.buscar(clave);
+        if (cacheado != null) {
+            return cacheado.ubicacion();
+        }
+
+        Consulta consulta = new Consulta(plazoMs);
+        Point resultado = intentarGeocodificar(null, null, codigoPostal, pais, consulta);
+        guardarEnCache(clave, resultado, consulta);
+
+        if (resultado == null && offline != null) {
+            resultado = offline.punto();
+        }
+        return resultado;
+    }
+
+    /**
+     * Consulta el geocodificador offline (solo tiene datos de España):
+     * CP exacto, ciudad o, si no, provincia del CP (aproximado)
+     */
+    private GeocodeOfflineService.Resultado buscarOffline(String codigoPostal, String ciudad, String pais) {
+        if (!esEspana(pais)) return null;
+
+        GeocodeOfflineService.Resultado resultado = geocodeOfflineService.resolver(codigoPostal, ciudad);
+        if (resultado != null) {
+            Point punto = resultado.punto();
+            System.out.println("   📦 Offline (" + resultado.nivel() + "): [lat=" + punto.getY() + ", lon=" + punto.getX() + "]");
+        }
+        return resultado;
+    }
+
+    private boolean esEspana(String pais) {
+        if (pais == null || pais.isBlank()) return true; // por defecto buscamos en España
+        String p = pais.trim().toLowerCase();
+        return p.equals("españa") || p.equals("espana") || p.equals("spain") || p.equals("es");
+    }
+
+    /**
+     * Guarda el resultado en caché. Los negativos solo si Nominatim respondió
+     * correctamente (un fallo de red no significa que la dirección no exista)
+     */
+    private void guardarEnCache(String clave, Point resultado, Consulta consulta) {
+        if (resultado == null && consulta.errorRemoto) {
+            return;
+        }
+        try {
+            geocodeCacheService.guardar(clave, resultado);
+        } catch (Exception e) {
+            System.err.println("   ⚠️ No se pudo guardar en caché de geocodificación: " + e.getMessage());
+        }
     }
 
     /**
@@ -0,0 +1,114 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.HeatmapDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.repository.SolicitudHeatmapRepository;
+import es.daw.vecinotechbackend.util.TilesMercator;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Heatmap de demanda a partir de un rollup (solicitud_heatmap) por celda, categoría, estado y día.
+ * El rollup se actualiza en la MISMA transacción que cada cambio de solicitud
+ * (+1 al crearse o recibir ubicación, -1/+1 en cada cambio de estado), así que
+ * consultar el heatmap nunca recorre la tabla solicitud.
+ */
+@Service
+public class HeatmapService {
+
+    // Zooms de rejilla que se mantienen (celda = tesela de ese zoom)
+    public static final int[] RESOLUCIONES = {6, 9, 12, 15};
+
+    // Si la caja pide más celdas que esto se baja a una resolución más gruesa
+    private static final long MAX_CELDAS = 65_536;
+
+    private static final int DIAS_POR_DEFECTO = 30;
+
+    private final SolicitudHeatmapRepository solicitudHeatmapRepository;
+
+    public HeatmapService(SolicitudHeatmapRepository solicitudHeatmapRepository) {
+        this.solicitudHeatmapRepository = solicitudHeatmapRepository;
+    }
+
+    @EventListener
+    @Transactional
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+        if (s.getUbicacion() == null) return;
+
+        if (evento.esNueva() || evento.ubicacionNueva()) {
+            // Nueva, o acaba de recibir ubicación: antes no contaba
+            sumar(s, s.getEstado(), 1);
+        } else if (evento.cambiaEstado()) {
+            sumar(s, evento.estadoAnterior(), -1);
+            sumar(s, s.getEstado(), 1);
+        }
+        // Mismo estado sin ubicación nueva: no hay nada que mover
+    }
+
+    /**
+     * Celdas del heatmap dentro de la caja
+     * @param resolucion zoom deseado (se usa la resolución mantenida más cercana por debajo)
+     * @param desde      primer día (por defecto hace 30 días)
+     * @param hasta      último día (por defecto hoy)
+     */
+    @Transactional(readOnly = true)
+    public HeatmapDTO obtenerHeatmap(double minLat, double minLon, double maxLat, double maxLon, int resolucion,
+                                     String categoria, String estado, LocalDate desde, LocalDate hasta) {
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IllegalArgumentException("La caja del heatmap no es válida");
+        }
+
+        LocalDate fin = hasta != null ? hasta : LocalDate.now();
+        LocalDate inicio = desde != null ? desde : fin.minusDays(DIAS_POR_DEFECTO);
+
+        // Resolución mantenida más fina que no supere la pedida ni el máximo de celdas
+        int z = RESOLUCIONES[0];
+        for (int r : RESOLUCIONES) {
+            if (r <= resolucion && numeroCeldas(minLat, minLon, maxLat, maxLon, r) <= MAX_CELDAS) {
+                z = r;
+            }
+        }
+
+        int x0 = TilesMercator.tileX(minLon, z);
+        int x1 = TilesMercator.tileX(maxLon, z);
+        int y0 = TilesMercator.tileY(maxLat, z);
+        int y1 = TilesMercator.tileY(minLat, z);
+
+        final int zoom = z;
+        List<HeatmapDTO.Celda> celdas = solicitudHeatmapRepository
+                .findCeldas((short) z, x0, x1, y0, y1, inicio, fin, categoria, estado)
+                .stream()
+                .map(c -> new HeatmapDTO.Celda(
+                        TilesMercator.lat(c.getCeldaY() + 0.5, zoom),
+                        TilesMercator.lon(c.getCeldaX() + 0.5, zoom),
+                        c.getTotal()))
+                .toList();
+
+        return new HeatmapDTO(z, inicio, fin, celdas);
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void sumar(SolicitudDTO s, String estado, int delta) {
+        double lat = s.getUbicacion().getLatitud();
+        double lon = s.getUbicacion().getLongitud();
+        LocalDate dia = s.getFechaCreacion() != null ? s.getFechaCreacion().toLocalDate() : LocalDate.now();
+
+        for (int z : RESOLUCIONES) {
+            solicitudHeatmapRepository.sumar(z, TilesMercator.tileX(lon, z), TilesMercator.tileY(lat, z),
+                    s.getCategoria(), estado, dia, delta);
+        }
+    }
+
+    private long numeroCeldas(double minLat, double minLon, double maxLat, double maxLon, int z) {
+        long ancho = TilesMercator.tileX(maxLon, z) - TilesMercator.tileX(minLon, z) + 1L;
+        long alto = TilesMercator.tileY(minLat, z) - TilesMercator.tileY(maxLat, z) + 1L;
+        return ancho * alto;
+    }
+}
@@ -0,0 +1,48 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.MapaEventoDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.util.GeoHash;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Publica los cambios de solicitudes en topics por zona: /topic/mapa/{geohash5}.
+ * El cliente se suscribe solo a las celdas de su viewport y deja de hacer polling de /solicitudes/mapa.
+ * Se envía tras el commit para no anunciar cambios que luego se deshacen, por el outbox.
+ */
+@Service
+public class MapaEventosService {
+
+    public static final int PRECISION_GEOHASH = 5;
+
+    private final NotificacionOutboxService notificacionOutboxService;
+    private final PresenciaService presenciaService;
+
+    public MapaEventosService(NotificacionOutboxService notificacionOutboxService, PresenciaService presenciaService) {
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.presenciaService = presenciaService;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+        if (s.getUbicacion() == null) return;
+
+        double lat = s.getUbicacion().getLatitud();
+        double lon = s.getUbicacion().getLongitud();
+
+        // Nadie mirando esa zona del mapa: no hace falta construir ni enviar el evento
+        String destino = "/topic/mapa/" + GeoHash.codificar(lat, lon, PRECISION_GEOHASH);
+        if (!presenciaService.hayOyentes(destino)) return;
+
+        String tipo = "ABIERTA".equals(s.getEstado()) ? "alta" : "baja";
+
+        MapaEventoDTO dto = new MapaEventoDTO(tipo, s.getId(), lat, lon,
+                s.getCategoria(), s.getEstado(), s.getTitulo());
+
+        // Si la misma solicitud cambia varias veces en un lote, basta con el último estado
+        notificacionOutboxService.publicar(destino, "solicitud:" + s.getId(), dto);
+    }
+}
@@ -0,0 +1,318 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.chat.ChatNotificacionDTO;
+import es.daw.vecinotechbackend.dto.chat.MensajeDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escritura de mensajes del chat por lotes (group commit), opcional.
+ * Los mensajes ya validados se encolan en una cola acotada y un único hilo los
+ * escribe con un INSERT multi-fila cada intervaloMs o cada maxLote mensajes;
+ * después de escribirlos se emiten por WebSocket (ya con su id) a través del outbox.
+ *
+ * Durabilidad (app.chat.group-commit.durabilidad):
+ *   ENCOLADO: se responde al remitente en cuanto el mensaje está en la cola (sin id, con su
+ *             clienteId: el cliente lo casa con el eco del WebSocket, que ya trae el id).
+ *             Si la aplicación se cae antes del siguiente volcado, esos mensajes se pierden
+ *   CONFIRMADO: el remitente espera a que su lote haga commit y recibe el id.
+ *               Sigue habiendo un único INSERT por lote, pero la latencia sube hasta intervaloMs.
+ *               Si la espera se agota antes de que el escritor lo coja, el mensaje se cancela
+ *               (no se escribirá) y el remitente puede reintentar sin duplicarlo
+ * Si la cola está llena, ChatService escribe el mensaje por el camino normal (síncrono).
+ *
+ * Cada mensaje lleva un UUID propio (columna correlacion) y los ids que devuelve el
+ * INSERT se casan por él: SQL no garantiza que RETURNING siga el orden de VALUES.
+ */
+@Service
+public class MensajeLoteService {
+
+    public enum Durabilidad { ENCOLADO, CONFIRMADO }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NotificacionOutboxService notificacionOutboxService;
+
+    private final boolean activo;
+    private final Durabilidad durabilidad;
+    private final int maxLote;
+    private final long intervaloMs;
+    private final long esperaConfirmacionMs;
+    private final BlockingQueue<Pendiente> cola;
+
+    private volatile boolean corriendo = false;
+    private Thread escritor;
+
+    // Métricas
+    private final AtomicLong encolados = new AtomicLong();
+    private final AtomicLong escritos = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong colaLlena = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong cancelados = new AtomicLong();
+    private final AtomicLong mayorLote = new AtomicLong();
+
+    /**
+     * Mensaje ya validado a la espera de escribirse.
+     * 'reclamado' lo gana o el escritor (lo va a insertar) o el remitente al agotar su espera
+     * (queda cancelado): nunca los dos
+     */
+    private record Pendiente(Long solicitudId, Long remitenteId, String remitenteNombre, String contenido,
+                             String clienteId, UUID correlacion, LocalDateTime fechaEnvio,
+                             CompletableFuture<MensajeDTO> resultado, AtomicBoolean reclamado) {
+
+        MensajeDTO toDTO(Long id) {
+            return new MensajeDTO(id, solicitudId, remitenteId, remitenteNombre, contenido, fechaEnvio, false, clienteId);
+        }
+    }
+
+    public MensajeLoteService(JdbcTemplate jdbcTemplate,
+                              NotificacionOutboxService notificacionOutboxService,
+                              @Value("${app.chat.group-commit.activo:false}") boolean activo,
+                              @Value("${app.chat.group-commit.durabilidad:CONFIRMADO}") Durabilidad durabilidad,
+                              @Value("${app.chat.group-commit.max-lote:100}") int maxLote,
+                              @Value("${app.chat.group-commit.intervalo-ms:5}") long intervaloMs,
+                              @Value("${app.chat.group-commit.capacidad:10000}") int capacidad,
+                              @Value("${app.chat.group-commit.espera-confirmacion-ms:5000}") long esperaConfirmacionMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.notificacionOutboxService = notificacionOutboxService;
+        this.activo = activo;
+        this.durabilidad = durabilidad;
+        // PostgreSQL admite como mucho 65535 parámetros por sentencia (5 por mensaje)
+        this.maxLote = Math.max(1, Math.min(maxLote, 10_000));
+        this.intervaloMs = intervaloMs;
+        this.esperaConfirmacionMs = esperaConfirmacionMs;
+        this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+    }
+
+    @PostConstruct
+    void arrancar() {
+        if (!activo) return;
+
+        corriendo = true;
+        escritor = Thread.ofPlatform()
+                .name("chat-group-commit")
+                .daemon(true)
+                .start(this::bucle);
+        System.out.println("💬 Chat en modo group commit (" + durabilidad + ", lotes de hasta "
+                + maxLote + " cada " + intervaloMs + " ms)");
+    }
+
+    /**
+     * Al parar se vuelca lo que quede en la cola antes de cerrar
+     */
+    @PreDestroy
+    void parar() throws InterruptedException {
+        if (escritor == null) return;
+        corriendo = false;
+        escritor.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public boolean isActivo() {
+        return activo;
+    }
+
+    /**
+     * Encola un mensaje ya validado
+     * @param clienteId id temporal con el que el cliente casa la respuesta y el eco del WebSocket
+     * @return el mensaje (sin id pero con clienteId en modo ENCOLADO) o null si la cola está llena
+     * @throws IllegalStateException si en modo CONFIRMADO el lote no se pudo escribir
+     */
+    public MensajeDTO encolar(Long solicitudId, Long remitenteId, String remitenteNombre, String contenido,
+                              String clienteId) {
+        Pendiente pendiente = new Pendiente(solicitudId, remitenteId, remitenteNombre, contenido, clienteId,
+                UUID.randomUUID(), LocalDateTime.now(), new CompletableFuture<>(), new AtomicBoolean(false));
+
+        if (!corriendo || !cola.offer(pendiente)) {
+            colaLlena.incrementAndGet();
+            return null;
+        }
+        encolados.incrementAndGet();
+
+        if (durabilidad == Durabilidad.ENCOLADO) {
+            return pendiente.toDTO(null);
+        }
+
+        try {
+            return pendiente.resultado().get(esperaConfirmacionMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Envío interrumpido");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se pudo guardar el mensaje, inténtalo de nuevo");
+        } catch (TimeoutException e) {
+            return trasAgotarEspera(pendiente);
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long numLotes = lotes.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activo", activo);
+        stats.put("durabilidad", durabilidad.name());
+        stats.put("enCola", cola.size());
+        stats.put("encolados", encolados.get());
+        stats.put("escritos", escritos.get());
+        stats.put("lotes", numLotes);
+        stats.put("mediaPorLote", numLotes == 0 ? 0 : (double) escritos.get() / numLotes);
+        stats.put("mayorLote", mayorLote.get());
+        stats.put("colaLlena", colaLlena.get());
+        stats.put("fallidos", fallidos.get());
+        stats.put("cancelados", cancelados.get());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void bucle() {
+        List<Pendiente> lote = new ArrayList<>(maxLote);
+
+        while (corriendo || !cola.isEmpty()) {
+            try {
+                Pendiente primero = cola.poll(200, TimeUnit.MILLISECONDS);
+                if (primero == null) continue;
+
+                // Juntamos lo que llegue durante intervaloMs (o hasta llenar el lote)
+                lote.add(primero);
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+                while (lote.size() < maxLote) {
+                    cola.drainTo(lote, maxLote - lote.size());
+                    long restante = limite - System.nanoTime();
+                    if (lote.size() >= maxLote || restante <= 0) break;
+
+                    Pendiente siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) break;
+                    lote.add(siguiente);
+                }
+
+                volcar(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("❌ Error en el group commit del chat: " + e.getMessage());
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Se agotó la espera de confirmación. Si el escritor aún no había cogido el mensaje
+     * se cancela y el remitente puede reintentar; si ya lo está insertando, reintentar
+     * lo duplicaría, así que se espera otro plazo y, si tampoco llega, se da por encolado (sin id)
+     */
+    private MensajeDTO trasAgotarEspera(Pendiente pendiente) {
+        if (pendiente.reclamado().compareAndSet(false, true)) {
+            cancelados.incrementAndGet();
+            throw new IllegalStateException("No se pudo guardar el mensaje, inténtalo de nuevo");
+        }
+
+        try {
+            return pendiente.resultado().get(esperaConfirmacionMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Envío interrumpido");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se pudo guardar el mensaje, inténtalo de nuevo");
+        } catch (TimeoutException e) {
+            // Sigue en camino: se responde como en modo ENCOLADO (sin id, con clienteId), llegará por WebSocket
+            return pendiente.toDTO(null);
+        }
+    }
+
+    /**
+     * Escribe el lote con un INSERT multi-fila. Si falla (ej: una solicitud borrada entre
+     * medias) se reintenta mensaje a mensaje para no perder el resto del lote.
+     * Antes se descartan los que el remitente canceló al agotar su espera
+     */
+    private void volcar(List<Pendiente> lote) {
+        lote.removeIf(p -> !p.reclamado().compareAndSet(false, true));
+        if (lote.isEmpty()) return;
+
+        Map<UUID, Long> ids;
+        try {
+            ids = insertar(lote);
+        } catch (Exception e) {
+            System.err.println("⚠️ Falló el INSERT de un lote de " + lote.size() + " mensajes, reintentando uno a uno: " + e.getMessage());
+            for (Pendiente p : lote) {
+                try {
+                    completar(p, insertar(List.of(p)).get(p.correlacion()));
+                } catch (Exception ex) {
+                    fallidos.incrementAndGet();
+                    p.resultado().completeExceptionally(ex);
+                }
+            }
+            lotes.incrementAndGet();
+            return;
+        }
+
+        for (Pendiente p : lote) {
+            Long id = ids.get(p.correlacion());
+            if (id != null) {
+                completar(p, id);
+            } else {
+                // No debería pasar: el INSERT no devolvió su fila
+                fallidos.incrementAndGet();
+                p.resultado().completeExceptionally(new IllegalStateException("Mensaje sin id tras el INSERT"));
+            }
+        }
+        lotes.incrementAndGet();
+        mayorLote.accumulateAndGet(lote.size(), Math::max);
+    }
+
+    /**
+     * INSERT ... VALUES (...), (...) RETURNING id, correlacion: una sentencia por lote.
+     * @return correlacion -> id de cada mensaje insertado
+     */
+    private Map<UUID, Long> insertar(List<Pendiente> lote) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO mensaje (solicitud_id, remitente_id, contenido, fecha_envio, correlacion, leido) VALUES ");
+        Object[] parametros = new Object[lote.size() * 5];
+
+        for (int i = 0; i < lote.size(); i++) {
+            Pendiente p = lote.get(i);
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, false)" : ", (?, ?, ?, ?, ?, false)");
+            parametros[i * 5] = p.solicitudId();
+            parametros[i * 5 + 1] = p.remitenteId();
+            parametros[i * 5 + 2] = p.contenido();
+            parametros[i * 5 + 3] = Timestamp.valueOf(p.fechaEnvio());
+            parametros[i * 5 + 4] = p.correlacion();
+        }
+        sql.append(" RETURNING id, correlacion");
+
+        Map<UUID, Long> ids = new HashMap<>();
+        jdbcTemplate.query(sql.toString(), rs -> {
+            ids.put(rs.getObject("correlacion", UUID.class), rs.getLong("id"));
+        }, parametros);
+        return ids;
+    }
+
+    private void completar(Pendiente p, Long id) {
+        MensajeDTO dto = p.toDTO(id);
+        escritos.incrementAndGet();
+        p.resultado().complete(dto);
+
+        notificacionOutboxService.publicar("/topic/chat/" + p.solicitudId(), ChatNotificacionDTO.nuevoMensaje(dto));
+    }
+}
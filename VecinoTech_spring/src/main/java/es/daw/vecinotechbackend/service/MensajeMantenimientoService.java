@@ -0,0 +1,226 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.repository.MensajeRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mantenimiento de la tabla mensaje (particionada por mes de fecha_envio desde V19),
+ * en un hilo propio cada intervaloHoras:
+ *   1) crea las particiones de los próximos mesesAdelante meses (crear_particiones_mensaje),
+ *      para que los mensajes nuevos nunca caigan en mensaje_default
+ *   2) archiva los chats de solicitudes CERRADAS sin mensajes en los últimos diasArchivo días:
+ *      por lotes, cada uno en su transacción, se copian a mensaje_archivo (un array JSONB
+ *      comprimido por chat) y se borran de mensaje
+ *   3) borra las particiones anteriores a ese límite que el archivado ha dejado vacías
+ * El DDL se hace con lock_timeout: si el chat tiene la tabla ocupada se reintenta en la siguiente vuelta
+ */
+@Service
+public class MensajeMantenimientoService {
+
+    private static final String LOCK_TIMEOUT = "SET LOCAL lock_timeout = '5s'";
+
+    private final MensajeRepository mensajeRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean activo;
+    private final int mesesAdelante;
+    private final int diasArchivo;
+    private final int tamanoLote;
+    private final long intervaloHoras;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean(false);
+    private volatile boolean corriendo = false;
+    private volatile String faseActual = "parado";
+    private volatile LocalDateTime inicio;
+    private volatile LocalDateTime fin;
+    private Thread periodico;
+
+    // Métricas (acumuladas desde el arranque)
+    private final AtomicLong ejecuciones = new AtomicLong();
+    private final AtomicLong particionesCreadas = new AtomicLong();
+    private final AtomicLong particionesBorradas = new AtomicLong();
+    private final AtomicLong chatsArchivados = new AtomicLong();
+    private final AtomicLong mensajesArchivados = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+
+    public MensajeMantenimientoService(MensajeRepository mensajeRepository,
+                                       JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${app.chat.mantenimiento.activo:true}") boolean activo,
+                                       @Value("${app.chat.particiones.meses-adelante:3}") int mesesAdelante,
+                                       @Value("${app.chat.archivo.dias:180}") int diasArchivo,
+                                       @Value("${app.chat.archivo.lote:200}") int tamanoLote,
+                                       @Value("${app.chat.mantenimiento.intervalo-horas:6}") long intervaloHoras) {
+        this.mensajeRepository = mensajeRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.activo = activo;
+        this.mesesAdelante = Math.max(1, mesesAdelante);
+        this.diasArchivo = Math.max(1, diasArchivo);
+        this.tamanoLote = Math.max(1, tamanoLote);
+        this.intervaloHoras = Math.max(1, intervaloHoras);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        if (!activo) return;
+
+        corriendo = true;
+        periodico = Thread.ofPlatform()
+                .name("mensaje-mantenimiento")
+                .daemon(true)
+                .start(this::bucle);
+        System.out.println("🗄️ Mantenimiento de mensajes cada " + intervaloHoras + " h (particiones a "
+                + mesesAdelante + " meses, archivo tras " + diasArchivo + " días)");
+    }
+
+    @PreDestroy
+    void parar() throws InterruptedException {
+        if (periodico == null) return;
+        corriendo = false;
+        periodico.interrupt();
+        periodico.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Lanza una pasada de mantenimiento en un hilo propio
+     * @return false si ya había una en curso
+     */
+    public boolean lanzar() {
+        if (!enCurso.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Thread.ofPlatform()
+                .name("mensaje-mantenimiento-manual")
+                .daemon(true)
+                .start(this::ejecutar);
+        return true;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activo", activo);
+        stats.put("enCurso", enCurso.get());
+        stats.put("fase", faseActual);
+        stats.put("inicio", inicio);
+        stats.put("fin", fin);
+        stats.put("ejecuciones", ejecuciones.get());
+        stats.put("particionesCreadas", particionesCreadas.get());
+        stats.put("particionesBorradas", particionesBorradas.get());
+        stats.put("chatsArchivados", chatsArchivados.get());
+        stats.put("mensajesArchivados", mensajesArchivados.get());
+        stats.put("errores", errores.get());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void bucle() {
+        while (corriendo) {
+            if (enCurso.compareAndSet(false, true)) {
+                ejecutar();
+            }
+            try {
+                Thread.sleep(TimeUnit.HOURS.toMillis(intervaloHoras));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Una pasada completa. Quien llama ya ha puesto enCurso a true
+     */
+    private void ejecutar() {
+        inicio = LocalDateTime.now();
+        fin = null;
+        ejecuciones.incrementAndGet();
+        LocalDateTime limite = LocalDateTime.now().minusDays(diasArchivo);
+
+        try {
+            faseActual = "particiones";
+            crearParticiones();
+
+            faseActual = "archivo";
+            long despuesDe = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                Long ultimo = archivarLote(limite, despuesDe);
+                if (ultimo == null) break;
+                despuesDe = ultimo;
+            }
+
+            faseActual = "limpieza";
+            borrarParticionesVacias(limite.toLocalDate().withDayOfMonth(1));
+
+            faseActual = "terminado";
+        } catch (Exception e) {
+            faseActual = "error";
+            errores.incrementAndGet();
+            System.err.println("❌ Error en el mantenimiento de mensajes: " + e.getMessage());
+        } finally {
+            fin = LocalDateTime.now();
+            enCurso.set(false);
+        }
+    }
+
+    private void crearParticiones() {
+        Integer creadas = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute(LOCK_TIMEOUT);
+            return jdbcTemplate.queryForObject("SELECT crear_particiones_mensaje(?, ?)", Integer.class,
+                    LocalDate.now(), mesesAdelante + 1);
+        });
+
+        if (creadas != null && creadas > 0) {
+            particionesCreadas.addAndGet(creadas);
+            System.out.println("🗄️ Creadas " + creadas + " particiones nuevas de mensaje");
+        }
+    }
+
+    /**
+     * Archiva un lote de chats en una transacción: se eligen, se copian y se borran juntos
+     * @return id de la última solicitud del lote, o null si no quedaban
+     */
+    private Long archivarLote(LocalDateTime limite, long despuesDe) {
+        return transactionTemplate.execute(status -> {
+            List<Long> ids = mensajeRepository.findChatsArchivables(limite, despuesDe, tamanoLote);
+            if (ids.isEmpty()) return null;
+
+            int chats = mensajeRepository.archivar(ids, limite);
+            int mensajes = mensajeRepository.borrarArchivados(ids, limite);
+            chatsArchivados.addAndGet(chats);
+            mensajesArchivados.addAndGet(mensajes);
+            return ids.get(ids.size() - 1);
+        });
+    }
+
+    private void borrarParticionesVacias(LocalDate antes) {
+        Integer borradas = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute(LOCK_TIMEOUT);
+            return jdbcTemplate.queryForObject("SELECT borrar_particiones_mensaje_vacias(?)", Integer.class, antes);
+        });
+
+        if (borradas != null && borradas > 0) {
+            particionesBorradas.addAndGet(borradas);
+            System.out.println("🗄️ Borradas " + borradas + " particiones vacías de mensaje");
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package es.daw.vecinotechbackend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.daw.vecinotechbackend.util.CircuitBreaker;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cliente HTTP de Nominatim con protecciones para que un upstream lento o caído
+ * no bloquee los hilos de la aplicación:
+ *   - plazo: cada búsqueda recibe un instante límite (System.nanoTime). La espera del
+ *     rate limit se recorta a lo que queda y la petición entera (conexión, cabeceras y
+ *     cuerpo) se abandona al llegar a él, aunque el upstream siga mandando bytes
+ *   - bulkhead: como mucho maxConcurrentes peticiones a la vez; el resto espera poco y se rechaza
+ *   - circuit breaker: tras varios fallos seguidos (red, 403, 429, 5xx) deja de llamar
+ *     durante un tiempo y GeocodeService tira de la caché y del geocodificador offline.
+ *     403 es un bloqueo de todo el servicio (política de uso, IP vetada), no de la consulta.
+ *     Los demás 4xx son culpa de esa consulta: no abren ni cierran el breaker
+ * Usa java.net.http.HttpClient con User-Agent propio (Nominatim rechaza el de RestTemplate)
+ */
+@Service
+public class NominatimCliente {
+
+    private static final String USER_AGENT = "VecinoTech/1.0 (+https://github.com/tu-usuario/vecinotech; contacto@vecinotech.com)";
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String urlBase;
+    private final int timeoutMs;
+    private final long esperaBulkheadMs;
+    private final int maxConcurrentes;
+    private final Semaphore bulkhead;
+    private final CircuitBreaker breaker;
+    private final HttpClient httpClient;
+
+    // Rate limiting GLOBAL: Nominatim exige como máximo 1 petición por segundo
+    private final long intervaloMinimoNanos;
+    private long siguienteTurnoNanos = System.nanoTime();
+
+    // Métricas
+    private final AtomicLong peticiones = new AtomicLong();
+    private final AtomicLong exitos = new AtomicLong();
+    private final AtomicLong sinResultados = new AtomicLong();
+    private final AtomicLong erroresHttp = new AtomicLong();
+    private final AtomicLong http403 = new AtomicLong();
+    private final AtomicLong http429 = new AtomicLong();
+    private final AtomicLong http5xx = new AtomicLong();
+    private final AtomicLong http4xx = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong erroresRed = new AtomicLong();
+    private final AtomicLong plazosAgotados = new AtomicLong();
+    private final AtomicLong rechazadasBulkhead = new AtomicLong();
+    private final AtomicLong latenciaTotalMs = new AtomicLong();
+
+    /**
+     * Nominatim no ha podido responder (breaker abierto, bulkhead lleno, plazo agotado,
+     * error de red o HTTP). Distinto de "no hay resultados", que devuelve null
+     */
+    public static class NoDisponibleException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public NoDisponibleException(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    /**
+     * Nominatim rechazó ESTA consulta (4xx salvo 403 y 429): reintentarla no sirve de nada
+     * y no dice nada de la salud del servicio
+     */
+    public static class ConsultaRechazadaException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public ConsultaRechazadaException(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    public NominatimCliente(@Value("${app.geocode.nominatim.url:https://nominatim.openstreetmap.org}") String urlBase,
+                            @Value("${app.geocode.intervalo-ms:1000}") long intervaloMinimoMs,
+                            @Value("${app.geocode.nominatim.timeout-ms:4000}") int timeoutMs,
+                            @Value("${app.geocode.nominatim.max-concurrentes:4}") int maxConcurrentes,
+                            @Value("${app.geocode.nominatim.espera-bulkhead-ms:500}") long esperaBulkheadMs,
+                            @Value("${app.geocode.nominatim.breaker.fallos:5}") int fallosParaAbrir,
+                            @Value("${app.geocode.nominatim.breaker.abierto-ms:60000}") long tiempoAbiertoMs) {
+        this.urlBase = urlBase.endsWith("/") ? urlBase.substring(0, urlBase.length() - 1) : urlBase;
+        this.intervaloMinimoNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMinimoMs);
+        this.timeoutMs = timeoutMs;
+        this.maxConcurrentes = maxConcurrentes;
+        this.esperaBulkheadMs = esperaBulkheadMs;
+        this.bulkhead = new Semaphore(maxConcurrentes, true);
+        this.breaker = new CircuitBreaker(fallosParaAbrir, tiempoAbiertoMs);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(Math.max(1, timeoutMs)))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Busca una dirección en texto libre
+     * @param limiteNanos instante (System.nanoTime) a partir del cual ya no se espera respuesta
+     * @return ubicación del primer resultado o null si Nominatim no encontró nada
+     * @throws NoDisponibleException si no se pudo obtener respuesta válida
+     * @throws ConsultaRechazadaException si Nominatim respondió 4xx (salvo 403 y 429) a esta consulta
+     */
+    public Point buscar(String query, long limiteNanos) throws NoDisponibleException, ConsultaRechazadaException {
+        if (restanteMs(limiteNanos) <= 0) {
+            plazosAgotados.incrementAndGet();
+            throw new NoDisponibleException("plazo agotado");
+        }
+
+        if (!breaker.permitir()) {
+            throw new NoDisponibleException("circuit breaker abierto");
+        }
+
+        boolean conPermiso = false;
+        boolean informado = false;
+        try {
+            conPermiso = bulkhead.tryAcquire(Math.min(esperaBulkheadMs, restanteMs(limiteNanos)), TimeUnit.MILLISECONDS);
+            if (!conPermiso) {
+                rechazadasBulkhead.incrementAndGet();
+                throw new NoDisponibleException("demasiadas geocodificaciones en curso");
+            }
+
+            esperarTurno(limiteNanos);
+
+            informado = true;
+            return llamar(query, limiteNanos);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NoDisponibleException("interrumpido");
+        } finally {
+            if (conPermiso) bulkhead.release();
+            // Si no llegamos a llamar, el permiso del breaker no cuenta ni como éxito ni como fallo
+            if (!informado) breaker.liberar();
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long total = peticiones.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("url", urlBase);
+        stats.put("breaker", breaker.getEstado().name());
+        stats.put("breakerFallosSeguidos", breaker.getFallosSeguidos());
+        stats.put("breakerAperturas", breaker.getAperturas());
+        stats.put("breakerRechazadas", breaker.getRechazadas());
+        stats.put("enCurso", maxConcurrentes - bulkhead.availablePermits());
+        stats.put("maxConcurrentes", maxConcurrentes);
+        stats.put("bulkheadRechazadas", rechazadasBulkhead.get());
+        stats.put("plazosAgotados", plazosAgotados.get());
+        stats.put("peticiones", total);
+        stats.put("exitos", exitos.get());
+        stats.put("sinResultados", sinResultados.get());
+        stats.put("erroresHttp", erroresHttp.get());
+        stats.put("http403", http403.get());
+        stats.put("http429", http429.get());
+        stats.put("http5xx", http5xx.get());
+        stats.put("http4xx", http4xx.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("erroresRed", erroresRed.get());
+        stats.put("latenciaMediaMs", total == 0 ? 0 : latenciaTotalMs.get() / total);
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Petición HTTP acotada por el plazo. Informa al breaker del resultado:
+     * fallo con red/timeout, 403, 429 y 5xx; el resto de 4xx solo libera el permiso
+     */
+    private Point llamar(String query, long limiteNanos) throws NoDisponibleException, ConsultaRechazadaException {
+        CompletableFuture<HttpResponse<byte[]>> respuesta = null;
+        long inicio = System.nanoTime();
+        peticiones.incrementAndGet();
+
+        try {
+            String encoded = URLEncoder.encode(query, StandardCharsets.UTF_8);
+            long timeout = timeoutHasta(limiteNanos);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(urlBase + "/search?q=" + encoded + "&format=json&limit=1"))
+                    .GET()
+                    .header("User-Agent", USER_AGENT)
+                    .header("Accept", "application/json")
+                    .header("Accept-Language", "en")
+                    .timeout(Duration.ofMillis(timeout))
+                    .build();
+
+            // El timeout de la petición solo llega hasta las cabeceras: el get() con plazo
+            // cubre también el cuerpo (un upstream que lo manda a gotas no nos retiene)
+            respuesta = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+            HttpResponse<byte[]> response = respuesta.get(timeout, TimeUnit.MILLISECONDS);
+
+            int responseCode = response.statusCode();
+            System.out.println("   📊 Response Code: " + responseCode);
+
+            if (responseCode != 200) {
+                erroresHttp.incrementAndGet();
+                if (responseCode >= 400 && responseCode < 500 && responseCode != 403 && responseCode != 429) {
+                    http4xx.incrementAndGet();
+                    breaker.liberar();
+                    throw new ConsultaRechazadaException("HTTP " + responseCode);
+                }
+                // 403: Nominatim nos ha vetado; NoDisponible hace que GeocodeService no cachee el negativo
+                if (responseCode == 403) http403.incrementAndGet();
+                if (responseCode == 429) http429.incrementAndGet();
+                if (responseCode >= 500) http5xx.incrementAndGet();
+                breaker.fallo();
+                throw new NoDisponibleException("HTTP " + responseCode);
+            }
+
+            JsonNode root = objectMapper.readTree(response.body());
+            breaker.exito();
+
+            if (root == null || !root.isArray() || root.isEmpty()) {
+                sinResultados.incrementAndGet();
+                return null;
+            }
+
+            JsonNode first = root.get(0);
+            if (!first.has("lat") || !first.has("lon")) {
+                sinResultados.incrementAndGet();
+                return null;
+            }
+
+            exitos.incrementAndGet();
+            return geometryFactory.createPoint(
+                    new Coordinate(first.get("lon").asDouble(), first.get("lat").asDouble()));
+
+        } catch (NoDisponibleException | ConsultaRechazadaException e) {
+            throw e;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            breaker.fallo();
+            throw new NoDisponibleException("timeout");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HttpTimeoutException) {
+                timeouts.incrementAndGet();
+                breaker.fallo();
+                throw new NoDisponibleException("timeout");
+            }
+            erroresRed.incrementAndGet();
+            breaker.fallo();
+            Throwable causa = e.getCause() != null ? e.getCause() : e;
+            throw new NoDisponibleException(causa.getClass().getSimpleName() + " - " + causa.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breaker.liberar();
+            throw new NoDisponibleException("interrumpido");
+        } catch (Exception e) {
+            erroresRed.incrementAndGet();
+            breaker.fallo();
+            throw new NoDisponibleException(e.getClass().getSimpleName() + " - " + e.getMessage());
+        } finally {
+            latenciaTotalMs.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio));
+            // Si no terminó (plazo, interrupción) se aborta el intercambio en curso
+            if (respuesta != null) respuesta.cancel(true);
+        }
+    }
+
+    /**
+     * Reserva el siguiente hueco del rate limit y espera a que llegue (fuera del lock).
+     * Si el hueco cae después del plazo no se reserva y se rechaza
+     */
+    private void esperarTurno(long limiteNanos) throws InterruptedException, NoDisponibleException {
+        long turno;
+        synchronized (this) {
+            turno = Math.max(System.nanoTime(), siguienteTurnoNanos);
+            if (turno - limiteNanos >= 0) {
+                plazosAgotados.incrementAndGet();
+                throw new NoDisponibleException("plazo agotado esperando turno");
+            }
+            siguienteTurnoNanos = turno + intervaloMinimoNanos;
+        }
+
+        long espera = turno - System.nanoTime();
+        if (espera > 0) {
+            TimeUnit.NANOSECONDS.sleep(espera);
+        }
+    }
+
+    /**
+     * Tiempo máximo de la petición completa: el configurado o lo que quede de plazo si es menos
+     */
+    private long timeoutHasta(long limiteNanos) {
+        return Math.max(1, Math.min(timeoutMs, restanteMs(limiteNanos)));
+    }
+
+    private static long restanteMs(long limiteNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(limiteNanos - System.nanoTime());
+    }
+}
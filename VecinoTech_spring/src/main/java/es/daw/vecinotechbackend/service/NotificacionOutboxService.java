@@ -0,0 +1,378 @@
+package es.daw.vecinotechbackend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox de notificaciones WebSocket.
+ * publicar() dentro de una transacción solo apunta el evento; se entrega a la cola
+ * tras el commit y se descarta si hay rollback (el cliente nunca ve filas que no existen
+ * y la transacción no espera al broker). Fuera de transacción va directo a la cola.
+ *
+ * Un único hilo despachador vacía la cola por lotes (cada intervaloMs o maxLote eventos),
+ * los agrupa por topic y los envía:
+ *   - si nadie escucha un topic, se descarta el grupo entero sin serializar nada
+ *   - los eventos con la misma clave de coalescencia en un topic se quedan en el último
+ *     (ej: alta y baja de la misma solicitud en el mapa). Los que no tienen clave se envían todos
+ *
+ * La cola en memoria es acotada. Si se llena, los eventos se guardan en notificacion_outbox
+ * (JSON) y, mientras quede algo allí, los nuevos también van a la tabla para no desordenarlos.
+ * El despachador la vacía por orden de id; un barrido periódico recoge lo que hubiera
+ * quedado (ej: tras una caída). La entrega es "como mucho una vez", igual que el broker.
+ */
+@Service
+public class NotificacionOutboxService {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenciaService presenciaService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final int maxLote;
+    private final long intervaloMs;
+    private final long barridoMs;
+    private final BlockingQueue<Evento> cola;
+
+    // Eventos en notificacion_outbox pendientes de enviar: los nuevos van detrás de ellos
+    private volatile boolean desbordado = false;
+    private final Object cerrojoDesborde = new Object();
+
+    private volatile boolean corriendo = false;
+    private Thread despachador;
+
+    // Métricas
+    private final AtomicLong publicados = new AtomicLong();
+    private final AtomicLong descartadosRollback = new AtomicLong();
+    private final AtomicLong enviados = new AtomicLong();
+    private final AtomicLong coalescidos = new AtomicLong();
+    private final AtomicLong sinOyentes = new AtomicLong();
+    private final AtomicLong aBaseDatos = new AtomicLong();
+    private final AtomicLong desdeBaseDatos = new AtomicLong();
+    private final AtomicLong perdidos = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong latenciaTotalNanos = new AtomicLong();
+    private final AtomicLong latenciaMaxNanos = new AtomicLong();
+
+    /**
+     * Notificación pendiente. payload es el objeto a convertir o, si viene de la tabla, el JSON
+     */
+    private record Evento(String destino, String clave, Object payload, boolean json, long creadoNanos) {
+    }
+
+    /**
+     * Eventos apuntados por la transacción en curso.
+     * Se entregan en afterCompletion (y no en afterCommit) para no perder los que publican
+     * los @TransactionalEventListener, que se ejecutan dentro de afterCommit
+     */
+    private final class Pendientes implements TransactionSynchronization {
+
+        private final List<Evento> eventos = new ArrayList<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(NotificacionOutboxService.this);
+            if (status == STATUS_COMMITTED) {
+                eventos.forEach(NotificacionOutboxService.this::encolar);
+            } else {
+                descartadosRollback.addAndGet(eventos.size());
+            }
+        }
+    }
+
+    public NotificacionOutboxService(SimpMessagingTemplate messagingTemplate,
+                                     PresenciaService presenciaService,
+                                     JdbcTemplate jdbcTemplate,
+                                     ObjectMapper objectMapper,
+                                     @Value("${app.outbox.capacidad:10000}") int capacidad,
+                                     @Value("${app.outbox.max-lote:500}") int maxLote,
+                                     @Value("${app.outbox.intervalo-ms:5}") long intervaloMs,
+                                     @Value("${app.outbox.barrido-ms:5000}") long barridoMs) {
+        this.messagingTemplate = messagingTemplate;
+        this.presenciaService = presenciaService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.maxLote = Math.max(1, maxLote);
+        this.intervaloMs = intervaloMs;
+        this.barridoMs = Math.max(100, barridoMs);
+        this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+    }
+
+    @PostConstruct
+    void arrancar() {
+        corriendo = true;
+        despachador = Thread.ofPlatform()
+                .name("notificaciones-outbox")
+                .daemon(true)
+                .start(this::bucle);
+    }
+
+    /**
+     * Al parar se envía lo que quede en la cola
+     */
+    @PreDestroy
+    void parar() throws InterruptedException {
+        corriendo = false;
+        if (despachador != null) {
+            despachador.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Publica una notificación en un topic (tras el commit si hay transacción)
+     */
+    public void publicar(String destino, Object payload) {
+        publicar(destino, null, payload);
+    }
+
+    /**
+     * Igual que publicar(destino, payload), pero si en el mismo lote hay otro evento del
+     * topic con la misma clave solo se envía el último
+     */
+    public void publicar(String destino, String clave, Object payload) {
+        Evento evento = new Evento(destino, clave, payload, false, System.nanoTime());
+        publicados.incrementAndGet();
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            encolar(evento);
+            return;
+        }
+
+        Pendientes pendientes = (Pendientes) TransactionSynchronizationManager.getResource(this);
+        if (pendientes == null) {
+            pendientes = new Pendientes();
+            TransactionSynchronizationManager.bindResource(this, pendientes);
+            TransactionSynchronizationManager.registerSynchronization(pendientes);
+        }
+        pendientes.eventos.add(evento);
+    }
+
+    public Map<String, Object> estadisticas() {
+        long numEnviados = enviados.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enCola", cola.size());
+        stats.put("desbordado", desbordado);
+        stats.put("publicados", publicados.get());
+        stats.put("descartadosRollback", descartadosRollback.get());
+        stats.put("enviados", numEnviados);
+        stats.put("coalescidos", coalescidos.get());
+        stats.put("sinOyentes", sinOyentes.get());
+        stats.put("aBaseDatos", aBaseDatos.get());
+        stats.put("desdeBaseDatos", desdeBaseDatos.get());
+        stats.put("perdidos", perdidos.get());
+        stats.put("fallidos", fallidos.get());
+        stats.put("lotes", lotes.get());
+        stats.put("latenciaMediaMs", numEnviados == 0 ? 0.0 : latenciaTotalNanos.get() / 1e6 / numEnviados);
+        stats.put("latenciaMaxMs", latenciaMaxNanos.get() / 1e6);
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void encolar(Evento evento) {
+        // Camino rápido: sin desborde y con hueco en memoria
+        if (!desbordado && cola.offer(evento)) return;
+
+        synchronized (cerrojoDesborde) {
+            if (!desbordado && cola.offer(evento)) return;
+            desbordado = true;
+            guardarEnBaseDatos(evento);
+        }
+    }
+
+    private void guardarEnBaseDatos(Evento evento) {
+        try {
+            String json = evento.json()
+                    ? (String) evento.payload()
+                    : objectMapper.writeValueAsString(evento.payload());
+            jdbcTemplate.update("INSERT INTO notificacion_outbox (destino, clave, payload) VALUES (?, ?, ?)",
+                    evento.destino(), evento.clave(), json);
+            aBaseDatos.incrementAndGet();
+        } catch (Exception e) {
+            perdidos.incrementAndGet();
+            System.err.println("❌ Notificación para " + evento.destino() + " perdida: " + e.getMessage());
+        }
+    }
+
+    private void bucle() {
+        List<Evento> lote = new ArrayList<>(maxLote);
+        long siguienteBarrido = System.nanoTime();
+
+        while (corriendo || !cola.isEmpty()) {
+            try {
+                // Lo que está en la tabla es posterior a lo que ya estaba en memoria
+                // cuando se desbordó: se envía en cuanto la cola se vacía
+                if ((desbordado && cola.isEmpty()) || System.nanoTime() >= siguienteBarrido) {
+                    recuperarDeBaseDatos();
+                    siguienteBarrido = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(barridoMs);
+                }
+
+                Evento primero = cola.poll(desbordado ? 0 : 200, TimeUnit.MILLISECONDS);
+                if (primero == null) continue;
+
+                // Juntamos lo que llegue durante intervaloMs (o hasta llenar el lote)
+                lote.add(primero);
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+                while (lote.size() < maxLote) {
+                    cola.drainTo(lote, maxLote - lote.size());
+                    long restante = limite - System.nanoTime();
+                    if (lote.size() >= maxLote || restante <= 0) break;
+
+                    Evento siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) break;
+                    lote.add(siguiente);
+                }
+
+                despachar(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("❌ Error en el despachador de notificaciones: " + e.getMessage());
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Saca de notificacion_outbox (por orden) lo que haya y lo despacha.
+     * Cuando la tabla queda vacía los nuevos eventos vuelven a la cola en memoria
+     */
+    private void recuperarDeBaseDatos() {
+        while (true) {
+            List<Evento> recuperados;
+            try {
+                recuperados = jdbcTemplate.query("""
+                        WITH borrados AS (
+                            DELETE FROM notificacion_outbox
+                            WHERE id IN (SELECT id FROM notificacion_outbox
+                                         ORDER BY id
+                                         LIMIT ?
+                                         FOR UPDATE SKIP LOCKED)
+                            RETURNING id, destino, clave, payload
+                        )
+                        SELECT destino, clave, payload FROM borrados ORDER BY id
+                        """,
+                        (rs, i) -> new Evento(rs.getString("destino"), rs.getString("clave"),
+                                rs.getString("payload"), true, System.nanoTime()),
+                        maxLote);
+            } catch (Exception e) {
+                System.err.println("⚠️ No se pudo leer notificacion_outbox: " + e.getMessage());
+                return;
+            }
+
+            if (recuperados.isEmpty()) {
+                // Con el cerrojo nadie más escribe en la tabla: si sigue vacía, se acabó el desborde
+                synchronized (cerrojoDesborde) {
+                    if (!hayFilasEnBaseDatos()) {
+                        desbordado = false;
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            desdeBaseDatos.addAndGet(recuperados.size());
+            despachar(recuperados);
+        }
+    }
+
+    private boolean hayFilasEnBaseDatos() {
+        try {
+            return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM notificacion_outbox)", Boolean.class));
+        } catch (Exception e) {
+            return desbordado;
+        }
+    }
+
+    private void despachar(List<Evento> lote) {
+        // Agrupamos por topic manteniendo el orden de llegada dentro de cada uno
+        Map<String, List<Evento>> porDestino = new LinkedHashMap<>();
+        for (Evento e : lote) {
+            porDestino.computeIfAbsent(e.destino(), d -> new ArrayList<>()).add(e);
+        }
+
+        for (Map.Entry<String, List<Evento>> grupo : porDestino.entrySet()) {
+            String destino = grupo.getKey();
+            List<Evento> eventos = grupo.getValue();
+
+            if (!presenciaService.hayOyentes(destino)) {
+                sinOyentes.addAndGet(eventos.size());
+                continue;
+            }
+
+            for (Evento e : coalescer(eventos)) {
+                enviar(e);
+            }
+        }
+        lotes.incrementAndGet();
+    }
+
+    /**
+     * Deja solo el último evento de cada clave (en la posición de ese último)
+     */
+    private List<Evento> coalescer(List<Evento> eventos) {
+        Map<String, Integer> ultimoPorClave = new HashMap<>();
+        for (int i = 0; i < eventos.size(); i++) {
+            if (eventos.get(i).clave() != null) {
+                ultimoPorClave.put(eventos.get(i).clave(), i);
+            }
+        }
+        if (ultimoPorClave.isEmpty()) return eventos;
+
+        List<Evento> resultado = new ArrayList<>(eventos.size());
+        for (int i = 0; i < eventos.size(); i++) {
+            Evento e = eventos.get(i);
+            if (e.clave() == null || ultimoPorClave.get(e.clave()) == i) {
+                resultado.add(e);
+            } else {
+                coalescidos.incrementAndGet();
+            }
+        }
+        return resultado;
+    }
+
+    private void enviar(Evento e) {
+        try {
+            if (e.json()) {
+                // Mismo cuerpo que habría generado el conversor JSON del broker
+                messagingTemplate.convertAndSend(e.destino(),
+                        ((String) e.payload()).getBytes(StandardCharsets.UTF_8),
+                        Map.of(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON));
+            } else {
+                messagingTemplate.convertAndSend(e.destino(), e.payload());
+            }
+            enviados.incrementAndGet();
+
+            long latencia = System.nanoTime() - e.creadoNanos();
+            latenciaTotalNanos.addAndGet(latencia);
+            latenciaMaxNanos.accumulateAndGet(latencia, Math::max);
+        } catch (Exception ex) {
+            fallidos.incrementAndGet();
+            System.err.println("⚠️ No se pudo enviar la notificación a " + e.destino() + ": " + ex.getMessage());
+        }
+    }
+}
@@ -2,19 +2,27 @@ package es.daw.vecinotechbackend.service;
 
 import es.daw.vecinotechbackend.dto.*;
 import es.daw.vecinotechbackend.dto.solicitud.ISolicitudMapaDTO;
+import es.daw.vecinotechbackend.dto.solicitud.MapaClustersDTO;
 import es.daw.vecinotechbackend.dto.solicitud.NeedHelpRequest;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudesCercanasDTO;
 import es.daw.vecinotechbackend.dto.usuario.ActualizarPerfilRequest;
 import es.daw.vecinotechbackend.dto.usuario.UsuarioDetalleDTO;
 import es.daw.vecinotechbackend.dto.valoracion.LeaderDTO;
 import es.daw.vecinotechbackend.entity.Solicitud;
 import es.daw.vecinotechbackend.entity.Usuario;
 import es.daw.vecinotechbackend.entity.UsuarioDetalle;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.event.VoluntarioCambioEvent;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
 import es.daw.vecinotechbackend.mapper.UsuarioDetalleMapper;
 import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.repository.SolicitudRepository.SolicitudMapaView;
 import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository;
 import es.daw.vecinotechbackend.repository.UsuarioRepository;
 import jakarta.transaction.Transactional;
 import org.locationtech.jts.geom.Point;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -33,22 +41,34 @@ public class PortalService {
     private final UsuarioRepository usuarioRepository;
     private final SolicitudRepository solicitudRepository;
     private final UsuarioDetalleRepository usuarioDetalleRepository;
-    private final GeocodeService geocodeService;
     private final UsuarioDetalleMapper usuarioDetalleMapper;
     private final ChatService chatService;
+    private final GeocodeColaService geocodeColaService;
+    private final SolicitudIndiceService solicitudIndiceService;
+    private final SolicitudMapper solicitudMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final UsuarioResumenService usuarioResumenService;
 
     public PortalService(UsuarioRepository usuarioRepository,
                          UsuarioDetalleRepository usuarioDetalleRepository,
                          SolicitudRepository solicitudRepository,
-                         GeocodeService geocodeService,
                          UsuarioDetalleMapper usuarioDetalleMapper,
-                         ChatService chatService) {
+                         ChatService chatService,
+                         GeocodeColaService geocodeColaService,
+                         SolicitudIndiceService solicitudIndiceService,
+                         SolicitudMapper solicitudMapper,
+                         ApplicationEventPublisher eventPublisher,
+                         UsuarioResumenService usuarioResumenService) {
         this.usuarioRepository = usuarioRepository;
         this.usuarioDetalleRepository = usuarioDetalleRepository;
         this.solicitudRepository = solicitudRepository;
-        this.geocodeService = geocodeService;
         this.usuarioDetalleMapper = usuarioDetalleMapper;
         this.chatService = chatService;
+        this.geocodeColaService = geocodeColaService;
+        this.solicitudIndiceService = solicitudIndiceService;
+        this.solicitudMapper = solicitudMapper;
+        this.eventPublisher = eventPublisher;
+        this.usuarioResumenService = usuarioResumenService;
     }
 
     @Transactional
@@ -67,6 +87,7 @@ public class PortalService {
             det.setEsVoluntario(!det.isEsVoluntario());
         }
         usuarioRepository.save(u); // cascade persiste el detalle
+        eventPublisher.publishEvent(new VoluntarioCambioEvent(userId));
         return det.isEsVoluntario();
     }
 
@@ -89,35 +110,24 @@ public class PortalService {
         if(detalle != null){
             //Intenta usar ubicacion ya guardada del usuario
             ubicacion = detalle.getUbicacion();
-            System.out.println("Ubicacion del usuario " + ubicacion.getY() + " - " +  ubicacion.getX());
 
-            // Si no tiene ubicación, geocodificar AHORA
+            // Si no tiene ubicación, se geocodifica en segundo plano (no bloqueamos la petición).
+            // Cuando se resuelva, el trabajador asigna la ubicación también a esta solicitud.
             if (ubicacion == null) {
-                System.out.println("Usuario sin ubicación, geocodificando desde dirección...");
-                ubicacion = geocodeService.geocodificar(
-                        detalle.getDireccion(),
-                        detalle.getCiudad(),
-                        detalle.getCodigoPostal(),
-                        detalle.getPais()
-                );
-
-                // Guardar ubicación en el usuario para futuras solicitudes
-                if (ubicacion != null) {
-                    detalle.setUbicacion(ubicacion);
-                    usuarioDetalleRepository.save(detalle);
-                    System.out.println("Ubicación geocodificada y guardada en usuario");
-                }
+                System.out.println("Usuario sin ubicación, geocodificación encolada");
+                geocodeColaService.encolar(userId, detalle);
             }
         }
         // 3. Asignar ubicación a la solicitud
         if (ubicacion != null) {
             s.setUbicacion(ubicacion);
-            System.out.println("✅ Solicitud creada con ubicación");
+            System.out.println("✅ Solicitud creada con ubicación [lat=" + ubicacion.getY() + ", lng=" + ubicacion.getX() + "]");
         } else {
-            System.out.println("⚠️ ADVERTENCIA: Solicitud creada SIN ubicación - no aparecerá en el mapa");
+            System.out.println("⚠️ Solicitud creada SIN ubicación - aparecerá en el mapa cuando se geocodifique");
         }
 
         solicitudRepository.save(s);
+        eventPublisher.publishEvent(SolicitudCambioEvent.alta(solicitudMapper.toDTO(s)));
 
         String ticket = "VT-" + s.getId();
         return new TicketResponse(ticket);
@@ -134,43 +144,78 @@ public class PortalService {
     // ================== MÉTODOS DE GEOLOCALIZACIÓN ========================
 
     /**
-     * Obtiene solicitudes cercanas a la ubicación del usuario
+     * Solicitudes abiertas cercanas al usuario con su distancia, ordenadas por (distancia, id)
+     * y paginadas por keyset: la página empieza después de (despuesDistancia, despuesId)
      */
-    public List<Solicitud> obtenerSolicitudesCercanas(Long userId, int radiusKm) {
-        Usuario usuario = usuarioRepository.findById(userId)
-                .orElseThrow(() -> new IllegalArgumentException("Usuario no encontrado"));
-
-        UsuarioDetalle detalle = usuario.getDetalle();
-        if (detalle == null || detalle.getUbicacion() == null) {
-            throw new IllegalStateException("El usuario debe configurar su ubicación primero");
-        }
+    public SolicitudesCercanasDTO obtenerSolicitudesCercanas(Long userId, int radiusKm,
+                                                             Double despuesDistancia, Long despuesId, int limite) {
+        Point ubicacion = usuarioDetalleRepository.findUbicacionByUsuarioId(userId)
+                .orElseThrow(() -> new IllegalStateException("El usuario debe configurar su ubicación primero"));
 
-        Point ubicacion = detalle.getUbicacion();
         int radiusMetros = radiusKm * 1000;
+        double cursorDistancia = despuesDistancia != null ? despuesDistancia : -1;
+        long cursorId = despuesId != null ? despuesId : 0;
+
+        // Pedimos una de más para saber si hay página siguiente
+        List<SolicitudesCercanasDTO.Cercana> filas;
+        if (solicitudIndiceService.isListo()) {
+            filas = solicitudIndiceService.buscarCercanas(ubicacion.getY(), ubicacion.getX(), radiusMetros,
+                            cursorDistancia, cursorId, limite + 1)
+                    .stream()
+                    .map(c -> new SolicitudesCercanasDTO.Cercana(
+                            c.solicitud().getId(),
+                            c.solicitud().getTitulo(),
+                            c.solicitud().getDescripcion(),
+                            c.solicitud().getCategoria(),
+                            c.solicitud().getEstado(),
+                            c.solicitud().getUbicacion().getLatitud(),
+                            c.solicitud().getUbicacion().getLongitud(),
+                            c.distancia()))
+                    .toList();
+        } else {
+            filas = solicitudRepository.findSolicitudesNearby(
+                            ubicacion.getX(), // longitud
+                            ubicacion.getY(), // latitud
+                            radiusMetros,
+                            cursorDistancia,
+                            cursorId,
+                            limite + 1)
+                    .stream()
+                    .map(p -> new SolicitudesCercanasDTO.Cercana(
+                            p.getId(),
+                            p.getTitulo(),
+                            p.getDescripcion(),
+                            p.getCategoria(),
+                            p.getEstado(),
+                            p.getLatitud(),
+                            p.getLongitud(),
+                            p.getDistancia()))
+                    .toList();
+        }
 
-        return solicitudRepository.findSolicitudesNearby(
-                ubicacion.getX(), // longitud
-                ubicacion.getY(), // latitud
-                radiusMetros,
-                50 // máximo 50 resultados
-        );
+        if (filas.size() <= limite) {
+            return new SolicitudesCercanasDTO(filas, null, null);
+        }
+        List<SolicitudesCercanasDTO.Cercana> pagina = filas.subList(0, limite);
+        SolicitudesCercanasDTO.Cercana ultima = pagina.get(limite - 1);
+        return new SolicitudesCercanasDTO(pagina, ultima.distancia(), ultima.id());
     }
 
     /**
      * Cuenta solicitudes en el área del usuario
      */
     public long contarSolicitudesCercanas(Long userId, int radiusKm) {
-        Usuario usuario = usuarioRepository.findById(userId)
-                .orElseThrow(() -> new IllegalArgumentException("Usuario no encontrado"));
-
-        UsuarioDetalle detalle = usuario.getDetalle();
-        if (detalle == null || detalle.getUbicacion() == null) {
+        Point ubicacion = usuarioDetalleRepository.findUbicacionByUsuarioId(userId).orElse(null);
+        if (ubicacion == null) {
             return 0;
         }
 
-        Point ubicacion = detalle.getUbicacion();
         int radiusMetros = radiusKm * 1000;
 
+        if (solicitudIndiceService.isListo()) {
+            return solicitudIndiceService.contarCercanas(ubicacion.getY(), ubicacion.getX(), radiusMetros);
+        }
+
         return solicitudRepository.countSolicitudesNearby(
                 ubicacion.getX(),
                 ubicacion.getY(),
@@ -178,18 +223,33 @@ public class PortalService {
         );
     }
 
+    /**
+     * Marcadores del mapa agrupados según el viewport y el zoom
+     */
+    public MapaClustersDTO obtenerClustersMapa(double minLat, double minLon, double maxLat, double maxLon, int zoom) {
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IllegalArgumentException("La caja del mapa no es válida");
+        }
+        if (!solicitudIndiceService.isListo()) {
+            throw new IllegalStateException("El índice del mapa aún se está cargando");
+        }
+        return solicitudIndiceService.buscarParaMapa(minLat, minLon, maxLat, maxLon, zoom);
+    }
+
     /**
      * Obtiene todas las solicitudes abiertas para mostrar en mapa
      */
-    public List<Solicitud> obtenerTodasSolicitudesAbiertas() {
+    public List<SolicitudMapaView> obtenerTodasSolicitudesAbiertas() {
         return solicitudRepository.findAllAbiertasConUbicacion();
     }
 
     /**
-     * Actualiza la ubicación del usuario geocodificando su dirección
+     * Vuelve a geocodificar la dirección del usuario en segundo plano.
+     * No espera a Nominatim: el resultado le llega al usuario con el evento
+     * "ubicacion-actualizada" por WebSocket
      */
     @Transactional
-    public Point actualizarUbicacionUsuario(Long userId) {
+    public void actualizarUbicacionUsuario(Long userId) {
         Usuario usuario = usuarioRepository.findById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("Usuario no encontrado"));
 
@@ -198,20 +258,8 @@ public class PortalService {
             throw new IllegalStateException("El usuario no tiene detalles registrados");
         }
 
-        // Geocodificar usando dirección completa
-        Point ubicacion = geocodeService.geocodificar(
-                detalle.getDireccion(),
-                detalle.getCiudad(),
-                detalle.getCodigoPostal(),
-                detalle.getPais()
-        );
-
-        if (ubicacion != null) {
-            detalle.setUbicacion(ubicacion);
-            usuarioDetalleRepository.save(detalle);
-            return ubicacion;
-        } else {
-            throw new IllegalStateException("No se pudo geocodificar la dirección proporcionada");
+        if (!geocodeColaService.encolar(userId, detalle)) {
+            throw new IllegalStateException("El usuario no tiene una dirección que geocodificar");
         }
     }
 
@@ -239,13 +287,15 @@ public class PortalService {
         }
 
         // Asignar voluntario y cambiar estado
+        String estadoAnterior = solicitud.getEstado();
         solicitud.setVoluntario(voluntario);
         solicitud.setEstado("EN_PROCESO");
 
         solicitud = solicitudRepository.save(solicitud);
+        eventPublisher.publishEvent(SolicitudCambioEvent.cambioEstado(solicitudMapper.toDTO(solicitud), estadoAnterior));
 
-        // NUEVO: Notificar al solicitante por WebSocket
-        chatService.notificarSolicitudAceptada(solicitudId, voluntarioId);
+        // NUEVO: Notificar al solicitante por WebSocket (el outbox lo envía tras el commit)
+        chatService.notificarSolicitudAceptada(solicitudId, solicitud.getSolicitante().getId(), voluntarioId);
 
         return solicitud;
     }
@@ -267,10 +317,18 @@ public class PortalService {
             throw new SecurityException("No tienes permiso para completar esta solicitud");
         }
 
+        // Repetir la petición (doble clic, reintento del cliente) no es un cambio:
+        // no se vuelve a publicar el evento ni a notificar el cierre del chat
+        if ("CERRADA".equals(solicitud.getEstado())) {
+            return solicitud;
+        }
+
+        String estadoAnterior = solicitud.getEstado();
         solicitud.setEstado("CERRADA");
         solicitud = solicitudRepository.save(solicitud);
+        eventPublisher.publishEvent(SolicitudCambioEvent.cambioEstado(solicitudMapper.toDTO(solicitud), estadoAnterior));
 
-        if (solicitud.getSolicitante().getId().equals(userId)) {
+        if (solicitud.getSolicitante().getId().equals(userId) && solicitud.getVoluntario() != null) {
             chatService.notificarChatFinalizado(solicitudId, userId);
         }
 
@@ -284,64 +342,23 @@ public class PortalService {
      * Ahora incluye ABIERTAS y EN_PROCESO
      */
     public List<ISolicitudMapaDTO> getSolicitudesParaMapa() {
-        List<Solicitud> solicitudes = solicitudRepository.findAllAbiertasYEnProcesoConUbicacion();
-        return solicitudes.stream()
-                .map(this::convertirSolicitudAMapaDTO)
+        return solicitudRepository.findAllAbiertasYEnProcesoConUbicacion()
+                .stream()
+                .map(solicitudMapper::toMapaDTO)
                 .toList();
     }
 
-    /**
-     * Convierte una entidad Solicitud a DTO para el mapa
-     */
-    private ISolicitudMapaDTO convertirSolicitudAMapaDTO(Solicitud s) {
-        ISolicitudMapaDTO dto = new ISolicitudMapaDTO();
-        dto.setId(s.getId());
-        dto.setTitulo(s.getTitulo());
-        dto.setDescripcion(s.getDescripcion());
-        dto.setCategoria(s.getCategoria());
-        dto.setEstado(s.getEstado());
-
-        // Fecha en formato ISO 8601
-        if (s.getFechaCreacion() != null) {
-            dto.setFechaCreacion(s.getFechaCreacion().toString());
-        }
-
-        // Ubicación
-        if (s.getUbicacion() != null) {
-            ISolicitudMapaDTO.UbicacionDTO ubicacion = new ISolicitudMapaDTO.UbicacionDTO();
-            ubicacion.setLatitud(s.getUbicacion().getY());  // Y = Latitud
-            ubicacion.setLongitud(s.getUbicacion().getX()); // X = Longitud
-            dto.setUbicacion(ubicacion);
-        }
-
-        // Solicitante
-        if (s.getSolicitante() != null) {
-            ISolicitudMapaDTO.SolicitanteDTO solicitante = new ISolicitudMapaDTO.SolicitanteDTO();
-            solicitante.setId(s.getSolicitante().getId());
-            solicitante.setNombre(s.getSolicitante().getNombre());
-            dto.setSolicitante(solicitante);
-        }
-        if (s.getVoluntario() != null) {
-            ISolicitudMapaDTO.VoluntarioDTO voluntario = new ISolicitudMapaDTO.VoluntarioDTO();
-            voluntario.setId(s.getVoluntario().getId());
-            voluntario.setNombre(s.getVoluntario().getNombre());
-            dto.setVoluntario(voluntario);
-        }
-
-        return dto;
-    }
-
     /**
      * Obtiene todas las solicitudes creadas por un usuario
      */
-    public List<Solicitud> obtenerSolicitudesDelUsuario(Long userId) {
+    public List<SolicitudMapaView> obtenerSolicitudesDelUsuario(Long userId) {
         return solicitudRepository.findBySolicitanteId(userId);
     }
 
     /**
      * Obtiene las solicitudes donde el usuario es voluntario
      */
-    public List<Solicitud> obtenerSolicitudesComoVoluntario(Long userId) {
+    public List<SolicitudMapaView> obtenerSolicitudesComoVoluntario(Long userId) {
         return solicitudRepository.findByVoluntarioId(userId);
     }
 
@@ -381,6 +398,9 @@ public class PortalService {
         detalle.setTelefono(request.getTelefono());
         detalle.setDireccion(request.getDireccion());
         detalle.setCodigoPostal(request.getCodigoPostal());
+        if (request.getRadioAvisoKm() != null) {
+            detalle.setRadioAvisoKm(request.getRadioAvisoKm());
+        }
 
         // ========== DETECTAR SI CAMBIÓ LA UBICACIÓN ==========
         boolean direccionCambio = false;
@@ -416,33 +436,16 @@ public class PortalService {
 
         // ========== GUARDAR CAMBIOS PRIMERO ==========
         usuarioRepository.save(usuario);
+        usuarioResumenService.invalidar(userId);
+        eventPublisher.publishEvent(new VoluntarioCambioEvent(userId));
 
         // ========== GEOCODIFICAR SI CAMBIÓ ==========
+        // Se hace en segundo plano: la respuesta no espera a Nominatim y el
+        // usuario recibe el evento "ubicacion-actualizada" por WebSocket
         if (direccionCambio) {
             System.out.println("🗺️ Cambios detectados en ubicación para usuario #" + userId);
             System.out.println("   " + cambiosLog.toString());
-            System.out.println("   Iniciando geocodificación automática...");
-
-            try {
-                // Reutilizar el método existente
-                Point ubicacion = actualizarUbicacionUsuario(userId);
-
-                System.out.println(String.format(
-                        "   ✅ Geocodificación exitosa: [lat=%.6f, lng=%.6f]",
-                        ubicacion.getY(),
-                        ubicacion.getX()
-                ));
-
-            } catch (IllegalStateException e) {
-                //Limpiar ubicación anterior si la nueva dirección no se geocodifica
-                // detalle.setUbicacion(null);
-                // usuarioDetalleRepository.save(detalle);
-
-            } catch (Exception e) {
-                // Error inesperado (red, timeout, etc.)
-                System.err.println("Error geocodificando: " + e.getMessage());
-                e.printStackTrace();
-            }
+            geocodeColaService.encolar(userId, detalle);
         } else {
             System.out.println("ℹ️ Usuario #" + userId + " - Perfil actualizado sin cambios en ubicación");
         }
@@ -461,5 +464,6 @@ public class PortalService {
 
         usuario.setAvatarUrl(avatarUrl);
         usuarioRepository.save(usuario);
+        usuarioResumenService.invalidar(userId);
     }
 }
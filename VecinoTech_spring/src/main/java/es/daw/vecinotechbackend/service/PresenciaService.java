@@ -0,0 +1,165 @@
+package es.daw.vecinotechbackend.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro en memoria de quién está conectado por WebSocket en ESTE nodo,
+ * alimentado por los eventos de sesión STOMP (el usuario sale del JWT del CONNECT):
+ *   usuario -> sesiones abiertas
+ *   destino -> usuarios suscritos (con cuántas suscripciones cada uno)
+ *   destino -> número de suscripciones (incluidas las de sesiones sin JWT)
+ * "¿Quién está en el chat X?" y "¿está conectado Y?" son búsquedas O(1) en un mapa.
+ * Con el bus de cluster activo la presencia de los demás nodos no se ve aquí:
+ * hayOyentes() responde true para no descartar envíos que otro nodo sí entregaría.
+ */
+@Service
+public class PresenciaService {
+
+    private final ClusterBusService clusterBusService;
+
+    private final Map<Long, Set<String>> sesionesPorUsuario = new ConcurrentHashMap<>();
+    private final Map<String, Long> usuarioPorSesion = new ConcurrentHashMap<>();
+
+    // sesión -> (id de suscripción -> destino), para deshacer al desuscribirse o desconectar
+    private final Map<String, Map<String, String>> suscripcionesPorSesion = new ConcurrentHashMap<>();
+    private final Map<String, Map<Long, Integer>> usuariosPorDestino = new ConcurrentHashMap<>();
+    // Todas las suscripciones por destino, también las de sesiones sin JWT
+    private final Map<String, Integer> suscripcionesPorDestino = new ConcurrentHashMap<>();
+
+    public PresenciaService(ClusterBusService clusterBusService) {
+        this.clusterBusService = clusterBusService;
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent evento) {
+        Long usuarioId = usuarioDe(evento.getUser());
+        String sesion = SimpMessageHeaderAccessor.getSessionId(evento.getMessage().getHeaders());
+        if (usuarioId == null || sesion == null) return;
+
+        usuarioPorSesion.put(sesion, usuarioId);
+        sesionesPorUsuario.compute(usuarioId, (id, sesiones) -> {
+            Set<String> nuevas = sesiones != null ? sesiones : ConcurrentHashMap.newKeySet();
+            nuevas.add(sesion);
+            return nuevas;
+        });
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent evento) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(evento.getMessage());
+        String sesion = accessor.getSessionId();
+        String destino = accessor.getDestination();
+        if (sesion == null || destino == null || accessor.getSubscriptionId() == null) return;
+
+        suscripcionesPorSesion.computeIfAbsent(sesion, k -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), destino);
+        suscripcionesPorDestino.merge(destino, 1, Integer::sum);
+
+        Long usuarioId = usuarioPorSesion.get(sesion);
+        if (usuarioId == null) return;
+
+        // Dentro de compute para no sumar en un mapa que otro hilo acaba de quitar por vacío
+        usuariosPorDestino.compute(destino, (d, usuarios) -> {
+            Map<Long, Integer> nuevos = usuarios != null ? usuarios : new ConcurrentHashMap<>();
+            nuevos.merge(usuarioId, 1, Integer::sum);
+            return nuevos;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent evento) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(evento.getMessage());
+        String sesion = accessor.getSessionId();
+        if (sesion == null || accessor.getSubscriptionId() == null) return;
+
+        Map<String, String> suscripciones = suscripcionesPorSesion.get(sesion);
+        String destino = suscripciones == null ? null : suscripciones.remove(accessor.getSubscriptionId());
+        if (destino != null) {
+            quitarDeDestino(destino, usuarioPorSesion.get(sesion));
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent evento) {
+        String sesion = evento.getSessionId();
+        Long usuarioId = usuarioPorSesion.remove(sesion);
+        Map<String, String> suscripciones = suscripcionesPorSesion.remove(sesion);
+
+        if (suscripciones != null) {
+            suscripciones.values().forEach(destino -> quitarDeDestino(destino, usuarioId));
+        }
+        if (usuarioId != null) {
+            sesionesPorUsuario.computeIfPresent(usuarioId, (id, sesiones) -> {
+                sesiones.remove(sesion);
+                return sesiones.isEmpty() ? null : sesiones;
+            });
+        }
+    }
+
+    /**
+     * ¿Tiene el usuario alguna sesión WebSocket abierta en este nodo?
+     */
+    public boolean estaConectado(Long usuarioId) {
+        return sesionesPorUsuario.containsKey(usuarioId);
+    }
+
+    /**
+     * Usuarios suscritos ahora mismo al chat de una solicitud
+     */
+    public Set<Long> usuariosEnChat(Long solicitudId) {
+        return usuariosEn("/topic/chat/" + solicitudId);
+    }
+
+    public Set<Long> usuariosEn(String destino) {
+        Map<Long, Integer> usuarios = usuariosPorDestino.get(destino);
+        return usuarios == null ? Set.of() : Collections.unmodifiableSet(usuarios.keySet());
+    }
+
+    /**
+     * ¿Merece la pena enviar a este destino? Falso solo si sabemos seguro que nadie lo recibiría
+     */
+    public boolean hayOyentes(String destino) {
+        return clusterBusService.replica(destino) || suscripcionesPorDestino.containsKey(destino);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("usuariosConectados", sesionesPorUsuario.size());
+        stats.put("sesiones", usuarioPorSesion.size());
+        stats.put("destinosConOyentes", suscripcionesPorDestino.size());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void quitarDeDestino(String destino, Long usuarioId) {
+        suscripcionesPorDestino.computeIfPresent(destino, (d, n) -> n > 1 ? n - 1 : null);
+        if (usuarioId == null) return;
+
+        usuariosPorDestino.computeIfPresent(destino, (d, usuarios) -> {
+            usuarios.computeIfPresent(usuarioId, (id, n) -> n > 1 ? n - 1 : null);
+            return usuarios.isEmpty() ? null : usuarios;
+        });
+    }
+
+    private Long usuarioDe(Principal principal) {
+        if (principal instanceof Authentication auth && auth.getPrincipal() instanceof Long id) {
+            return id;
+        }
+        return null;
+    }
+}
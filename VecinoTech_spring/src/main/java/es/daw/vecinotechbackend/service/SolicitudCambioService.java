@@ -0,0 +1,182 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.ISolicitudMapaDTO;
+import es.daw.vecinotechbackend.dto.solicitud.MapaCambiosDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.entity.SolicitudCambio;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import es.daw.vecinotechbackend.repository.SolicitudCambioRepository;
+import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Log versionado de cambios de solicitudes para que el mapa se sincronice por deltas.
+ * Cada SolicitudCambioEvent se escribe en solicitud_cambio DENTRO de la misma transacción
+ * que el cambio (listener síncrono), así log y datos no se pueden desincronizar.
+ *
+ * El watermark no es seq sino el horizonte de transacciones (xmin del snapshot): solo se
+ * devuelven cambios de transacciones ya terminadas, así que los que escriben no se esperan
+ * entre sí y un cambio que hace commit tarde nunca queda por debajo del watermark de un cliente.
+ * Los cambios de más de retencionDias se borran; a un cliente más atrasado se le pide recargar.
+ */
+@Service
+public class SolicitudCambioService {
+
+    private final SolicitudCambioRepository solicitudCambioRepository;
+    private final SolicitudRepository solicitudRepository;
+    private final SolicitudMapper solicitudMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int retencionDias;
+    private final long intervaloPodaHoras;
+    private Thread podador;
+
+    private final AtomicLong cambiosPodados = new AtomicLong();
+
+    public SolicitudCambioService(SolicitudCambioRepository solicitudCambioRepository,
+                                  SolicitudRepository solicitudRepository,
+                                  SolicitudMapper solicitudMapper,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.mapa.cambios.retencion-dias:7}") int retencionDias,
+                                  @Value("${app.mapa.cambios.poda-intervalo-horas:6}") long intervaloPodaHoras) {
+        this.solicitudCambioRepository = solicitudCambioRepository;
+        this.solicitudRepository = solicitudRepository;
+        this.solicitudMapper = solicitudMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retencionDias = Math.max(1, retencionDias);
+        this.intervaloPodaHoras = Math.max(1, intervaloPodaHoras);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancarPoda() {
+        podador = Thread.ofPlatform()
+                .name("solicitud-cambio-poda")
+                .daemon(true)
+                .start(this::buclePoda);
+    }
+
+    @PreDestroy
+    void pararPoda() {
+        if (podador != null) {
+            podador.interrupt();
+        }
+    }
+
+    @EventListener
+    @Transactional
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+
+        SolicitudCambio cambio = new SolicitudCambio();
+        cambio.setSolicitudId(s.getId());
+        cambio.setTipo(evento.esNueva() ? "ALTA" : "ESTADO");
+        cambio.setEstado(s.getEstado());
+        cambio.setFecha(LocalDateTime.now());
+        solicitudCambioRepository.save(cambio);
+    }
+
+    /**
+     * Watermark actual (para que el cliente empiece a pedir deltas tras la carga completa)
+     */
+    @Transactional(readOnly = true)
+    public long watermarkActual() {
+        return solicitudCambioRepository.findHorizonte();
+    }
+
+    /**
+     * Cambios desde "since" hasta el horizonte actual, quedándonos solo con el último de cada solicitud
+     */
+    @Transactional(readOnly = true)
+    public MapaCambiosDTO cambiosDesde(long since) {
+        // Primero el horizonte: todo lo que queda por debajo ya ha terminado y la consulta lo verá
+        long horizonte = solicitudCambioRepository.findHorizonte();
+        long watermark = Math.max(since, horizonte);
+
+        long podadoHasta = solicitudCambioRepository.findPodadoHasta();
+        if (podadoHasta > 0 && since <= podadoHasta) {
+            return new MapaCambiosDTO(watermark, List.of(), List.of(), true);
+        }
+
+        List<SolicitudCambio> ultimos = solicitudCambioRepository.findUltimosEntre(since, horizonte);
+
+        List<Long> abiertas = new ArrayList<>();
+        List<MapaCambiosDTO.Baja> bajas = new ArrayList<>();
+
+        for (SolicitudCambio c : ultimos) {
+            if ("ABIERTA".equals(c.getEstado())) {
+                abiertas.add(c.getSolicitudId());
+            } else {
+                bajas.add(new MapaCambiosDTO.Baja(c.getSolicitudId(), c.getEstado()));
+            }
+        }
+
+        List<ISolicitudMapaDTO> altas = new ArrayList<>();
+        if (!abiertas.isEmpty()) {
+            Map<Long, ISolicitudMapaDTO> porId = solicitudRepository.findAbiertasConUbicacionByIdIn(abiertas)
+                    .stream()
+                    .map(solicitudMapper::toMapaDTO)
+                    .collect(Collectors.toMap(ISolicitudMapaDTO::getId, Function.identity()));
+
+            for (Long id : abiertas) {
+                ISolicitudMapaDTO dto = porId.get(id);
+                if (dto != null) {
+                    altas.add(dto);
+                }
+                // Abierta pero sin ubicación: aún no se pinta, llegará cuando se geocodifique
+            }
+        }
+
+        return new MapaCambiosDTO(watermark, altas, bajas, false);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retencionDias", retencionDias);
+        stats.put("cambiosPodados", cambiosPodados.get());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private void buclePoda() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                podar();
+                Thread.sleep(TimeUnit.HOURS.toMillis(intervaloPodaHoras));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void podar() {
+        try {
+            LocalDateTime limite = LocalDateTime.now().minusDays(retencionDias);
+            Long borrados = transactionTemplate.execute(status -> solicitudCambioRepository.podarAnteriores(limite));
+            if (borrados != null && borrados > 0) {
+                cambiosPodados.addAndGet(borrados);
+                System.out.println("🧹 Podados " + borrados + " cambios del mapa anteriores a " + limite.toLocalDate());
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Error podando solicitud_cambio: " + e.getMessage());
+        }
+    }
+}
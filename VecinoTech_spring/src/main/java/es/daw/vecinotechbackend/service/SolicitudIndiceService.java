@@ -0,0 +1,249 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.MapaClustersDTO;
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.util.Distancias;
+import es.daw.vecinotechbackend.util.GridClusters;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice espacial en memoria de las solicitudes ABIERTAS con ubicación.
+ * Usa el Quadtree de JTS (admite inserciones y borrados) y se mantiene al día
+ * con los SolicitudCambioEvent que publica PortalService tras cada commit.
+ * Permite responder a /solicitudes/cercanas sin consultar PostGIS.
+ * Mantiene además una rejilla jerárquica (GridClusters) para agrupar el mapa por zoom.
+ */
+@Service
+public class SolicitudIndiceService {
+
+    private final SolicitudRepository solicitudRepository;
+    private final SolicitudMapper solicitudMapper;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Quadtree arbol = new Quadtree();
+    private final Map<Long, SolicitudDTO> porId = new HashMap<>();
+    private final GridClusters grid;
+    private volatile boolean listo = false;
+
+    // A partir de este zoom se devuelven puntos sueltos en vez de clusters
+    private final int zoomPuntos;
+    private final int maxPuntos;
+
+    /**
+     * Resultado de una búsqueda por radio
+     */
+    public record Cercana(SolicitudDTO solicitud, double distancia) {
+    }
+
+    public SolicitudIndiceService(SolicitudRepository solicitudRepository,
+                                  SolicitudMapper solicitudMapper,
+                                  @Value("${app.mapa.zoom-puntos:15}") int zoomPuntos,
+                                  @Value("${app.mapa.max-puntos:500}") int maxPuntos) {
+        this.solicitudRepository = solicitudRepository;
+        this.solicitudMapper = solicitudMapper;
+        this.zoomPuntos = zoomPuntos;
+        this.maxPuntos = maxPuntos;
+        this.grid = new GridClusters(Math.max(0, zoomPuntos - 1));
+    }
+
+    /**
+     * Carga inicial al arrancar la aplicación
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void cargar() {
+        List<SolicitudDTO> abiertas;
+
+        // La consulta va dentro del lock: los eventos que lleguen mientras tanto
+        // esperan y se aplican después sobre el índice ya cargado
+        lock.writeLock().lock();
+        try {
+            abiertas = solicitudRepository.findAbiertasConUbicacionParaIndice()
+                    .stream()
+                    .map(solicitudMapper::toDTO)
+                    .toList();
+
+            arbol = new Quadtree();
+            porId.clear();
+            grid.limpiar();
+            abiertas.forEach(this::insertar);
+            listo = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("🗺️ Índice espacial cargado con " + abiertas.size() + " solicitudes abiertas");
+    }
+
+    /**
+     * Mantiene el índice al día cuando una solicitud cambia (tras el commit)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+
+        lock.writeLock().lock();
+        try {
+            eliminar(s.getId());
+            if ("ABIERTA".equals(s.getEstado()) && s.getUbicacion() != null) {
+                insertar(s);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isListo() {
+        return listo;
+    }
+
+    /**
+     * Solicitudes dentro del radio ordenadas por (distancia, id), empezando
+     * después del cursor (despuesDistancia, despuesId) para paginar por keyset.
+     * En la primera página se pasa despuesDistancia = -1.
+     */
+    public List<Cercana> buscarCercanas(double lat, double lon, double radioMetros,
+                                        double despuesDistancia, long despuesId, int limite) {
+        List<Cercana> resultado = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            List<?> candidatos = arbol.query(envelopeDe(lat, lon, radioMetros));
+            double[] distancias = distanciasA(lat, lon, radioMetros, candidatos);
+
+            for (int i = 0; i < distancias.length; i++) {
+                SolicitudDTO s = (SolicitudDTO) candidatos.get(i);
+                double d = distancias[i];
+                if (d <= radioMetros && despuesDelCursor(d, s.getId(), despuesDistancia, despuesId)) {
+                    resultado.add(new Cercana(s, d));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        resultado.sort(Comparator.comparingDouble(Cercana::distancia)
+                .thenComparing(c -> c.solicitud().getId()));
+        return resultado.size() > limite ? resultado.subList(0, limite) : resultado;
+    }
+
+    /**
+     * Número de solicitudes dentro del radio
+     */
+    public long contarCercanas(double lat, double lon, double radioMetros) {
+        long total = 0;
+
+        lock.readLock().lock();
+        try {
+            List<?> candidatos = arbol.query(envelopeDe(lat, lon, radioMetros));
+            for (double d : distanciasA(lat, lon, radioMetros, candidatos)) {
+                if (d <= radioMetros) {
+                    total++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return total;
+    }
+
+    /**
+     * Marcadores del mapa para un viewport: clusters a zoom bajo y puntos a zoom alto.
+     * Si a zoom alto hay demasiados puntos se devuelven los clusters del nivel más fino.
+     */
+    public MapaClustersDTO buscarParaMapa(double minLat, double minLon, double maxLat, double maxLon, int zoom) {
+        lock.readLock().lock();
+        try {
+            if (zoom >= zoomPuntos) {
+                List<MapaClustersDTO.Punto> puntos = new ArrayList<>();
+                for (Object item : arbol.query(new Envelope(minLon, maxLon, minLat, maxLat))) {
+                    SolicitudDTO s = (SolicitudDTO) item;
+                    double lat = s.getUbicacion().getLatitud();
+                    double lon = s.getUbicacion().getLongitud();
+                    // El Quadtree puede devolver candidatos de fuera de la caja
+                    if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) continue;
+                    puntos.add(new MapaClustersDTO.Punto(s.getId(), lat, lon, s.getCategoria(), s.getTitulo()));
+                }
+                if (puntos.size() <= maxPuntos) {
+                    return new MapaClustersDTO(zoom, List.of(), puntos);
+                }
+            }
+            return new MapaClustersDTO(zoom, grid.consultar(minLat, minLon, maxLat, maxLon, zoom), List.of());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Distancias del origen a los candidatos con el cálculo por lotes de Distancias
+     * (equirectangular para los radios cortos de la API, Haversine si no)
+     */
+    private static double[] distanciasA(double lat, double lon, double radioMetros, List<?> candidatos) {
+        int n = candidatos.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            SolicitudDTO.UbicacionDTO u = ((SolicitudDTO) candidatos.get(i)).getUbicacion();
+            lats[i] = u.getLatitud();
+            lons[i] = u.getLongitud();
+        }
+
+        double[] distancias = new double[n];
+        Distancias.distancias(lat, lon, lats, lons, n, radioMetros, distancias);
+        return distancias;
+    }
+
+    private static boolean despuesDelCursor(double d, long id, double despuesDistancia, long despuesId) {
+        return d > despuesDistancia || (d == despuesDistancia && id > despuesId);
+    }
+
+    // ==================== MÉTODOS PRIVADOS (con el lock de escritura cogido) ====================
+
+    private void insertar(SolicitudDTO s) {
+        if (s.getUbicacion() == null) return;
+        porId.put(s.getId(), s);
+        arbol.insert(envelopeDe(s), s);
+        grid.agregar(s.getUbicacion().getLatitud(), s.getUbicacion().getLongitud(), s.getCategoria());
+    }
+
+    private void eliminar(Long id) {
+        SolicitudDTO anterior = porId.remove(id);
+        if (anterior != null) {
+            arbol.remove(envelopeDe(anterior), anterior);
+            grid.quitar(anterior.getUbicacion().getLatitud(), anterior.getUbicacion().getLongitud(),
+                    anterior.getCategoria());
+        }
+    }
+
+    private Envelope envelopeDe(SolicitudDTO s) {
+        double lon = s.getUbicacion().getLongitud();
+        double lat = s.getUbicacion().getLatitud();
+        return new Envelope(lon, lon, lat, lat);
+    }
+
+    /**
+     * Caja (en grados) que contiene el círculo de radio dado
+     */
+    private Envelope envelopeDe(double lat, double lon, double radioMetros) {
+        double dLat = Distancias.metrosAGradosLat(radioMetros);
+        double dLon = Distancias.metrosAGradosLon(radioMetros, lat);
+        return new Envelope(lon - dLon, lon + dLon, lat - dLat, lat + dLat);
+    }
+}
@@ -0,0 +1,122 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.solicitud.SolicitudDTO;
+import es.daw.vecinotechbackend.event.SolicitudCambioEvent;
+import es.daw.vecinotechbackend.repository.SolicitudRepository;
+import es.daw.vecinotechbackend.util.LruCache;
+import es.daw.vecinotechbackend.util.TilesMercator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Teselas vectoriales (MVT) de las solicitudes abiertas generadas por PostGIS.
+ * Las teselas ya generadas se guardan como bytes en una LRU y, cuando una solicitud
+ * cambia, solo se invalidan las teselas (de todos los zooms) que contienen su punto.
+ */
+@Service
+public class TilesService {
+
+    public static final int ZOOM_MAX = 22;
+
+    // Margen de la tesela en fracción de su ancho (64 / 4096, igual que en la consulta)
+    private static final double MARGEN = 0.015625;
+
+    private final SolicitudRepository solicitudRepository;
+    private final LruCache<String, byte[]> cache;
+
+    // Se incrementa en cada invalidación: una tesela generada antes no se guarda
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+
+    public TilesService(SolicitudRepository solicitudRepository,
+                        @Value("${app.mapa.tiles.cache.max-entradas:2000}") int maxEntradas) {
+        this.solicitudRepository = solicitudRepository;
+        this.cache = new LruCache<>(maxEntradas);
+    }
+
+    /**
+     * Devuelve la tesela z/x/y (puede estar vacía si no hay solicitudes en ella)
+     */
+    @Transactional(readOnly = true)
+    public byte[] obtenerTesela(int z, int x, int y) {
+        if (z < 0 || z > ZOOM_MAX || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new IllegalArgumentException("Tesela fuera de rango: " + z + "/" + x + "/" + y);
+        }
+
+        String clave = clave(z, x, y);
+        byte[] tesela = cache.get(clave);
+        if (tesela != null) {
+            aciertos.incrementAndGet();
+            return tesela;
+        }
+
+        fallos.incrementAndGet();
+        long versionAntes = version.get();
+        tesela = solicitudRepository.generarTesela(z, x, y);
+        if (tesela == null) {
+            tesela = new byte[0];
+        }
+
+        if (version.get() == versionAntes) {
+            cache.put(clave, tesela);
+        }
+        return tesela;
+    }
+
+    /**
+     * Invalida las teselas que contienen a la solicitud que ha cambiado
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSolicitudCambio(SolicitudCambioEvent evento) {
+        SolicitudDTO s = evento.solicitud();
+        if (s.getUbicacion() == null) return;
+
+        version.incrementAndGet();
+        invalidaciones.incrementAndGet();
+
+        double lat = s.getUbicacion().getLatitud();
+        double lon = s.getUbicacion().getLongitud();
+
+        for (int z = 0; z <= ZOOM_MAX; z++) {
+            // El punto también se pinta en el margen de las teselas vecinas
+            double margenGrados = 360.0 / (1 << z) * MARGEN;
+            int x0 = TilesMercator.tileX(lon - margenGrados, z);
+            int x1 = TilesMercator.tileX(lon + margenGrados, z);
+            int y0 = TilesMercator.tileY(lat + margenGrados, z);
+            int y1 = TilesMercator.tileY(lat - margenGrados, z);
+
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    cache.remove(clave(z, x, y));
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long hits = aciertos.get();
+        long misses = fallos.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("aciertos", hits);
+        stats.put("fallos", misses);
+        stats.put("ratioAciertos", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("invalidaciones", invalidaciones.get());
+        stats.put("teselasEnCache", cache.size());
+        stats.put("maxTeselasEnCache", cache.getMaxEntradas());
+        return stats;
+    }
+
+    private String clave(int z, int x, int y) {
+        return z + "/" + x + "/" + y;
+    }
+}
@@ -0,0 +1,181 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.dto.usuario.UsuarioResumenDTO;
+import es.daw.vecinotechbackend.repository.UsuarioRepository;
+import es.daw.vecinotechbackend.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché acotada (LRU) de resúmenes de usuario: id -> nombre, avatar y rating.
+ * Las notificaciones por WebSocket solo necesitan el nombre de quien actúa, así que
+ * lo sacan de aquí en vez de cargar la entidad Usuario en cada envío.
+ *
+ * Quien cambia esos datos llama a invalidar() (perfil, avatar, valoración).
+ * La invalidación se repite tras el commit para que una lectura concurrente de los
+ * datos antiguos no vuelva a dejarlos en la caché, y se avisa a los demás nodos por
+ * ClusterBusService. Como NOTIFY puede perderse (reconexión del receptor), cada entrada
+ * caduca además a los ttlMs: es el máximo que un nodo puede mostrar un nombre antiguo.
+ */
+@Service
+public class UsuarioResumenService {
+
+    private static final String EVENTO_INVALIDAR = "usuario-resumen";
+
+    private final UsuarioRepository usuarioRepository;
+    private final ClusterBusService clusterBus;
+    private final LruCache<Long, Entrada> cache;
+    private final long ttlNanos;
+
+    // Se incrementa en cada invalidación: un resumen leído antes no se guarda
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+    private final AtomicLong invalidacionesRemotas = new AtomicLong();
+    private final AtomicLong caducadas = new AtomicLong();
+
+    public UsuarioResumenService(UsuarioRepository usuarioRepository,
+                                 ClusterBusService clusterBus,
+                                 @Value("${app.usuarios.cache.max-entradas:10000}") int maxEntradas,
+                                 @Value("${app.usuarios.cache.ttl-ms:600000}") long ttlMs) {
+        this.usuarioRepository = usuarioRepository;
+        this.clusterBus = clusterBus;
+        this.cache = new LruCache<>(maxEntradas);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, ttlMs));
+    }
+
+    @PostConstruct
+    void escucharCluster() {
+        clusterBus.alRecibirEvento(EVENTO_INVALIDAR, valor -> {
+            invalidacionesRemotas.incrementAndGet();
+            quitar(Long.valueOf(valor));
+        });
+    }
+
+    /**
+     * Resumen de un usuario (null si no existe)
+     */
+    public UsuarioResumenDTO obtener(Long usuarioId) {
+        if (usuarioId == null) return null;
+        return obtener(List.of(usuarioId)).get(usuarioId);
+    }
+
+    /**
+     * Resúmenes de varios usuarios: los que no están en memoria se leen en una sola consulta.
+     * Los ids que no existen no aparecen en el mapa
+     */
+    public Map<Long, UsuarioResumenDTO> obtener(Collection<Long> usuarioIds) {
+        Map<Long, UsuarioResumenDTO> resultado = new HashMap<>();
+        List<Long> pendientes = new ArrayList<>();
+
+        for (Long id : usuarioIds) {
+            if (id == null || resultado.containsKey(id)) continue;
+            UsuarioResumenDTO resumen = vigente(id);
+            if (resumen != null) {
+                aciertos.incrementAndGet();
+                resultado.put(id, resumen);
+            } else if (!pendientes.contains(id)) {
+                pendientes.add(id);
+            }
+        }
+
+        if (!pendientes.isEmpty()) {
+            fallos.addAndGet(pendientes.size());
+            long versionAntes = version.get();
+            for (UsuarioResumenDTO resumen : usuarioRepository.findResumenes(pendientes)) {
+                resultado.put(resumen.id(), resumen);
+                if (version.get() == versionAntes) {
+                    cache.put(resumen.id(), new Entrada(resumen, System.nanoTime()));
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Nombre para mostrar en una notificación (null si el usuario no existe)
+     */
+    public String nombre(Long usuarioId) {
+        UsuarioResumenDTO resumen = obtener(usuarioId);
+        return resumen != null ? resumen.nombre() : null;
+    }
+
+    /**
+     * Olvida el resumen de un usuario cuyos datos han cambiado, aquí y en los demás nodos.
+     * Dentro de una transacción se vuelve a invalidar (y se avisa al cluster) tras el commit,
+     * para que los otros nodos no relean los datos antiguos
+     */
+    public void invalidar(Long usuarioId) {
+        if (usuarioId == null) return;
+        quitar(usuarioId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    quitar(usuarioId);
+                    clusterBus.publicarEvento(EVENTO_INVALIDAR, usuarioId.toString());
+                }
+            });
+        } else {
+            clusterBus.publicarEvento(EVENTO_INVALIDAR, usuarioId.toString());
+        }
+    }
+
+    public Map<String, Object> estadisticas() {
+        long a = aciertos.get();
+        long f = fallos.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entradas", cache.size());
+        stats.put("maxEntradas", cache.getMaxEntradas());
+        stats.put("ttlMs", TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        stats.put("aciertos", a);
+        stats.put("fallos", f);
+        stats.put("ratioAciertos", a + f == 0 ? 0.0 : (double) a / (a + f));
+        stats.put("invalidaciones", invalidaciones.get());
+        stats.put("invalidacionesRemotas", invalidacionesRemotas.get());
+        stats.put("caducadas", caducadas.get());
+        return stats;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Resumen en memoria si no ha caducado; el caducado se quita y cuenta como fallo
+     */
+    private UsuarioResumenDTO vigente(Long usuarioId) {
+        Entrada entrada = cache.get(usuarioId);
+        if (entrada == null) return null;
+
+        if (System.nanoTime() - entrada.guardado() > ttlNanos) {
+            cache.remove(usuarioId);
+            caducadas.incrementAndGet();
+            return null;
+        }
+        return entrada.resumen();
+    }
+
+    private void quitar(Long usuarioId) {
+        version.incrementAndGet();
+        cache.remove(usuarioId);
+        invalidaciones.incrementAndGet();
+    }
+
+    private record Entrada(UsuarioResumenDTO resumen, long guardado) {
+    }
+}
@@ -23,15 +23,18 @@ public class ValoracionService {
     private final SolicitudRepository solicitudRepository;
     private final UsuarioRepository usuarioRepository;
     private final ValoracionMapper valoracionMapper;
+    private final UsuarioResumenService usuarioResumenService;
 
     public ValoracionService(ValoracionRepository valoracionRepository,
                              SolicitudRepository solicitudRepository,
                              UsuarioRepository usuarioRepository,
-                             ValoracionMapper valoracionMapper) {
+                             ValoracionMapper valoracionMapper,
+                             UsuarioResumenService usuarioResumenService) {
         this.valoracionRepository = valoracionRepository;
         this.solicitudRepository = solicitudRepository;
         this.usuarioRepository = usuarioRepository;
         this.valoracionMapper = valoracionMapper;
+        this.usuarioResumenService = usuarioResumenService;
     }
 
     /**
@@ -82,6 +85,7 @@ public class ValoracionService {
         System.out.println("✅ Valoración creada: " + request.getPuntuacion() + " estrellas para " + voluntario.getNombre());
 
         // El trigger de BD actualizará automáticamente rating_promedio y rating_total
+        usuarioResumenService.invalidar(voluntario.getId());
 
         return valoracionMapper.toDTO(valoracion);
     }
@@ -0,0 +1,147 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.event.VoluntarioCambioEvent;
+import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository;
+import es.daw.vecinotechbackend.repository.UsuarioDetalleRepository.VoluntarioUbicacion;
+import es.daw.vecinotechbackend.util.Distancias;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice inverso de voluntarios: cada voluntario con ubicación se guarda como la caja
+ * de su círculo de avisos (casa + radio). Dada una solicitud nueva, el Quadtree devuelve
+ * solo los voluntarios cuyo círculo puede contenerla y se confirma con la distancia real.
+ * Se mantiene al día con los VoluntarioCambioEvent.
+ */
+@Service
+public class VoluntarioIndiceService {
+
+    private final UsuarioDetalleRepository usuarioDetalleRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Quadtree arbol = new Quadtree();
+    private final Map<Long, Voluntario> porId = new HashMap<>();
+
+    /**
+     * Voluntario indexado (radio ya en metros)
+     */
+    public record Voluntario(Long usuarioId, double latitud, double longitud, double radioMetros) {
+    }
+
+    /**
+     * Voluntario afectado por una solicitud y su distancia a ella
+     */
+    public record Afectado(Long usuarioId, double distancia) {
+    }
+
+    public VoluntarioIndiceService(UsuarioDetalleRepository usuarioDetalleRepository) {
+        this.usuarioDetalleRepository = usuarioDetalleRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void cargar() {
+        List<VoluntarioUbicacion> voluntarios;
+
+        lock.writeLock().lock();
+        try {
+            voluntarios = usuarioDetalleRepository.findVoluntariosConUbicacion();
+            arbol = new Quadtree();
+            porId.clear();
+            voluntarios.forEach(v -> insertar(aVoluntario(v)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("🙋 Índice de voluntarios cargado con " + voluntarios.size() + " voluntarios");
+    }
+
+    /**
+     * Vuelve a leer al voluntario tras el commit del cambio
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVoluntarioCambio(VoluntarioCambioEvent evento) {
+        Voluntario actual = usuarioDetalleRepository.findVoluntarioConUbicacion(evento.usuarioId())
+                .map(this::aVoluntario)
+                .orElse(null);
+
+        lock.writeLock().lock();
+        try {
+            eliminar(evento.usuarioId());
+            if (actual != null) {
+                insertar(actual);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Voluntarios cuyo radio de avisos contiene el punto
+     */
+    public List<Afectado> buscarAfectados(double lat, double lon) {
+        List<Afectado> resultado = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            for (Object item : arbol.query(new Envelope(lon, lon, lat, lat))) {
+                Voluntario v = (Voluntario) item;
+                double d = Distancias.haversine(lat, lon, v.latitud(), v.longitud());
+                if (d <= v.radioMetros()) {
+                    resultado.add(new Afectado(v.usuarioId(), d));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return resultado;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return porId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==================== MÉTODOS PRIVADOS (con el lock de escritura cogido) ====================
+
+    private void insertar(Voluntario v) {
+        porId.put(v.usuarioId(), v);
+        arbol.insert(envelopeDe(v), v);
+    }
+
+    private void eliminar(Long usuarioId) {
+        Voluntario anterior = porId.remove(usuarioId);
+        if (anterior != null) {
+            arbol.remove(envelopeDe(anterior), anterior);
+        }
+    }
+
+    private Voluntario aVoluntario(VoluntarioUbicacion v) {
+        return new Voluntario(v.getId(), v.getUbicacion().getY(), v.getUbicacion().getX(),
+                Math.max(1, v.getRadioAvisoKm()) * 1000.0);
+    }
+
+    /**
+     * Caja (en grados) del círculo de avisos
+     */
+    private Envelope envelopeDe(Voluntario v) {
+        double dLat = Distancias.metrosAGradosLat(v.radioMetros());
+        double dLon = Distancias.metrosAGradosLon(v.radioMetros(), v.latitud());
+        return new Envelope(v.longitud() - dLon, v.longitud() + dLon, v.latitud() - dLat, v.latitud() + dLat);
+    }
+}
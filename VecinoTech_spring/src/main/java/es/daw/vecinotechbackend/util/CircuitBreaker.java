@@ -0,0 +1,97 @@
+package es.daw.vecinotechbackend.util;
+
+/**
+ * Circuit breaker sencillo y thread-safe por fallos consecutivos
+ *   CERRADO: las llamadas pasan; tras umbralFallos fallos seguidos se abre
+ *   ABIERTO: las llamadas se rechazan sin intentarlo hasta que pasa tiempoAbiertoMs
+ *   SEMIABIERTO: se deja pasar UNA llamada de prueba; si va bien se cierra, si falla se vuelve a abrir
+ */
+public class CircuitBreaker {
+
+    public enum Estado { CERRADO, ABIERTO, SEMIABIERTO }
+
+    private final int umbralFallos;
+    private final long tiempoAbiertoNanos;
+
+    private Estado estado = Estado.CERRADO;
+    private int fallosSeguidos = 0;
+    private long abiertoHasta = 0;
+    private boolean pruebaEnCurso = false;
+
+    // Métricas
+    private long aperturas = 0;
+    private long rechazadas = 0;
+
+    public CircuitBreaker(int umbralFallos, long tiempoAbiertoMs) {
+        this.umbralFallos = Math.max(1, umbralFallos);
+        this.tiempoAbiertoNanos = tiempoAbiertoMs * 1_000_000L;
+    }
+
+    /**
+     * @return true si la llamada puede hacerse. Si devuelve true el llamante
+     *         DEBE informar después con exito() o fallo()
+     */
+    public synchronized boolean permitir() {
+        if (estado == Estado.ABIERTO && System.nanoTime() - abiertoHasta >= 0) {
+            estado = Estado.SEMIABIERTO;
+        }
+
+        if (estado == Estado.CERRADO) return true;
+
+        if (estado == Estado.SEMIABIERTO && !pruebaEnCurso) {
+            pruebaEnCurso = true;
+            return true;
+        }
+
+        rechazadas++;
+        return false;
+    }
+
+    public synchronized void exito() {
+        fallosSeguidos = 0;
+        pruebaEnCurso = false;
+        estado = Estado.CERRADO;
+    }
+
+    public synchronized void fallo() {
+        fallosSeguidos++;
+        if (estado == Estado.SEMIABIERTO || fallosSeguidos >= umbralFallos) {
+            abrir();
+        }
+        pruebaEnCurso = false;
+    }
+
+    /**
+     * Libera el permiso sin contar éxito ni fallo (ej: se agotó el plazo antes de llamar)
+     */
+    public synchronized void liberar() {
+        pruebaEnCurso = false;
+    }
+
+    public synchronized Estado getEstado() {
+        if (estado == Estado.ABIERTO && System.nanoTime() - abiertoHasta >= 0) {
+            return Estado.SEMIABIERTO;
+        }
+        return estado;
+    }
+
+    public synchronized long getAperturas() {
+        return aperturas;
+    }
+
+    public synchronized long getRechazadas() {
+        return rechazadas;
+    }
+
+    public synchronized int getFallosSeguidos() {
+        return fallosSeguidos;
+    }
+
+    private void abrir() {
+        if (estado != Estado.ABIERTO) {
+            aperturas++;
+        }
+        estado = Estado.ABIERTO;
+        abiertoHasta = System.nanoTime() + tiempoAbiertoNanos;
+    }
+}
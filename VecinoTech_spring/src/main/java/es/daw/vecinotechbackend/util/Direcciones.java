@@ -0,0 +1,25 @@
+package es.daw.vecinotechbackend.util;
+
+import java.text.Normalizer;
+
+/**
+ * Utilidades para comparar direcciones escritas por los usuarios
+ */
+public final class Direcciones {
+
+    private Direcciones() {
+    }
+
+    /**
+     * Minúsculas, sin tildes ni signos de puntuación y con los espacios colapsados
+     * Ej: "  Cádiz, C/ Ancha " -> "cadiz c ancha"
+     */
+    public static String normalizar(String texto) {
+        if (texto == null) return "";
+        String sinTildes = Normalizer.normalize(texto, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "");
+        return sinTildes.toLowerCase()
+                .replaceAll("[^a-z0-9]+", " ")
+                .trim();
+    }
+}
@@ -0,0 +1,102 @@
+package es.daw.vecinotechbackend.util;
+
+/**
+ * Cálculo de distancias sobre la esfera terrestre (WGS84 aproximado)
+ */
+public final class Distancias {
+
+    public static final double RADIO_TIERRA_METROS = 6371000;
+
+    // Hasta esta distancia el error de la aproximación equirectangular frente a Haversine es de
+    // ~0,26 m con |lat| <= 45° y crece con la latitud (~1,2 m a 70°); España queda por debajo de 44°
+    public static final double MAX_METROS_EQUIRECTANGULAR = 50_000;
+
+    private static final double A_RADIANES = Math.PI / 180.0;
+
+    private Distancias() {
+    }
+
+    /**
+     * Distancia Haversine en metros entre dos coordenadas en grados
+     */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double rLat1 = Math.toRadians(lat1);
+        double rLat2 = Math.toRadians(lat2);
+        double dLat = rLat2 - rLat1;
+        double dLon = Math.toRadians(lon2 - lon1);
+
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(rLat1) * Math.cos(rLat2) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+        return RADIO_TIERRA_METROS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Grados de latitud que equivalen a una distancia en metros
+     */
+    public static double metrosAGradosLat(double metros) {
+        return metros / 111320.0;
+    }
+
+    /**
+     * Grados de longitud que equivalen a una distancia en metros a una latitud dada
+     */
+    public static double metrosAGradosLon(double metros, double lat) {
+        double cos = Math.cos(Math.toRadians(lat));
+        return cos < 1e-6 ? 180 : metros / (111320.0 * cos);
+    }
+
+    // ==================== CÁLCULO POR LOTES ====================
+
+    /**
+     * Distancias en metros desde un origen a n puntos (arrays en grados), escritas en salida.
+     * No reserva memoria: el llamante reutiliza los arrays.
+     * Si todas las distancias que interesan están por debajo de MAX_METROS_EQUIRECTANGULAR
+     * (ej: búsqueda por radio de 20 km) usa la aproximación equirectangular, sin trigonometría por punto.
+     *
+     * @param maxMetros distancia máxima que le interesa al llamante (el radio de la búsqueda)
+     */
+    public static void distancias(double lat0, double lon0, double[] lats, double[] lons, int n,
+                                  double maxMetros, double[] salida) {
+        if (maxMetros <= MAX_METROS_EQUIRECTANGULAR) {
+            equirectangular(lat0, lon0, lats, lons, n, salida);
+        } else {
+            haversine(lat0, lon0, lats, lons, n, salida);
+        }
+    }
+
+    /**
+     * Haversine por lotes: cos(lat0) se calcula una sola vez
+     */
+    public static void haversine(double lat0, double lon0, double[] lats, double[] lons, int n, double[] salida) {
+        double rLat0 = lat0 * A_RADIANES;
+        double cosLat0 = Math.cos(rLat0);
+
+        for (int i = 0; i < n; i++) {
+            double rLat = lats[i] * A_RADIANES;
+            double sinDLat = Math.sin((rLat - rLat0) * 0.5);
+            double sinDLon = Math.sin((lons[i] - lon0) * A_RADIANES * 0.5);
+
+            double a = sinDLat * sinDLat + cosLat0 * Math.cos(rLat) * sinDLon * sinDLon;
+            salida[i] = 2 * RADIO_TIERRA_METROS * Math.asin(Math.sqrt(Math.min(1.0, a)));
+        }
+    }
+
+    /**
+     * Aproximación equirectangular por lotes (solo distancias cortas).
+     * La longitud se escala por el coseno de la latitud media, aproximado a partir de
+     * cos(lat0) y sin(lat0) (calculados una vez para todo el lote) con un término lineal
+     */
+    public static void equirectangular(double lat0, double lon0, double[] lats, double[] lons, int n, double[] salida) {
+        double rLat0 = lat0 * A_RADIANES;
+        double cosLat0 = Math.cos(rLat0);
+        double medioSinLat0 = Math.sin(rLat0) * 0.5;
+
+        for (int i = 0; i < n; i++) {
+            double y = (lats[i] - lat0) * A_RADIANES;
+            double x = (lons[i] - lon0) * A_RADIANES * (cosLat0 - medioSinLat0 * y);
+            salida[i] = RADIO_TIERRA_METROS * Math.sqrt(x * x + y * y);
+        }
+    }
+}
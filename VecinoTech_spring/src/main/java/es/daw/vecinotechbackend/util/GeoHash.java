@@ -0,0 +1,54 @@
+package es.daw.vecinotechbackend.util;
+
+/**
+ * Codificación geohash (base32) de coordenadas WGS84.
+ * Con 5 caracteres cada celda mide unos 4,9 km x 4,9 km, tamaño de barrio/ciudad pequeña.
+ */
+public final class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    public static String codificar(double lat, double lon, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+
+        StringBuilder sb = new StringBuilder(precision);
+        boolean esLon = true;
+        int bit = 0;
+        int valor = 0;
+
+        while (sb.length() < precision) {
+            if (esLon) {
+                double mitad = (minLon + maxLon) / 2;
+                if (lon >= mitad) {
+                    valor = (valor << 1) | 1;
+                    minLon = mitad;
+                } else {
+                    valor <<= 1;
+                    maxLon = mitad;
+                }
+            } else {
+                double mitad = (minLat + maxLat) / 2;
+                if (lat >= mitad) {
+                    valor = (valor << 1) | 1;
+                    minLat = mitad;
+                } else {
+                    valor <<= 1;
+                    maxLat = mitad;
+                }
+            }
+            esLon = !esLon;
+
+            // Cada 5 bits sale un carácter
+            if (++bit == 5) {
+                sb.append(BASE32[valor]);
+                bit = 0;
+                valor = 0;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,134 @@
+package es.daw.vecinotechbackend.util;
+
+import es.daw.vecinotechbackend.dto.solicitud.MapaClustersDTO;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rejilla jerárquica de agregados para agrupar marcadores del mapa.
+ * Hay un nivel por zoom (0..nivelMax) y cada nivel divide el mundo en celdas
+ * Web Mercator de tamaño fijo en pantalla (1/4 de tesela, unos 64px).
+ * Cada celda guarda total, suma de coordenadas (para el centroide) y conteo por categoría,
+ * así que añadir o quitar una solicitud cuesta O(niveles) y una consulta solo
+ * recorre las celdas visibles: el tamaño de la respuesta depende del viewport, no de los datos.
+ *
+ * No es thread-safe: quien la use debe protegerla (SolicitudIndiceService usa su lock).
+ */
+public class GridClusters {
+
+    // Cada tesela se parte en 2^SUBDIVISION x 2^SUBDIVISION celdas
+    private static final int SUBDIVISION = 2;
+
+    private final int nivelMax;
+    private final List<Map<Long, Celda>> niveles;
+
+    private static class Celda {
+        int total;
+        double sumaLat;
+        double sumaLon;
+        final Map<String, Integer> categorias = new HashMap<>();
+    }
+
+    public GridClusters(int nivelMax) {
+        this.nivelMax = nivelMax;
+        this.niveles = new ArrayList<>(nivelMax + 1);
+        for (int i = 0; i <= nivelMax; i++) {
+            niveles.add(new HashMap<>());
+        }
+    }
+
+    public void agregar(double lat, double lon, String categoria) {
+        String cat = categoria != null ? categoria : "";
+        for (int nivel = 0; nivel <= nivelMax; nivel++) {
+            Celda c = niveles.get(nivel).computeIfAbsent(clave(lat, lon, nivel), k -> new Celda());
+            c.total++;
+            c.sumaLat += lat;
+            c.sumaLon += lon;
+            c.categorias.merge(cat, 1, Integer::sum);
+        }
+    }
+
+    public void quitar(double lat, double lon, String categoria) {
+        String cat = categoria != null ? categoria : "";
+        for (int nivel = 0; nivel <= nivelMax; nivel++) {
+            Map<Long, Celda> celdas = niveles.get(nivel);
+            long clave = clave(lat, lon, nivel);
+            Celda c = celdas.get(clave);
+            if (c == null) continue;
+
+            c.total--;
+            c.sumaLat -= lat;
+            c.sumaLon -= lon;
+            c.categorias.computeIfPresent(cat, (k, v) -> v > 1 ? v - 1 : null);
+            if (c.total <= 0) {
+                celdas.remove(clave);
+            }
+        }
+    }
+
+    public void limpiar() {
+        niveles.forEach(Map::clear);
+    }
+
+    /**
+     * Clusters de las celdas que caen dentro de la caja en el zoom dado
+     */
+    public List<MapaClustersDTO.Cluster> consultar(double minLat, double minLon,
+                                                   double maxLat, double maxLon, int zoom) {
+        int nivel = Math.max(0, Math.min(nivelMax, zoom));
+        int z = nivel + SUBDIVISION;
+        Map<Long, Celda> celdas = niveles.get(nivel);
+
+        int x0 = TilesMercator.tileX(minLon, z);
+        int x1 = TilesMercator.tileX(maxLon, z);
+        // En Mercator la Y crece hacia el sur
+        int y0 = TilesMercator.tileY(maxLat, z);
+        int y1 = TilesMercator.tileY(minLat, z);
+
+        List<MapaClustersDTO.Cluster> resultado = new ArrayList<>();
+        long visibles = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+
+        if (visibles <= celdas.size()) {
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    Celda c = celdas.get(clave(x, y));
+                    if (c != null) resultado.add(aDTO(c));
+                }
+            }
+        } else {
+            // Viewport muy grande para las celdas que hay: recorremos las ocupadas
+            for (Map.Entry<Long, Celda> e : celdas.entrySet()) {
+                int x = (int) (e.getKey() >>> 32);
+                int y = (int) (long) e.getKey();
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                    resultado.add(aDTO(e.getValue()));
+                }
+            }
+        }
+        return resultado;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    private long clave(double lat, double lon, int nivel) {
+        int z = nivel + SUBDIVISION;
+        return clave(TilesMercator.tileX(lon, z), TilesMercator.tileY(lat, z));
+    }
+
+    private static long clave(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private MapaClustersDTO.Cluster aDTO(Celda c) {
+        return new MapaClustersDTO.Cluster(
+                c.sumaLat / c.total,
+                c.sumaLon / c.total,
+                c.total,
+                new TreeMap<>(c.categorias)
+        );
+    }
+}
@@ -0,0 +1,48 @@
+package es.daw.vecinotechbackend.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU acotada y thread-safe (LinkedHashMap en orden de acceso)
+ * Cuando se supera el tamaño máximo se expulsa la entrada menos usada
+ */
+public class LruCache<K, V> {
+
+    private final int maxEntradas;
+    private final LinkedHashMap<K, V> mapa;
+
+    public LruCache(int maxEntradas) {
+        this.maxEntradas = maxEntradas;
+        this.mapa = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > LruCache.this.maxEntradas;
+            }
+        };
+    }
+
+    public synchronized V get(K clave) {
+        return mapa.get(clave);
+    }
+
+    public synchronized void put(K clave, V valor) {
+        mapa.put(clave, valor);
+    }
+
+    public synchronized void remove(K clave) {
+        mapa.remove(clave);
+    }
+
+    public synchronized void clear() {
+        mapa.clear();
+    }
+
+    public synchronized int size() {
+        return mapa.size();
+    }
+
+    public int getMaxEntradas() {
+        return maxEntradas;
+    }
+}
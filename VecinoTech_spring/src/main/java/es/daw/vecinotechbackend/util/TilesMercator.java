@@ -0,0 +1,40 @@
+package es.daw.vecinotechbackend.util;
+
+/**
+ * Conversión entre coordenadas WGS84 y teselas Web Mercator (esquema XYZ de los mapas web)
+ */
+public final class TilesMercator {
+
+    public static final double LAT_MAX = 85.05112878;
+
+    private TilesMercator() {
+    }
+
+    public static int tileX(double lon, int zoom) {
+        int n = 1 << zoom;
+        int x = (int) Math.floor((lon + 180.0) / 360.0 * n);
+        return Math.max(0, Math.min(n - 1, x));
+    }
+
+    public static int tileY(double lat, int zoom) {
+        int n = 1 << zoom;
+        double rLat = Math.toRadians(Math.max(-LAT_MAX, Math.min(LAT_MAX, lat)));
+        int y = (int) Math.floor((1 - Math.log(Math.tan(rLat) + 1 / Math.cos(rLat)) / Math.PI) / 2 * n);
+        return Math.max(0, Math.min(n - 1, y));
+    }
+
+    /**
+     * Longitud de una coordenada X de tesela (admite fracciones: x + 0.5 es el centro)
+     */
+    public static double lon(double x, int zoom) {
+        return x / (1 << zoom) * 360.0 - 180.0;
+    }
+
+    /**
+     * Latitud de una coordenada Y de tesela (admite fracciones: y + 0.5 es el centro)
+     */
+    public static double lat(double y, int zoom) {
+        double n = Math.PI - 2.0 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+}
@@ -0,0 +1,17 @@
+-- ============================================
+-- V10__solicitud_cambio.sql
+-- Registro de cambios de solicitudes para la sincronización incremental del mapa
+-- ============================================
+
+CREATE TABLE solicitud_cambio (
+                                  seq BIGSERIAL PRIMARY KEY,               -- secuencia creciente (watermark del cliente)
+                                  solicitud_id BIGINT NOT NULL,
+                                  tipo VARCHAR(10) NOT NULL,               -- ALTA, ESTADO
+                                  estado VARCHAR(20) NOT NULL,             -- estado de la solicitud tras el cambio
+                                  fecha TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Para quedarnos con el último cambio de cada solicitud
+CREATE INDEX idx_solicitud_cambio_solicitud ON solicitud_cambio (solicitud_id, seq);
+
+COMMENT ON TABLE solicitud_cambio IS 'Log de cambios de solicitudes (GET /api/portal/solicitudes/mapa/cambios?since=)';
@@ -0,0 +1,21 @@
+-- ============================================
+-- V11__geocode_backfill.sql
+-- Progreso del job que rellena las ubicaciones que faltan
+-- ============================================
+
+CREATE TABLE geocode_backfill (
+                                  fase VARCHAR(30) PRIMARY KEY,            -- usuario_detalle / solicitud
+                                  ultimo_id BIGINT NOT NULL DEFAULT 0,     -- cursor keyset: último id procesado
+                                  procesados BIGINT NOT NULL DEFAULT 0,
+                                  actualizados BIGINT NOT NULL DEFAULT 0,
+                                  fallidos BIGINT NOT NULL DEFAULT 0,
+                                  fecha_actualizacion TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Acelera la búsqueda de filas pendientes
+CREATE INDEX IF NOT EXISTS idx_usuario_detalle_sin_ubicacion
+    ON usuario_detalle (usuario_id) WHERE ubicacion IS NULL;
+CREATE INDEX IF NOT EXISTS idx_solicitud_sin_ubicacion
+    ON solicitud (id) WHERE ubicacion IS NULL;
+
+COMMENT ON TABLE geocode_backfill IS 'Cursor reanudable del backfill de ubicaciones (GeocodeBackfillService)';
@@ -0,0 +1,10 @@
+-- ============================================
+-- V12__radio_aviso_voluntario.sql
+-- Radio (km) en el que un voluntario quiere recibir avisos de solicitudes nuevas
+-- ============================================
+
+ALTER TABLE usuario_detalle
+    ADD COLUMN IF NOT EXISTS radio_aviso_km INTEGER NOT NULL DEFAULT 5
+        CONSTRAINT chk_usuario_detalle_radio_aviso CHECK (radio_aviso_km BETWEEN 1 AND 20);
+
+COMMENT ON COLUMN usuario_detalle.radio_aviso_km IS 'Radio de avisos push de solicitudes nuevas (1-20 km)';
@@ -0,0 +1,32 @@
+-- ============================================
+-- V13__solicitud_heatmap.sql
+-- Rollup de densidad de solicitudes por celda, categoría, estado y día
+-- (celdas = teselas Web Mercator a varios zooms)
+-- ============================================
+
+CREATE TABLE solicitud_heatmap (
+                                   resolucion SMALLINT NOT NULL,         -- zoom de la rejilla (6, 9, 12, 15)
+                                   celda_x INTEGER NOT NULL,
+                                   celda_y INTEGER NOT NULL,
+                                   categoria VARCHAR(40) NOT NULL,
+                                   estado VARCHAR(20) NOT NULL,
+                                   dia DATE NOT NULL,                    -- día de creación de la solicitud
+                                   total INTEGER NOT NULL DEFAULT 0,
+                                   PRIMARY KEY (resolucion, celda_x, celda_y, categoria, estado, dia)
+);
+
+-- Carga inicial con las solicitudes que ya existen
+INSERT INTO solicitud_heatmap (resolucion, celda_x, celda_y, categoria, estado, dia, total)
+SELECT r.z,
+       floor((ST_X(s.ubicacion::geometry) + 180.0) / 360.0 * (1 << r.z))::int,
+       floor((1 - ln(tan(radians(ST_Y(s.ubicacion::geometry))) + 1 / cos(radians(ST_Y(s.ubicacion::geometry)))) / pi()) / 2 * (1 << r.z))::int,
+       s.categoria,
+       s.estado,
+       s.fecha_creacion::date,
+       COUNT(*)
+FROM solicitud s
+         CROSS JOIN (VALUES (6), (9), (12), (15)) AS r(z)
+WHERE s.ubicacion IS NOT NULL
+GROUP BY 1, 2, 3, 4, 5, 6;
+
+COMMENT ON TABLE solicitud_heatmap IS 'Rollup incremental para GET /api/portal/stats/heatmap (HeatmapService)';
@@ -0,0 +1,10 @@
+-- ============================================
+-- V14__mensaje_historial_index.sql
+-- Índice para paginar el historial del chat por (fecha_envio, id)
+-- ============================================
+
+CREATE INDEX IF NOT EXISTS idx_mensaje_solicitud_fecha_id
+    ON mensaje (solicitud_id, fecha_envio, id);
+
+-- Queda cubierto por el compuesto (mismo prefijo)
+DROP INDEX IF EXISTS idx_mensaje_solicitud;
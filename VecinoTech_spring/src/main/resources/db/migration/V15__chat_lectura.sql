@@ -0,0 +1,69 @@
+-- ============================================
+-- V15__chat_lectura.sql
+-- Estado de lectura de cada participante en cada chat:
+-- último mensaje leído y contador de no leídos
+-- ============================================
+
+CREATE TABLE chat_lectura (
+                              usuario_id BIGINT NOT NULL,
+                              solicitud_id BIGINT NOT NULL,
+                              ultimo_leido_id BIGINT NOT NULL DEFAULT 0,  -- id del último mensaje leído (0 = ninguno)
+                              no_leidos INTEGER NOT NULL DEFAULT 0,       -- mensajes del otro participante sin leer
+                              fecha_lectura TIMESTAMPTZ,
+
+                              -- La PK empieza por usuario: los contadores de todos sus chats son un rango del índice
+                              PRIMARY KEY (usuario_id, solicitud_id),
+
+                              CONSTRAINT fk_chat_lectura_usuario
+                                  FOREIGN KEY (usuario_id) REFERENCES usuario (id) ON DELETE CASCADE,
+                              CONSTRAINT fk_chat_lectura_solicitud
+                                  FOREIGN KEY (solicitud_id) REFERENCES solicitud (id) ON DELETE CASCADE
+);
+
+-- Carga inicial desde mensaje.leido (se marcaban todos los de un chat a la vez,
+-- así que el mayor id leído es la marca de lectura)
+INSERT INTO chat_lectura (usuario_id, solicitud_id, ultimo_leido_id, no_leidos)
+SELECT p.usuario_id,
+       s.id,
+       COALESCE(MAX(m.id) FILTER (WHERE m.leido), 0),
+       COUNT(m.id) FILTER (WHERE NOT COALESCE(m.leido, FALSE))
+FROM solicitud s
+         CROSS JOIN LATERAL (VALUES (s.solicitante_id), (s.voluntario_id)) AS p(usuario_id)
+         LEFT JOIN mensaje m ON m.solicitud_id = s.id AND m.remitente_id <> p.usuario_id
+WHERE s.voluntario_id IS NOT NULL
+GROUP BY p.usuario_id, s.id;
+
+-- Suma los mensajes nuevos al contador del otro participante.
+-- Es de sentencia: un INSERT multi-fila (group commit) hace un solo UPDATE por chat
+CREATE OR REPLACE FUNCTION contar_mensajes_no_leidos()
+RETURNS TRIGGER AS $$
+BEGIN
+INSERT INTO chat_lectura (usuario_id, solicitud_id, no_leidos)
+SELECT d.usuario_id, n.solicitud_id, COUNT(*)
+FROM nuevos n
+         JOIN solicitud s ON s.id = n.solicitud_id
+         CROSS JOIN LATERAL (VALUES (s.solicitante_id), (s.voluntario_id)) AS d(usuario_id)
+WHERE d.usuario_id IS NOT NULL
+  AND d.usuario_id <> n.remitente_id
+GROUP BY d.usuario_id, n.solicitud_id
+-- Mismo orden de bloqueo en todos los lotes para no crear interbloqueos
+ORDER BY d.usuario_id, n.solicitud_id
+    ON CONFLICT (usuario_id, solicitud_id)
+    DO UPDATE SET no_leidos = chat_lectura.no_leidos + EXCLUDED.no_leidos;
+
+RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_contar_no_leidos
+    AFTER INSERT ON mensaje
+    REFERENCING NEW TABLE AS nuevos
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION contar_mensajes_no_leidos();
+
+-- mensaje.leido ya no se actualiza (lo sustituye chat_lectura.ultimo_leido_id)
+DROP INDEX IF EXISTS idx_mensaje_leido;
+
+COMMENT ON TABLE chat_lectura IS 'Último mensaje leído y contador de no leídos por participante y chat';
+COMMENT ON COLUMN mensaje.leido IS 'Obsoleto desde V15: la lectura se guarda en chat_lectura';
+COMMENT ON FUNCTION contar_mensajes_no_leidos IS 'Incrementa chat_lectura.no_leidos del destinatario';
@@ -0,0 +1,10 @@
+-- ============================================
+-- V16__solicitud_participantes_index.sql
+-- Índices para la bandeja de conversaciones (solicitudes EN_PROCESO de un usuario)
+-- ============================================
+
+CREATE INDEX IF NOT EXISTS idx_solicitud_solicitante_en_proceso
+    ON solicitud (solicitante_id) WHERE estado = 'EN_PROCESO';
+
+CREATE INDEX IF NOT EXISTS idx_solicitud_voluntario_en_proceso
+    ON solicitud (voluntario_id) WHERE estado = 'EN_PROCESO';
@@ -0,0 +1,15 @@
+-- ============================================
+-- V17__notificacion_outbox.sql
+-- Desborde de la cola de notificaciones WebSocket (NotificacionOutboxService):
+-- solo se escribe aquí cuando la cola en memoria está llena
+-- ============================================
+
+CREATE TABLE notificacion_outbox (
+                                     id BIGSERIAL PRIMARY KEY,           -- orden de envío
+                                     destino VARCHAR(200) NOT NULL,      -- topic STOMP, ej: /topic/chat/42
+                                     clave VARCHAR(100),                 -- clave de coalescencia (opcional)
+                                     payload TEXT NOT NULL,              -- cuerpo JSON ya serializado
+                                     fecha_creacion TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+COMMENT ON TABLE notificacion_outbox IS 'Notificaciones pendientes que no cupieron en la cola en memoria';
@@ -0,0 +1,15 @@
+-- ============================================
+-- V18__mensaje_busqueda.sql
+-- Búsqueda de texto completo en los mensajes del chat
+-- ============================================
+
+-- Columna generada: PostgreSQL la mantiene sola en cada INSERT/UPDATE
+-- (añadirla reescribe la tabla una vez)
+ALTER TABLE mensaje
+    ADD COLUMN IF NOT EXISTS contenido_tsv tsvector
+        GENERATED ALWAYS AS (to_tsvector('spanish', contenido)) STORED;
+
+CREATE INDEX IF NOT EXISTS idx_mensaje_contenido_tsv
+    ON mensaje USING GIN (contenido_tsv);
+
+COMMENT ON COLUMN mensaje.contenido_tsv IS 'tsvector (configuración spanish) de contenido para GET /api/portal/chat/buscar';
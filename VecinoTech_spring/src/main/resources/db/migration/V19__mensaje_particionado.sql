@@ -0,0 +1,186 @@
+-- ============================================
+-- V19__mensaje_particionado.sql
+-- mensaje pasa a estar particionada por mes sobre fecha_envio,
+-- y los chats CERRADOS antiguos se archivan comprimidos en mensaje_archivo
+-- ============================================
+
+-- ---------- Nueva tabla particionada ----------
+-- La PK tiene que incluir la clave de partición: (id, fecha_envio).
+-- id sigue saliendo de mensaje_id_seq, así que sigue siendo único
+CREATE TABLE mensaje_particionado (
+                                      id BIGINT NOT NULL DEFAULT nextval('mensaje_id_seq'),
+                                      solicitud_id BIGINT NOT NULL,
+                                      remitente_id BIGINT NOT NULL,
+                                      contenido VARCHAR(1000) NOT NULL,
+                                      fecha_envio TIMESTAMPTZ DEFAULT CURRENT_TIMESTAMP NOT NULL,
+                                      leido BOOLEAN DEFAULT FALSE,
+                                      contenido_tsv tsvector
+                                          GENERATED ALWAYS AS (to_tsvector('spanish', contenido)) STORED
+) PARTITION BY RANGE (fecha_envio);
+
+-- Red de seguridad: lo que caiga fuera de las particiones mensuales
+-- (relojes desfasados, meses que aún no se han creado)
+CREATE TABLE mensaje_default PARTITION OF mensaje_particionado DEFAULT;
+
+-- ---------- Creación de particiones mensuales ----------
+-- Crea (si no existen) las particiones de 'meses' meses a partir del mes de 'desde'.
+-- Si la DEFAULT ya tiene filas de ese mes se mueven a la partición nueva
+-- (insertando en la partición directamente: no dispara el trigger de no leídos de mensaje)
+-- Devuelve cuántas particiones ha creado
+CREATE OR REPLACE FUNCTION crear_particiones_mensaje(desde DATE, meses INTEGER)
+RETURNS INTEGER AS $$
+DECLARE
+    padre TEXT := 'mensaje';
+    inicio DATE := date_trunc('month', desde)::date;
+    fin DATE;
+    nombre TEXT;
+    hay_en_default BOOLEAN;
+    creadas INTEGER := 0;
+BEGIN
+    -- Durante esta migración la tabla todavía se llama mensaje_particionado
+    IF to_regclass('mensaje_particionado') IS NOT NULL THEN
+        padre := 'mensaje_particionado';
+    END IF;
+
+    FOR i IN 1 .. meses LOOP
+        fin := (inicio + INTERVAL '1 month')::date;
+        nombre := format('mensaje_p%s', to_char(inicio, 'YYYY_MM'));
+
+        IF to_regclass(nombre) IS NULL THEN
+            EXECUTE 'SELECT EXISTS (SELECT 1 FROM mensaje_default WHERE fecha_envio >= $1 AND fecha_envio < $2)'
+                INTO hay_en_default USING inicio, fin;
+
+            IF hay_en_default THEN
+                CREATE TEMP TABLE mensaje_movidos (
+                    id BIGINT, solicitud_id BIGINT, remitente_id BIGINT,
+                    contenido VARCHAR(1000), fecha_envio TIMESTAMPTZ, leido BOOLEAN
+                );
+                WITH movidos AS (
+                    DELETE FROM mensaje_default
+                    WHERE fecha_envio >= inicio AND fecha_envio < fin
+                    RETURNING id, solicitud_id, remitente_id, contenido, fecha_envio, leido
+                )
+                INSERT INTO mensaje_movidos SELECT * FROM movidos;
+            END IF;
+
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           nombre, padre, inicio, fin);
+
+            IF hay_en_default THEN
+                EXECUTE format('INSERT INTO %I (id, solicitud_id, remitente_id, contenido, fecha_envio, leido) '
+                               'SELECT * FROM mensaje_movidos', nombre);
+                DROP TABLE mensaje_movidos;
+            END IF;
+
+            creadas := creadas + 1;
+        END IF;
+
+        inicio := fin;
+    END LOOP;
+
+    RETURN creadas;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Borra las particiones mensuales VACÍAS que terminan antes de 'antes'
+-- (se quedan vacías cuando sus chats se archivan). Devuelve cuántas ha borrado
+CREATE OR REPLACE FUNCTION borrar_particiones_mensaje_vacias(antes DATE)
+RETURNS INTEGER AS $$
+DECLARE
+    particion RECORD;
+    vacia BOOLEAN;
+    borradas INTEGER := 0;
+BEGIN
+    FOR particion IN
+        SELECT c.relname
+        FROM pg_inherits i
+                 JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'mensaje'::regclass
+          AND c.relname ~ '^mensaje_p[0-9]{4}_[0-9]{2}$'
+          AND (to_date(substring(c.relname FROM 10), 'YYYY_MM') + INTERVAL '1 month')::date <= antes
+        ORDER BY c.relname
+    LOOP
+        EXECUTE format('SELECT NOT EXISTS (SELECT 1 FROM %I)', particion.relname) INTO vacia;
+        IF vacia THEN
+            EXECUTE format('DROP TABLE %I', particion.relname);
+            borradas := borradas + 1;
+        END IF;
+    END LOOP;
+
+    RETURN borradas;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Particiones para todo lo que ya hay y los próximos 3 meses
+SELECT crear_particiones_mensaje(
+               d.desde,
+               ((EXTRACT(YEAR FROM now()) - EXTRACT(YEAR FROM d.desde)) * 12
+                   + EXTRACT(MONTH FROM now()) - EXTRACT(MONTH FROM d.desde))::int + 4)
+FROM (SELECT COALESCE(MIN(fecha_envio), now())::date AS desde FROM mensaje) d;
+
+-- ---------- Copia de los datos ----------
+-- Antes de crear el trigger de no leídos: chat_lectura ya está al día
+INSERT INTO mensaje_particionado (id, solicitud_id, remitente_id, contenido, fecha_envio, leido)
+SELECT id, solicitud_id, remitente_id, contenido, fecha_envio, leido
+FROM mensaje;
+
+-- La secuencia sobrevive al DROP de la tabla antigua
+ALTER TABLE mensaje ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE mensaje_id_seq OWNED BY NONE;
+
+-- Se lleva con ella trigger_contar_no_leidos, idx_mensaje_fecha,
+-- idx_mensaje_solicitud_fecha_id e idx_mensaje_contenido_tsv
+DROP TABLE mensaje;
+
+ALTER TABLE mensaje_particionado RENAME TO mensaje;
+ALTER SEQUENCE mensaje_id_seq OWNED BY mensaje.id;
+
+-- ---------- Restricciones e índices (se crean en cada partición) ----------
+ALTER TABLE mensaje
+    ADD CONSTRAINT mensaje_pkey PRIMARY KEY (id, fecha_envio),
+    ADD CONSTRAINT fk_mensaje_solicitud
+        FOREIGN KEY (solicitud_id) REFERENCES solicitud (id) ON DELETE CASCADE,
+    ADD CONSTRAINT fk_mensaje_remitente
+        FOREIGN KEY (remitente_id) REFERENCES usuario (id) ON DELETE CASCADE;
+
+-- Historial, bandeja y marca de lectura (ver MensajeRepository / SolicitudRepository).
+-- idx_mensaje_fecha no se recrea: la partición ya acota por fecha
+CREATE INDEX idx_mensaje_solicitud_fecha_id ON mensaje (solicitud_id, fecha_envio, id);
+
+CREATE INDEX idx_mensaje_contenido_tsv ON mensaje USING GIN (contenido_tsv);
+
+-- Los triggers de sentencia con tabla de transición sobre la tabla particionada
+-- ven las filas de todas las particiones
+CREATE TRIGGER trigger_contar_no_leidos
+    AFTER INSERT ON mensaje
+    REFERENCING NEW TABLE AS nuevos
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION contar_mensajes_no_leidos();
+
+ANALYZE mensaje;
+
+-- ---------- Archivo ----------
+-- Una fila por chat archivado con todos sus mensajes en un array JSONB,
+-- que PostgreSQL comprime (TOAST) y guarda fuera de la fila.
+-- toast_tuple_target baja el umbral de compresión (2 KB por defecto) para los chats cortos
+CREATE TABLE mensaje_archivo (
+                                 solicitud_id BIGINT PRIMARY KEY,
+                                 num_mensajes INTEGER NOT NULL,
+                                 primer_mensaje TIMESTAMPTZ NOT NULL,
+                                 ultimo_mensaje TIMESTAMPTZ NOT NULL,
+                                 mensajes JSONB NOT NULL,  -- [{id, remitenteId, contenido, fechaEnvio}, ...] en orden
+                                 fecha_archivo TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+                                 CONSTRAINT fk_mensaje_archivo_solicitud
+                                     FOREIGN KEY (solicitud_id) REFERENCES solicitud (id) ON DELETE CASCADE
+) WITH (toast_tuple_target = 128);
+
+COMMENT ON TABLE mensaje IS 'Mensajes del chat entre solicitante y voluntario (particionada por mes de fecha_envio)';
+COMMENT ON COLUMN mensaje.solicitud_id IS 'Solicitud a la que pertenece el chat';
+COMMENT ON COLUMN mensaje.remitente_id IS 'Usuario que envió el mensaje';
+COMMENT ON COLUMN mensaje.contenido IS 'Texto del mensaje (máx 1000 caracteres)';
+COMMENT ON COLUMN mensaje.leido IS 'Obsoleto desde V15: la lectura se guarda en chat_lectura';
+COMMENT ON COLUMN mensaje.contenido_tsv IS 'tsvector (configuración spanish) de contenido para GET /api/portal/chat/buscar';
+COMMENT ON TABLE mensaje_archivo IS 'Mensajes de solicitudes CERRADAS antiguas, un array JSONB comprimido por chat';
+COMMENT ON FUNCTION crear_particiones_mensaje IS 'Crea las particiones mensuales de mensaje que falten';
+COMMENT ON FUNCTION borrar_particiones_mensaje_vacias IS 'Borra particiones mensuales de mensaje vacías anteriores a una fecha';
@@ -0,0 +1,12 @@
+-- ============================================
+-- V20__usuario_rol.sql
+-- Rol del usuario (entity/Rol): USER por defecto; ADMIN da acceso a
+-- /api/portal/stats/** (métricas internas y tareas de mantenimiento)
+-- Los administradores se asignan a mano: UPDATE usuario SET rol = 'ADMIN' WHERE email = ...
+-- ============================================
+
+ALTER TABLE usuario
+    ADD COLUMN rol VARCHAR(20) NOT NULL DEFAULT 'USER',
+    ADD CONSTRAINT chk_usuario_rol CHECK (rol IN ('USER', 'ADMIN'));
+
+COMMENT ON COLUMN usuario.rol IS 'USER o ADMIN; viaja en el access token (claim rol)';
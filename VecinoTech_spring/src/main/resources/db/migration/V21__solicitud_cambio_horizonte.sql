@@ -0,0 +1,27 @@
+-- ============================================
+-- V21__solicitud_cambio_horizonte.sql
+-- El watermark del mapa deja de ser seq (que se reparte al insertar, no al hacer commit,
+-- y obligaba a serializar todas las escrituras con un advisory lock) y pasa a ser el
+-- horizonte de transacciones: cada cambio guarda el xid de su transacción y el lector
+-- solo devuelve los de xid < xmin de su snapshot, que ya han terminado todas.
+-- Además el log se poda por antigüedad (SolicitudCambioService)
+-- ============================================
+
+-- Las filas que ya había reciben el xid de esta migración
+ALTER TABLE solicitud_cambio
+    ADD COLUMN xid BIGINT NOT NULL DEFAULT (pg_current_xact_id()::text::bigint);
+
+CREATE INDEX idx_solicitud_cambio_xid ON solicitud_cambio (xid);
+CREATE INDEX idx_solicitud_cambio_fecha ON solicitud_cambio (fecha);
+
+-- Hasta qué xid se han borrado cambios: un cliente con un watermark
+-- igual o menor se ha perdido alguno y tiene que recargar el mapa entero
+CREATE TABLE solicitud_cambio_poda (
+                                       id SMALLINT PRIMARY KEY DEFAULT 1 CHECK (id = 1),
+                                       xid_hasta BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO solicitud_cambio_poda DEFAULT VALUES;
+
+COMMENT ON COLUMN solicitud_cambio.xid IS 'Transacción que escribió el cambio (pg_current_xact_id); el watermark del mapa se compara con ella';
+COMMENT ON TABLE solicitud_cambio_poda IS 'Fila única: mayor xid de los cambios borrados por antigüedad';
@@ -0,0 +1,11 @@
+-- ============================================
+-- V22__geocode_backfill_reintentos.sql
+-- El cursor del backfill avanza aunque algún usuario del lote no se pueda geocodificar
+-- (Nominatim caído, solo salió la provincia...). Se guarda el menor id fallido y la
+-- siguiente ejecución retrocede el cursor hasta él, sin tener que lanzar reiniciar=true
+-- ============================================
+
+ALTER TABLE geocode_backfill
+    ADD COLUMN primer_fallido BIGINT;
+
+COMMENT ON COLUMN geocode_backfill.primer_fallido IS 'Menor id que falló en esta pasada: la siguiente ejecución vuelve a empezar desde él';
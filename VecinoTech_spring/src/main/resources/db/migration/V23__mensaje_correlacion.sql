@@ -0,0 +1,12 @@
+-- ============================================
+-- V23__mensaje_correlacion.sql
+-- El group commit del chat (MensajeLoteService) inserta un lote con un solo
+-- INSERT ... RETURNING y tiene que saber qué id ha recibido cada mensaje.
+-- En vez de fiarse del orden de RETURNING, cada fila lleva un UUID generado
+-- por el servidor y se casa por él
+-- ============================================
+
+ALTER TABLE mensaje
+    ADD COLUMN correlacion UUID;
+
+COMMENT ON COLUMN mensaje.correlacion IS 'UUID del lote de group commit con el que se casa el id devuelto por RETURNING (NULL en el camino síncrono)';
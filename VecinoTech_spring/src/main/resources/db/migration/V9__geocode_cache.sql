@@ -0,0 +1,17 @@
+-- ============================================
+-- V9__geocode_cache.sql
+-- Caché persistente de geocodificación (Nominatim)
+-- ============================================
+
+CREATE TABLE geocode_cache (
+                               clave VARCHAR(500) PRIMARY KEY,       -- dirección normalizada: calle|ciudad|cp|pais
+                               ubicacion GEOGRAPHY(Point, 4326),      -- NULL si es un resultado negativo
+                               encontrado BOOLEAN NOT NULL,
+                               fecha_actualizacion TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Para purgar entradas caducadas
+CREATE INDEX idx_geocode_cache_fecha ON geocode_cache (fecha_actualizacion);
+
+COMMENT ON TABLE geocode_cache IS 'Resultados de geocodificación cacheados para no repetir llamadas a Nominatim';
+COMMENT ON COLUMN geocode_cache.encontrado IS 'FALSE = caché negativa (la dirección no se pudo geocodificar)';
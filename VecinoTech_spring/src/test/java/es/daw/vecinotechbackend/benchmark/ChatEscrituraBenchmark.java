@@ -0,0 +1,124 @@
+package es.daw.vecinotechbackend.benchmark;
+
+import es.daw.vecinotechbackend.VecinoTechBackendApplication;
+import es.daw.vecinotechbackend.service.ChatService;
+import es.daw.vecinotechbackend.service.MensajeLoteService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput de ChatService.enviarMensaje contra la base de datos configurada:
+ * camino directo (un INSERT por mensaje) frente a group commit en sus dos durabilidades.
+ * Cada modo arranca su propio contexto de Spring, crea una solicitud EN_PROCESO de
+ * prueba, envía HILOS x MENSAJES_POR_HILO mensajes y la borra al terminar.
+ *
+ * No es un test: se ejecuta a mano (main) con la BD levantada, ej:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=es.daw.vecinotechbackend.benchmark.ChatEscrituraBenchmark
+ */
+public class ChatEscrituraBenchmark {
+
+    private static final int HILOS = 32;
+    private static final int MENSAJES_POR_HILO = 500;
+    private static final int CALENTAMIENTO = 1000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> resultados = new ArrayList<>();
+        resultados.add(medir("directo", "app.chat.group-commit.activo=false"));
+        resultados.add(medir("group commit CONFIRMADO", "app.chat.group-commit.activo=true",
+                "app.chat.group-commit.durabilidad=CONFIRMADO"));
+        resultados.add(medir("group commit ENCOLADO", "app.chat.group-commit.activo=true",
+                "app.chat.group-commit.durabilidad=ENCOLADO"));
+
+        System.out.println();
+        resultados.forEach(System.out::println);
+    }
+
+    private static String medir(String modo, String... propiedades) throws Exception {
+        List<String> props = new ArrayList<>(List.of(propiedades));
+        props.add("server.port=0");
+        props.add("app.geocode.backfill.al-arrancar=false");
+
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(VecinoTechBackendApplication.class)
+                .properties(props.toArray(String[]::new))
+                .run()) {
+
+            ChatService chatService = ctx.getBean(ChatService.class);
+            MensajeLoteService loteService = ctx.getBean(MensajeLoteService.class);
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+
+            long sufijo = System.nanoTime();
+            Long solicitanteId = crearUsuario(jdbc, "bench-s-" + sufijo);
+            Long voluntarioId = crearUsuario(jdbc, "bench-v-" + sufijo);
+            Long solicitudId = jdbc.queryForObject("""
+                    INSERT INTO solicitud (solicitante_id, voluntario_id, titulo, descripcion, categoria, estado)
+                    VALUES (?, ?, 'Benchmark chat', 'Benchmark chat', 'OTROS', 'EN_PROCESO') RETURNING id""",
+                    Long.class, solicitanteId, voluntarioId);
+
+            try {
+                enviar(chatService, solicitudId, solicitanteId, voluntarioId, 1, CALENTAMIENTO);
+
+                long escritosAntes = loteService.isActivo() ? (long) loteService.estadisticas().get("escritos") : 0;
+                long total = (long) HILOS * MENSAJES_POR_HILO;
+
+                long inicio = System.nanoTime();
+                enviar(chatService, solicitudId, solicitanteId, voluntarioId, HILOS, MENSAJES_POR_HILO);
+                long aceptados = System.nanoTime() - inicio;
+
+                // En ENCOLADO la respuesta llega antes de escribir: medimos también hasta que está en BD
+                while (loteService.isActivo()
+                        && (long) loteService.estadisticas().get("escritos") - escritosAntes < total) {
+                    Thread.sleep(1);
+                }
+                long escritos = System.nanoTime() - inicio;
+
+                return String.format("%-26s %9.0f msg/s aceptados  %9.0f msg/s escritos  %s",
+                        modo, total / (aceptados / 1e9), total / (escritos / 1e9),
+                        loteService.isActivo() ? loteService.estadisticas() : "");
+            } finally {
+                jdbc.update("DELETE FROM usuario WHERE id IN (?, ?)", solicitanteId, voluntarioId);
+            }
+        }
+    }
+
+    private static void enviar(ChatService chatService, Long solicitudId, Long solicitanteId, Long voluntarioId,
+                               int hilos, int mensajesPorHilo) throws Exception {
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<?>> tareas = new ArrayList<>();
+
+        for (int h = 0; h < hilos; h++) {
+            Long remitente = h % 2 == 0 ? solicitanteId : voluntarioId;
+            tareas.add(ejecutor.submit(() -> {
+                salida.await();
+                for (int i = 0; i < mensajesPorHilo; i++) {
+                    chatService.enviarMensaje(solicitudId, remitente, "Mensaje de prueba " + i);
+                }
+                return null;
+            }));
+        }
+
+        salida.countDown();
+        for (Future<?> tarea : tareas) {
+            tarea.get();
+        }
+        ejecutor.shutdown();
+        ejecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static Long crearUsuario(JdbcTemplate jdbc, String nombre) {
+        return jdbc.queryForObject("""
+                INSERT INTO usuario (nombre, email, password_hash, activo)
+                VALUES (?, ?, 'x', true) RETURNING id""",
+                Long.class, nombre, nombre + "@benchmark.test");
+    }
+}
@@ -0,0 +1,103 @@
+package es.daw.vecinotechbackend.benchmark;
+
+import es.daw.vecinotechbackend.service.GeocodeService;
+import es.daw.vecinotechbackend.util.Distancias;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el cálculo punto a punto de GeocodeService.calcularDistancia con el
+ * cálculo por lotes de Distancias (Haversine y equirectangular) sobre n candidatos
+ * alrededor de Madrid, como los que devuelve el índice en una búsqueda por radio.
+ *
+ * Ejecutar desde el IDE (main) o con:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=es.daw.vecinotechbackend.benchmark.DistanciasBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanciasBenchmark {
+
+    private static final double LAT0 = 40.4168;
+    private static final double LON0 = -3.7038;
+
+    @Param({"100", "1000", "10000"})
+    private int n;
+
+    private GeocodeService geocodeService;
+    private Point origen;
+    private Point[] puntos;
+    private double[] lats;
+    private double[] lons;
+    private double[] salida;
+
+    @Setup
+    public void preparar() {
+        // Sin caché ni geocodificador: solo se mide calcularDistancia
+        geocodeService = new GeocodeService(null, null, null, 0);
+
+        GeometryFactory gf = new GeometryFactory(new PrecisionModel(), 4326);
+        origen = gf.createPoint(new Coordinate(LON0, LAT0));
+
+        Random random = new Random(42);
+        puntos = new Point[n];
+        lats = new double[n];
+        lons = new double[n];
+        salida = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Puntos a menos de ~20 km del origen
+            lats[i] = LAT0 + (random.nextDouble() - 0.5) * 0.36;
+            lons[i] = LON0 + (random.nextDouble() - 0.5) * 0.47;
+            puntos[i] = gf.createPoint(new Coordinate(lons[i], lats[i]));
+        }
+    }
+
+    @Benchmark
+    public void calcularDistanciaPuntoAPunto(Blackhole bh) {
+        for (int i = 0; i < n; i++) {
+            bh.consume(geocodeService.calcularDistancia(origen, puntos[i]));
+        }
+    }
+
+    @Benchmark
+    public double[] haversinePorLotes() {
+        Distancias.haversine(LAT0, LON0, lats, lons, n, salida);
+        return salida;
+    }
+
+    @Benchmark
+    public double[] equirectangularPorLotes() {
+        Distancias.equirectangular(LAT0, LON0, lats, lons, n, salida);
+        return salida;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DistanciasBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,157 @@
+package es.daw.vecinotechbackend.repository;
+
+import es.daw.vecinotechbackend.dto.solicitud.ISolicitudMapaDTO;
+import es.daw.vecinotechbackend.entity.Solicitud;
+import es.daw.vecinotechbackend.entity.Usuario;
+import es.daw.vecinotechbackend.mapper.SolicitudMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Los listados de solicitudes deben lanzar un número constante de sentencias
+ * (una) aunque devuelvan cientos de filas con solicitante y voluntario distintos
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional
+class SolicitudListadosQueryCountTest {
+
+    private static final int FILAS = 500;
+
+    @Autowired
+    private SolicitudRepository solicitudRepository;
+
+    @Autowired
+    private SolicitudMapper solicitudMapper;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private Usuario solicitante;
+    private Usuario voluntario;
+    private int usuariosCreados;
+
+    @BeforeEach
+    void crearDatos() {
+        solicitante = crearUsuario("solicitante");
+        voluntario = crearUsuario("voluntario");
+
+        // Cada solicitud con su propio solicitante/voluntario para que un N+1 se note
+        for (int i = 0; i < FILAS; i++) {
+            Usuario otroSolicitante = i == 0 ? solicitante : crearUsuario("s" + i);
+            Usuario otroVoluntario = i % 2 == 0 ? crearUsuario("v" + i) : null;
+
+            Solicitud s = new Solicitud();
+            s.setSolicitante(otroSolicitante);
+            s.setVoluntario(otroVoluntario);
+            s.setTitulo("Solicitud " + i);
+            s.setDescripcion("Descripción " + i);
+            s.setCategoria("INFORMATICA");
+            s.setEstado(otroVoluntario == null ? "ABIERTA" : "EN_PROCESO");
+            s.setUbicacion(geometryFactory.createPoint(new Coordinate(-3.70 + i * 0.0001, 40.41)));
+            entityManager.persist(s);
+        }
+
+        // Las del usuario de prueba: como solicitante y como voluntario
+        for (int i = 0; i < FILAS; i++) {
+            Solicitud s = new Solicitud();
+            s.setSolicitante(i % 2 == 0 ? solicitante : crearUsuario("x" + i));
+            s.setVoluntario(i % 2 == 0 ? crearUsuario("y" + i) : voluntario);
+            s.setTitulo("Propia " + i);
+            s.setDescripcion("Descripción " + i);
+            s.setCategoria("COMPRAS");
+            s.setEstado("CERRADA");
+            entityManager.persist(s);
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void mapaAbiertasEnUnaSentencia() {
+        List<ISolicitudMapaDTO> dtos = contarSentencias(1, () ->
+                solicitudRepository.findAllAbiertasConUbicacion().stream()
+                        .map(solicitudMapper::toMapaDTO)
+                        .toList());
+
+        assertTrue(dtos.size() >= FILAS / 2);
+        assertTrue(dtos.stream().allMatch(d -> d.getSolicitante().getNombre() != null));
+    }
+
+    @Test
+    void mapaAbiertasYEnProcesoEnUnaSentencia() {
+        List<ISolicitudMapaDTO> dtos = contarSentencias(1, () ->
+                solicitudRepository.findAllAbiertasYEnProcesoConUbicacion().stream()
+                        .map(solicitudMapper::toMapaDTO)
+                        .toList());
+
+        assertTrue(dtos.size() >= FILAS);
+        assertTrue(dtos.stream()
+                .filter(d -> "EN_PROCESO".equals(d.getEstado()))
+                .allMatch(d -> d.getVoluntario().getNombre() != null));
+    }
+
+    @Test
+    void misSolicitudesEnUnaSentencia() {
+        List<ISolicitudMapaDTO> dtos = contarSentencias(1, () ->
+                solicitudRepository.findBySolicitanteId(solicitante.getId()).stream()
+                        .map(solicitudMapper::toMapaDTO)
+                        .toList());
+
+        assertEquals(FILAS / 2 + 1, dtos.size());
+    }
+
+    @Test
+    void solicitudesComoVoluntarioEnUnaSentencia() {
+        List<ISolicitudMapaDTO> dtos = contarSentencias(1, () ->
+                solicitudRepository.findByVoluntarioId(voluntario.getId()).stream()
+                        .map(solicitudMapper::toMapaDTO)
+                        .toList());
+
+        assertEquals(FILAS / 2, dtos.size());
+    }
+
+    // ==================== AUXILIARES ====================
+
+    private <T> T contarSentencias(long esperadas, Supplier<T> consulta) {
+        Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+
+        T resultado = consulta.get();
+
+        assertEquals(esperadas, stats.getPrepareStatementCount(),
+                "Número de sentencias SQL lanzadas por el listado");
+        return resultado;
+    }
+
+    private Usuario crearUsuario(String nombre) {
+        Usuario u = new Usuario();
+        u.setNombre(nombre);
+        u.setEmail(nombre + "-" + (++usuariosCreados) + "@querycount.test");
+        u.setPasswordHash("x");
+        u.setActivo(true);
+        entityManager.persist(u);
+        return u;
+    }
+}
@@ -0,0 +1,111 @@
+package es.daw.vecinotechbackend.service;
+
+import es.daw.vecinotechbackend.VecinoTechBackendApplication;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Dos instancias de la aplicación contra la misma PostgreSQL: lo que se envía a
+ * /topic/chat/* en un nodo tiene que llegar al broker del otro, una sola vez,
+ * y lo que no está en los destinos replicados no debe salir del nodo
+ */
+class ClusterBusIntegracionTest {
+
+    private ConfigurableApplicationContext nodoA;
+    private ConfigurableApplicationContext nodoB;
+
+    // Mensajes que llegan al broker de cada nodo
+    private final List<String> brokerA = new CopyOnWriteArrayList<>();
+    private final List<String> brokerB = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void arrancarNodos() {
+        nodoA = arrancar(brokerA);
+        nodoB = arrancar(brokerB);
+    }
+
+    @AfterEach
+    void pararNodos() {
+        if (nodoA != null) nodoA.close();
+        if (nodoB != null) nodoB.close();
+    }
+
+    @Test
+    void elChatDeUnNodoLlegaAlOtroUnaSolaVez() throws Exception {
+        SimpMessagingTemplate template = nodoA.getBean(SimpMessagingTemplate.class);
+
+        for (int i = 0; i < 20; i++) {
+            template.convertAndSend("/topic/chat/42", Map.of("texto", "hola " + i));
+        }
+
+        esperarHasta(() -> brokerB.size() >= 20);
+        Thread.sleep(300);
+
+        assertEquals(20, brokerB.size());
+        assertTrue(brokerB.stream().allMatch(d -> d.equals("/topic/chat/42")));
+        // A no recibe de vuelta sus propios mensajes
+        assertEquals(20, brokerA.size());
+    }
+
+    @Test
+    void losDestinosNoReplicadosSeQuedanEnSuNodo() throws Exception {
+        nodoA.getBean(SimpMessagingTemplate.class).convertAndSend("/topic/mapa/ezjmg", Map.of("tipo", "alta"));
+        nodoA.getBean(SimpMessagingTemplate.class).convertAndSend("/topic/notificaciones/7", Map.of("tipo", "aviso"));
+
+        esperarHasta(() -> brokerB.contains("/topic/notificaciones/7"));
+        Thread.sleep(300);
+
+        assertEquals(List.of("/topic/notificaciones/7"), brokerB);
+    }
+
+    // ==================== AUXILIARES ====================
+
+    private ConfigurableApplicationContext arrancar(List<String> recibidos) {
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(VecinoTechBackendApplication.class)
+                .properties(
+                        "server.port=0",
+                        "app.cluster.activo=true",
+                        "app.cluster.canal=vecinotech_stomp_test",
+                        "app.geocode.backfill.al-arrancar=false")
+                .run();
+
+        // Anotamos lo que entra en el broker local (envíos propios y reinyectados)
+        AbstractSubscribableChannel brokerChannel = ctx.getBean("brokerChannel", AbstractSubscribableChannel.class);
+        brokerChannel.addInterceptor(new ChannelInterceptor() {
+            @Override
+            public void postSend(Message<?> message, MessageChannel channel, boolean sent) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                if (accessor.getMessageType() == SimpMessageType.MESSAGE) {
+                    recibidos.add(accessor.getDestination());
+                }
+            }
+        });
+        return ctx;
+    }
+
+    private static void esperarHasta(BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condicion.getAsBoolean() && System.nanoTime() < limite) {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package es.daw.vecinotechbackend.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Point;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * NominatimCliente contra un servidor HTTP local que simula latencia y respuestas 429/5xx
+ */
+class NominatimClienteTest {
+
+    private static final String MADRID = "[{\"lat\":\"40.4168\",\"lon\":\"-3.7038\"}]";
+
+    private HttpServer servidor;
+    private ExecutorService hilos;
+
+    // Comportamiento del stub, modificable en cada test
+    private volatile int codigo = 200;
+    private volatile String cuerpo = MADRID;
+    private volatile long latenciaMs = 0;
+    private volatile long goteoMs = 0; // > 0: el cuerpo se manda byte a byte con esta pausa
+    private final AtomicInteger recibidas = new AtomicInteger();
+
+    @BeforeEach
+    void arrancarStub() throws IOException {
+        servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        servidor.createContext("/search", this::responder);
+        hilos = Executors.newCachedThreadPool();
+        servidor.setExecutor(hilos);
+        servidor.start();
+    }
+
+    @AfterEach
+    void pararStub() {
+        servidor.stop(0);
+        hilos.shutdownNow();
+    }
+
+    @Test
+    void devuelveLaUbicacionDelPrimerResultado() throws Exception {
+        Point p = cliente(1000, 4, 3, 60_000).buscar("Puerta del Sol, Madrid", plazo(2000));
+
+        assertNotNull(p);
+        assertEquals(40.4168, p.getY(), 1e-9);
+        assertEquals(-3.7038, p.getX(), 1e-9);
+    }
+
+    @Test
+    void sinResultadosDevuelveNull() throws Exception {
+        cuerpo = "[]";
+
+        assertNull(cliente(1000, 4, 3, 60_000).buscar("nada", plazo(2000)));
+    }
+
+    @Test
+    void el429CuentaComoFalloYNoComoSinResultados() {
+        codigo = 429;
+        NominatimCliente cliente = cliente(1000, 4, 3, 60_000);
+
+        assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        assertEquals(1L, cliente.estadisticas().get("http429"));
+    }
+
+    @Test
+    void elBreakerSeAbreTrasVariosFallosYNoLlamaMas() {
+        codigo = 503;
+        NominatimCliente cliente = cliente(1000, 4, 3, 60_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        }
+        assertEquals("ABIERTO", cliente.estadisticas().get("breaker"));
+
+        // Con el breaker abierto se falla al momento sin tocar el upstream
+        long inicio = System.nanoTime();
+        assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) < 100);
+        assertEquals(3, recibidas.get());
+        assertEquals(1L, cliente.estadisticas().get("breakerRechazadas"));
+    }
+
+    @Test
+    void los4xxDeUnaConsultaNoAbrenElBreaker() {
+        codigo = 404;
+        NominatimCliente cliente = cliente(1000, 4, 3, 60_000);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(NominatimCliente.ConsultaRechazadaException.class, () -> cliente.buscar("x", plazo(2000)));
+        }
+        assertEquals("CERRADO", cliente.estadisticas().get("breaker"));
+        assertEquals(0, cliente.estadisticas().get("breakerFallosSeguidos"));
+        assertEquals(5, recibidas.get());
+        assertEquals(5L, cliente.estadisticas().get("http4xx"));
+    }
+
+    @Test
+    void el403EsUnVetoDelServicioYAbreElBreaker() {
+        codigo = 403;
+        NominatimCliente cliente = cliente(1000, 4, 3, 60_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        }
+        assertEquals("ABIERTO", cliente.estadisticas().get("breaker"));
+        assertEquals(3L, cliente.estadisticas().get("http403"));
+        assertEquals(0L, cliente.estadisticas().get("http4xx"));
+    }
+
+    @Test
+    void los4xxTampocoReinicianLosFallosSeguidos() {
+        NominatimCliente cliente = cliente(1000, 4, 3, 60_000);
+
+        codigo = 503;
+        for (int i = 0; i < 2; i++) {
+            assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        }
+        codigo = 400;
+        assertThrows(NominatimCliente.ConsultaRechazadaException.class, () -> cliente.buscar("x", plazo(2000)));
+        assertEquals(2, cliente.estadisticas().get("breakerFallosSeguidos"));
+
+        codigo = 503;
+        assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        assertEquals("ABIERTO", cliente.estadisticas().get("breaker"));
+    }
+
+    @Test
+    void elBreakerSeCierraSiLaPruebaVaBien() throws Exception {
+        codigo = 500;
+        NominatimCliente cliente = cliente(1000, 4, 2, 200);
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(2000)));
+        }
+        assertEquals("ABIERTO", cliente.estadisticas().get("breaker"));
+
+        Thread.sleep(300);
+        codigo = 200;
+
+        assertNotNull(cliente.buscar("x", plazo(2000)));
+        assertEquals("CERRADO", cliente.estadisticas().get("breaker"));
+    }
+
+    @Test
+    void respetaElPlazoTotalAunqueElUpstreamSeaLento() {
+        latenciaMs = 5000;
+        NominatimCliente cliente = cliente(10_000, 4, 3, 60_000);
+
+        long inicio = System.nanoTime();
+        assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(300)));
+        long duracionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+        assertTrue(duracionMs < 1500, "duró " + duracionMs + " ms");
+        assertEquals(1L, cliente.estadisticas().get("timeouts"));
+    }
+
+    @Test
+    void respetaElPlazoTotalAunqueElCuerpoLlegueAGotas() {
+        // Cada byte llega antes de un timeout de lectura, pero el cuerpo entero tardaría segundos
+        goteoMs = 100;
+        NominatimCliente cliente = cliente(10_000, 4, 3, 60_000);
+
+        long inicio = System.nanoTime();
+        assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("x", plazo(500)));
+        long duracionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+        assertTrue(duracionMs < 1500, "duró " + duracionMs + " ms");
+        assertEquals(1L, cliente.estadisticas().get("timeouts"));
+    }
+
+    @Test
+    void elBulkheadRechazaLasQueNoCaben() throws Exception {
+        latenciaMs = 500;
+        NominatimCliente cliente = cliente(2000, 1, 3, 60_000);
+
+        CountDownLatch enCurso = new CountDownLatch(1);
+        ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Point> primera = ejecutor.submit(() -> {
+                enCurso.countDown();
+                return cliente.buscar("x", plazo(2000));
+            });
+            enCurso.await();
+            Thread.sleep(100);
+
+            assertThrows(NominatimCliente.NoDisponibleException.class, () -> cliente.buscar("y", plazo(2000)));
+            assertNotNull(primera.get(3, TimeUnit.SECONDS));
+            assertEquals(1L, cliente.estadisticas().get("bulkheadRechazadas"));
+        } finally {
+            ejecutor.shutdownNow();
+        }
+    }
+
+    // ==================== AUXILIARES ====================
+
+    private NominatimCliente cliente(int timeoutMs, int maxConcurrentes, int fallosParaAbrir, long abiertoMs) {
+        String url = "http://127.0.0.1:" + servidor.getAddress().getPort();
+        return new NominatimCliente(url, 0, timeoutMs, maxConcurrentes, 50, fallosParaAbrir, abiertoMs);
+    }
+
+    private static long plazo(long ms) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    private void responder(HttpExchange exchange) throws IOException {
+        recibidas.incrementAndGet();
+        try {
+            if (latenciaMs > 0) Thread.sleep(latenciaMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (goteoMs > 0) {
+            gotear(exchange, bytes);
+            return;
+        }
+        exchange.sendResponseHeaders(codigo, codigo == 200 ? bytes.length : -1);
+        if (codigo == 200) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private void gotear(HttpExchange exchange, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (byte b : bytes) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(goteoMs);
+            }
+        } catch (InterruptedException | IOException e) {
+            // El cliente ha abandonado la petición
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package es.daw.vecinotechbackend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * NotificacionOutboxService sin BD ni broker: los mensajes se capturan en el canal
+ * del SimpMessagingTemplate y las transacciones se simulan con TransactionSynchronizationManager
+ */
+class NotificacionOutboxServiceTest {
+
+    private static final String CHAT = "/topic/chat/1";
+    private static final String MAPA = "/topic/mapa/ezjmg";
+
+    // Cuerpos (JSON) recibidos por destino, en orden de envío
+    private final List<String> enviados = new CopyOnWriteArrayList<>();
+
+    private PresenciaService presencia;
+    private NotificacionOutboxService outbox;
+
+    @BeforeEach
+    void arrancar() {
+        ClusterBusService bus = new ClusterBusService(null, null, false, "vecinotech_stomp",
+                List.of(), 10, 10, "", "", "");
+        presencia = new PresenciaService(bus);
+        suscribir(CHAT);
+        suscribir(MAPA);
+
+        SimpMessagingTemplate template = new SimpMessagingTemplate((mensaje, timeout) -> {
+            enviados.add(SimpMessageHeaderAccessor.getDestination(mensaje.getHeaders()) + " "
+                    + new String((byte[]) mensaje.getPayload(), StandardCharsets.UTF_8));
+            return true;
+        });
+        // El mismo conversor JSON que usa el broker en la aplicación
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+
+        // Lotes de 50 ms para que los eventos seguidos caigan en el mismo
+        outbox = new NotificacionOutboxService(template, presencia, null, new ObjectMapper(),
+                100, 500, 50, 60_000);
+        outbox.arrancar();
+    }
+
+    @AfterEach
+    void parar() throws InterruptedException {
+        outbox.parar();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void fueraDeTransaccionSeEnviaDirectamente() throws Exception {
+        outbox.publicar(CHAT, Map.of("n", 1));
+
+        esperarHasta(() -> enviados.size() == 1);
+        assertEquals(List.of(CHAT + " {\"n\":1}"), enviados);
+    }
+
+    @Test
+    void enTransaccionSoloSeEnviaTrasElCommit() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        outbox.publicar(CHAT, Map.of("n", 1));
+        outbox.publicar(CHAT, Map.of("n", 2));
+
+        Thread.sleep(150);
+        assertTrue(enviados.isEmpty(), "No debe salir nada antes del commit");
+
+        completar(TransactionSynchronization.STATUS_COMMITTED);
+
+        esperarHasta(() -> enviados.size() == 2);
+        assertEquals(List.of(CHAT + " {\"n\":1}", CHAT + " {\"n\":2}"), enviados);
+    }
+
+    @Test
+    void elRollbackDescartaLosEventos() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        outbox.publicar(CHAT, Map.of("n", 1));
+        completar(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        Thread.sleep(150);
+        assertTrue(enviados.isEmpty());
+        assertEquals(1L, outbox.estadisticas().get("descartadosRollback"));
+    }
+
+    @Test
+    void seQuedaSoloElUltimoEventoDeCadaClave() throws Exception {
+        outbox.publicar(MAPA, "solicitud:7", Map.of("tipo", "alta"));
+        outbox.publicar(MAPA, "solicitud:8", Map.of("tipo", "alta"));
+        outbox.publicar(MAPA, "solicitud:7", Map.of("tipo", "baja"));
+        outbox.publicar(CHAT, Map.of("n", 1));
+        outbox.publicar(CHAT, Map.of("n", 1));
+
+        esperarHasta(() -> enviados.size() >= 4);
+        Thread.sleep(100);
+
+        // Sin clave (chat) no se coalesce; en el mapa la 7 queda en su último estado
+        assertEquals(List.of(
+                MAPA + " {\"tipo\":\"alta\"}",
+                MAPA + " {\"tipo\":\"baja\"}",
+                CHAT + " {\"n\":1}",
+                CHAT + " {\"n\":1}"), enviados);
+        assertEquals(1L, outbox.estadisticas().get("coalescidos"));
+    }
+
+    @Test
+    void losTopicsSinOyentesNoSeEnvian() throws Exception {
+        outbox.publicar("/topic/chat/999", Map.of("n", 1));
+        outbox.publicar(CHAT, Map.of("n", 2));
+
+        esperarHasta(() -> enviados.size() == 1);
+        Thread.sleep(100);
+
+        assertEquals(List.of(CHAT + " {\"n\":2}"), enviados);
+        assertEquals(1L, outbox.estadisticas().get("sinOyentes"));
+    }
+
+    // ==================== AUXILIARES ====================
+
+    private void suscribir(String destino) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId("sesion-test");
+        accessor.setSubscriptionId("sub-" + destino);
+        accessor.setDestination(destino);
+        Message<byte[]> mensaje = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        presencia.onSubscribe(new SessionSubscribeEvent(this, mensaje));
+    }
+
+    /**
+     * Lo que haría el gestor de transacciones al terminar
+     */
+    private static void completar(int estado) {
+        List<TransactionSynchronization> sincronizaciones = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        sincronizaciones.forEach(s -> s.afterCompletion(estado));
+    }
+
+    private static void esperarHasta(BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condicion.getAsBoolean() && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+    }
+}